@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures how the sync task's writes interfere with UI reads under each {@link StorageProfile}.
+ * <p>
+ * 1) With write-ahead logging, a reader is not blocked by an open write transaction and still
+ * sees the last committed data
+ * 2) A benchmark that runs a writer repeatedly doing what SunshineSyncTask does (delete
+ * everything, then bulk insert the forecast in one transaction) against a few reader threads
+ * doing what the CursorLoaders do, and logs the readers' latency for each profile
+ * 3) The profile's sync mode is in effect on the connection writes go through, and the page
+ * cache isn't shrunk below SQLite's default
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestDatabaseContention {
+
+    private static final String TAG = TestDatabaseContention.class.getSimpleName();
+
+    /* Separate file so these tests never disturb weather.db */
+    private static final String CONTENTION_DATABASE_NAME = "weather_contention_test.db";
+
+    /* Enough rows that a single sync transaction takes a noticeable amount of time */
+    private static final int ROWS_PER_SYNC = 500;
+    private static final int SYNCS_PER_RUN = 20;
+    private static final int READER_THREADS = 3;
+
+    private final Context context = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper dbHelper;
+
+    @Before
+    public void before() {
+        context.deleteDatabase(CONTENTION_DATABASE_NAME);
+    }
+
+    @After
+    public void after() {
+        if (dbHelper != null) {
+            dbHelper.close();
+        }
+        context.deleteDatabase(CONTENTION_DATABASE_NAME);
+    }
+
+    /**
+     * Holds a write transaction open on one thread and makes sure a query on another thread
+     * completes in the meantime, returning the rows that were committed before the write began.
+     */
+    @Test
+    public void testReaderNotBlockedByOpenWriteTransaction() throws Exception {
+        dbHelper = new WeatherDbHelper(context, CONTENTION_DATABASE_NAME, StorageProfile.CONCURRENT);
+        final SQLiteDatabase database = dbHelper.getWritableDatabase();
+        insertForecast(database, 14);
+
+        final CountDownLatch writeInProgress = new CountDownLatch(1);
+        final CountDownLatch readFinished = new CountDownLatch(1);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                database.beginTransaction();
+                try {
+                    database.delete(WeatherEntry.TABLE_NAME, null, null);
+                    writeInProgress.countDown();
+                    /* Keep the transaction open until the reader is done, or give up */
+                    readFinished.await(10, TimeUnit.SECONDS);
+                    database.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        });
+        writer.start();
+
+        assertTrue("Writer never started its transaction",
+                writeInProgress.await(5, TimeUnit.SECONDS));
+
+        long readStart = SystemClock.elapsedRealtime();
+        int rowsSeen = countRows(dbHelper.getReadableDatabase());
+        long readLatency = SystemClock.elapsedRealtime() - readStart;
+        readFinished.countDown();
+        writer.join();
+
+        assertEquals("Reader should see the data committed before the write began",
+                14, rowsSeen);
+        assertTrue("Reader waited " + readLatency + "ms on the writer",
+                readLatency < TimeUnit.SECONDS.toMillis(5));
+    }
+
+    @Test
+    public void testProfilePragmasAreApplied() {
+        SQLiteDatabase defaults = SQLiteDatabase.create(null);
+        long defaultCacheSize = longForPragma(defaults, "cache_size");
+        long defaultPageSize = longForPragma(defaults, "page_size");
+        defaults.close();
+
+        dbHelper = new WeatherDbHelper(context, CONTENTION_DATABASE_NAME,
+                StorageProfile.CONCURRENT);
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        /* 1 is NORMAL */
+        assertEquals(1, longForPragma(database, "synchronous"));
+        assertTrue("The page cache shouldn't be smaller than SQLite's default",
+                cacheSizeKib(longForPragma(database, "cache_size"),
+                        longForPragma(database, "page_size"))
+                        >= cacheSizeKib(defaultCacheSize, defaultPageSize));
+    }
+
+    /**
+     * Runs the same writer and reader workload against every profile and logs reader latency.
+     * Compare the numbers with "adb logcat -s TestDatabaseContention". The only thing asserted
+     * is that readers made progress, because absolute timings depend too much on the device.
+     */
+    @Test
+    public void benchmarkReaderLatencyDuringSync() throws Exception {
+        StorageProfile[] profiles = {StorageProfile.ROLLBACK_JOURNAL, StorageProfile.CONCURRENT};
+        for (StorageProfile profile : profiles) {
+            context.deleteDatabase(CONTENTION_DATABASE_NAME);
+            dbHelper = new WeatherDbHelper(context, CONTENTION_DATABASE_NAME, profile);
+
+            List<Long> latencies = runWorkload(dbHelper);
+            dbHelper.close();
+            dbHelper = null;
+
+            assertTrue("Readers made no progress with " + profile, latencies.size() > 0);
+
+            Collections.sort(latencies);
+            Log.i(TAG, profile + ": reads=" + latencies.size()
+                    + " p50=" + percentile(latencies, 50) + "ms"
+                    + " p95=" + percentile(latencies, 95) + "ms"
+                    + " max=" + latencies.get(latencies.size() - 1) + "ms");
+        }
+    }
+
+    private List<Long> runWorkload(final WeatherDbHelper helper) throws InterruptedException {
+        final SQLiteDatabase writableDatabase = helper.getWritableDatabase();
+        insertForecast(writableDatabase, ROWS_PER_SYNC);
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READER_THREADS; i++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SQLiteDatabase readableDatabase = helper.getReadableDatabase();
+                    while (writing.get()) {
+                        long start = SystemClock.elapsedRealtime();
+                        countRows(readableDatabase);
+                        latencies.add(SystemClock.elapsedRealtime() - start);
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+
+        for (int i = 0; i < SYNCS_PER_RUN; i++) {
+            writableDatabase.delete(WeatherEntry.TABLE_NAME, null, null);
+            insertForecast(writableDatabase, ROWS_PER_SYNC);
+        }
+        writing.set(false);
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        return new ArrayList<>(latencies);
+    }
+
+    /**
+     * Inserts consecutive days of forecast in one transaction, the way WeatherProvider's
+     * bulkInsert does.
+     */
+    private static void insertForecast(SQLiteDatabase database, int days) {
+        long date = SunshineDateUtils.normalizeDate(TestUtilities.DATE_NORMALIZED);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < days; i++) {
+                ContentValues values = TestUtilities.createTestWeatherContentValues();
+                values.put(WeatherEntry.COLUMN_DATE, date + SunshineDateUtils.DAY_IN_MILLIS * i);
+                database.insert(WeatherEntry.TABLE_NAME, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Reads every row the way the forecast list does, so the cursor window is actually filled.
+     */
+    private static int countRows(SQLiteDatabase database) {
+        Cursor cursor = database.query(
+                WeatherEntry.TABLE_NAME,
+                null,
+                null,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long percentile(List<Long> sortedValues, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.size()) - 1;
+        return sortedValues.get(Math.max(0, index));
+    }
+
+    private static long longForPragma(SQLiteDatabase database, String pragma) {
+        return DatabaseUtils.longForQuery(database, "PRAGMA " + pragma, null);
+    }
+
+    /* cache_size is in pages when positive, and in KiB when negative */
+    private static long cacheSizeKib(long cacheSize, long pageSize) {
+        return cacheSize < 0 ? -cacheSize : cacheSize * pageSize / 1024;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.TreeMap;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Upgrades databases created with every historical schema of Sunshine to the current version and
+ * verifies that:
+ * <p>
+ * 1) The cached weather rows survive the upgrade
+ * 2) The upgraded schema is identical to the schema of a freshly created database
+ * 3) Every migration step that ran was recorded in the migration history
+ * 4) A database too old to migrate is still recreated from scratch
+ * <p>
+ * When you bump DATABASE_VERSION, add the SQL for the version you are leaving behind to
+ * {@link #HISTORICAL_SCHEMAS} along with a row that is valid for it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestDatabaseMigrations {
+
+    private static final String MIGRATION_DATABASE_NAME = "weather_migration_test.db";
+    private static final String FRESH_DATABASE_NAME = "weather_fresh_test.db";
+
+    /*
+     * Schema and sample data for every version we can migrate from, exactly as that version of
+     * Sunshine created them. These are literal SQL on purpose: they must never follow later
+     * changes to WeatherContract.
+     */
+    private static final SparseArray<String[]> HISTORICAL_SCHEMAS = new SparseArray<>();
+    private static final SparseArray<String[]> HISTORICAL_ROWS = new SparseArray<>();
+
+    static {
+        HISTORICAL_SCHEMAS.put(3, new String[]{
+                "CREATE TABLE weather (" +
+                        "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "date INTEGER NOT NULL, " +
+                        "weather_id INTEGER NOT NULL," +
+                        "min REAL NOT NULL, " +
+                        "max REAL NOT NULL, " +
+                        "humidity REAL NOT NULL, " +
+                        "pressure REAL NOT NULL, " +
+                        "wind REAL NOT NULL, " +
+                        "degrees REAL NOT NULL, " +
+                        " UNIQUE (date) ON CONFLICT REPLACE);"
+        });
+        HISTORICAL_ROWS.put(3, new String[]{
+                "INSERT INTO weather (date, weather_id, min, max, humidity, pressure, wind, degrees)"
+                        + " VALUES (1475280000000, 321, 65, 75, 1.2, 1.3, 5.5, 1.1)",
+                "INSERT INTO weather (date, weather_id, min, max, humidity, pressure, wind, degrees)"
+                        + " VALUES (1475366400000, 800, 60, 80, 1.2, 1.3, 5.5, 1.1)"
+        });
+
+        HISTORICAL_SCHEMAS.put(4, new String[]{
+                HISTORICAL_SCHEMAS.get(3)[0],
+                "CREATE TABLE IF NOT EXISTS migration_history (" +
+                        "from_version INTEGER NOT NULL, " +
+                        "to_version INTEGER NOT NULL, " +
+                        "duration_ms INTEGER NOT NULL, " +
+                        "applied_at INTEGER NOT NULL);"
+        });
+        HISTORICAL_ROWS.put(4, HISTORICAL_ROWS.get(3));
+
+        HISTORICAL_SCHEMAS.put(5, new String[]{
+                HISTORICAL_SCHEMAS.get(4)[0],
+                HISTORICAL_SCHEMAS.get(4)[1],
+                "CREATE TABLE IF NOT EXISTS weather_history (" +
+                        "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "issued_at INTEGER NOT NULL, " +
+                        "date INTEGER NOT NULL, " +
+                        "weather_id INTEGER NOT NULL, " +
+                        "min REAL NOT NULL, " +
+                        "max REAL NOT NULL, " +
+                        "humidity REAL NOT NULL, " +
+                        "pressure REAL NOT NULL, " +
+                        "wind REAL NOT NULL, " +
+                        "degrees REAL NOT NULL, " +
+                        " UNIQUE (issued_at, date) ON CONFLICT REPLACE);",
+                "CREATE INDEX IF NOT EXISTS weather_history_date_idx ON weather_history " +
+                        "(date, issued_at);"
+        });
+        HISTORICAL_ROWS.put(5, HISTORICAL_ROWS.get(3));
+
+        HISTORICAL_SCHEMAS.put(6, new String[]{
+                HISTORICAL_SCHEMAS.get(5)[0],
+                HISTORICAL_SCHEMAS.get(5)[1],
+                HISTORICAL_SCHEMAS.get(5)[2],
+                HISTORICAL_SCHEMAS.get(5)[3],
+                "CREATE TABLE IF NOT EXISTS weather_archive (" +
+                        "_id INTEGER PRIMARY KEY, " +
+                        "issued_at INTEGER NOT NULL, " +
+                        "location TEXT NOT NULL, " +
+                        "first_date INTEGER NOT NULL, " +
+                        "last_date INTEGER NOT NULL, " +
+                        "data BLOB NOT NULL, " +
+                        " UNIQUE (location, issued_at) ON CONFLICT REPLACE);",
+                "CREATE INDEX IF NOT EXISTS weather_archive_date_idx ON weather_archive " +
+                        "(location, first_date);"
+        });
+        HISTORICAL_ROWS.put(6, HISTORICAL_ROWS.get(3));
+
+        HISTORICAL_SCHEMAS.put(7, new String[]{
+                HISTORICAL_SCHEMAS.get(6)[0],
+                HISTORICAL_SCHEMAS.get(6)[1],
+                HISTORICAL_SCHEMAS.get(6)[2],
+                HISTORICAL_SCHEMAS.get(6)[3],
+                HISTORICAL_SCHEMAS.get(6)[4],
+                HISTORICAL_SCHEMAS.get(6)[5],
+                "CREATE INDEX IF NOT EXISTS weather_forecast_cover_idx ON weather " +
+                        "(date, weather_id, max, min);"
+        });
+        HISTORICAL_ROWS.put(7, HISTORICAL_ROWS.get(3));
+    }
+
+    private final Context context = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void before() {
+        context.deleteDatabase(MIGRATION_DATABASE_NAME);
+        context.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @After
+    public void after() {
+        context.deleteDatabase(MIGRATION_DATABASE_NAME);
+        context.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Test
+    public void testUpgradeFromEveryHistoricalVersionKeepsData() {
+        SQLiteDatabase fresh = openFreshDatabase();
+        int currentVersion = fresh.getVersion();
+        TreeMap<String, String> expectedSchema = readSchema(fresh);
+        fresh.close();
+
+        for (int i = 0; i < HISTORICAL_SCHEMAS.size(); i++) {
+            int version = HISTORICAL_SCHEMAS.keyAt(i);
+            context.deleteDatabase(MIGRATION_DATABASE_NAME);
+            createHistoricalDatabase(version, HISTORICAL_SCHEMAS.get(version),
+                    HISTORICAL_ROWS.get(version));
+
+            WeatherDbHelper helper = new WeatherDbHelper(context, MIGRATION_DATABASE_NAME,
+                    StorageProfile.DEFAULT);
+            SQLiteDatabase upgraded = helper.getWritableDatabase();
+
+            String prefix = "Upgrading from version " + version + ": ";
+            assertEquals(prefix + "wrong final version", currentVersion, upgraded.getVersion());
+            assertEquals(prefix + "weather rows were lost",
+                    HISTORICAL_ROWS.get(version).length,
+                    countRows(upgraded, WeatherContract.WeatherEntry.TABLE_NAME));
+            assertEquals(prefix + "schema differs from a fresh install",
+                    expectedSchema, readSchema(upgraded));
+
+            List<Migration> path = WeatherDbMigrations.findPath(version, currentVersion);
+            assertNotNull(prefix + "no migration path", path);
+            assertEquals(prefix + "not every migration step was recorded",
+                    path.size(), countRows(upgraded, WeatherDbHelper.MIGRATION_HISTORY_TABLE));
+
+            helper.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeFromUnmigratableVersionRecreates() {
+        SQLiteDatabase fresh = openFreshDatabase();
+        TreeMap<String, String> expectedSchema = readSchema(fresh);
+        fresh.close();
+
+        int tooOld = WeatherDbMigrations.OLDEST_MIGRATABLE_VERSION - 1;
+        createHistoricalDatabase(tooOld, HISTORICAL_SCHEMAS.get(3), HISTORICAL_ROWS.get(3));
+
+        WeatherDbHelper helper = new WeatherDbHelper(context, MIGRATION_DATABASE_NAME,
+                StorageProfile.DEFAULT);
+        SQLiteDatabase upgraded = helper.getWritableDatabase();
+
+        assertEquals("Unmigratable data should have been discarded",
+                0, countRows(upgraded, WeatherContract.WeatherEntry.TABLE_NAME));
+        assertEquals("Recreated schema differs from a fresh install",
+                expectedSchema, readSchema(upgraded));
+
+        helper.close();
+    }
+
+    private SQLiteDatabase openFreshDatabase() {
+        return new WeatherDbHelper(context, FRESH_DATABASE_NAME, StorageProfile.DEFAULT)
+                .getWritableDatabase();
+    }
+
+    private void createHistoricalDatabase(int version, String[] schema, String[] rows) {
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(
+                context.getDatabasePath(MIGRATION_DATABASE_NAME), null);
+        for (String statement : schema) {
+            database.execSQL(statement);
+        }
+        for (String statement : rows) {
+            database.execSQL(statement);
+        }
+        database.setVersion(version);
+        database.close();
+    }
+
+    /**
+     * Describes every user table and index as "name -> columns or SQL", so two databases can be
+     * compared regardless of the order or whitespace their tables were created with.
+     */
+    private static TreeMap<String, String> readSchema(SQLiteDatabase database) {
+        TreeMap<String, String> schema = new TreeMap<>();
+        Cursor tables = database.rawQuery("SELECT type, name FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (tables.moveToNext()) {
+                String type = tables.getString(0);
+                String name = tables.getString(1);
+                String pragma = "table".equals(type) ? "table_info" : "index_info";
+                schema.put(type + " " + name, describe(database, pragma, name));
+            }
+        } finally {
+            tables.close();
+        }
+        return schema;
+    }
+
+    private static String describe(SQLiteDatabase database, String pragma, String name) {
+        StringBuilder description = new StringBuilder();
+        Cursor info = database.rawQuery("PRAGMA " + pragma + "(" + name + ")", null);
+        try {
+            while (info.moveToNext()) {
+                for (int column = 0; column < info.getColumnCount(); column++) {
+                    description.append(info.getString(column)).append(',');
+                }
+                description.append(';');
+            }
+        } finally {
+            info.close();
+        }
+        return description.toString();
+    }
+
+    private static int countRows(SQLiteDatabase database, String table) {
+        Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherHistoryEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the compact forecast archive:
+ * <p>
+ * 1) Encoding then decoding a forecast gives back the same values, to the archive's precision
+ * 2) A year of two week forecasts takes at least 4x fewer database pages archived than stored
+ * as history rows, counting each table's index
+ * 3) Archived forecasts read back through the provider look like WeatherEntry rows, and outlive
+ * the plain history rows
+ * 4) The provider's archive rows can be read in any order, across several archives
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastArchive {
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+    private static final int FORECAST_DAYS = 14;
+
+    /* One sync a day for a year */
+    private static final int SYNCS_PER_YEAR = 365;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mResolver = mContext.getContentResolver();
+    private final long mToday = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+
+    @Before
+    public void setUp() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(WeatherHistoryEntry.TABLE_NAME, null, null);
+        database.delete(WeatherArchiveEntry.TABLE_NAME, null, null);
+        database.close();
+    }
+
+    @Test
+    public void testRoundTripKeepsValues() {
+        ContentValues[] forecast = createForecast(mToday);
+        byte[] blob = ForecastArchive.encode(forecast);
+        ForecastArchive.Days days = ForecastArchive.decode(blob);
+        assertTrue("Reading the dates alone should agree with decoding the blob",
+                Arrays.equals(days.dates, ForecastArchive.decodeDates(blob)));
+
+        assertEquals("Every day should survive the round trip", FORECAST_DAYS, days.size());
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            ContentValues expected = forecast[i];
+            assertEquals(expected.getAsLong(WeatherEntry.COLUMN_DATE).longValue(), days.dates[i]);
+            assertEquals(expected.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                    days.weatherIds[i]);
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), days.maxTemps[i], 0.005);
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), days.minTemps[i], 0.005);
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_HUMIDITY), days.humidities[i], 0.05);
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_PRESSURE), days.pressures[i], 0.05);
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED), days.windSpeeds[i],
+                    0.005);
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_DEGREES), days.degrees[i], 0.71);
+        }
+    }
+
+    @Test
+    public void testArchiveTakesFewerPages() {
+        /* A scratch database per table, so each one's page count is that table's and index's */
+        SQLiteDatabase history = SQLiteDatabase.create(null);
+        history.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_HISTORY_TABLE);
+        history.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_HISTORY_DATE_INDEX);
+        SQLiteDatabase archive = SQLiteDatabase.create(null);
+        archive.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_ARCHIVE_TABLE);
+        archive.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_ARCHIVE_DATE_INDEX);
+        try {
+            long emptyHistoryPages = pageCount(history);
+            long emptyArchivePages = pageCount(archive);
+
+            history.beginTransaction();
+            archive.beginTransaction();
+            for (int sync = 0; sync < SYNCS_PER_YEAR; sync++) {
+                long firstDate = mToday + sync * DAY;
+                ContentValues[] forecast = createForecast(firstDate);
+                for (ContentValues day : forecast) {
+                    ContentValues row = new ContentValues(day);
+                    row.put(WeatherHistoryEntry.COLUMN_ISSUED_AT, firstDate);
+                    history.insert(WeatherHistoryEntry.TABLE_NAME, null, row);
+                }
+                archive.insert(WeatherArchiveEntry.TABLE_NAME, null,
+                        createArchiveRow(firstDate, forecast));
+            }
+            history.setTransactionSuccessful();
+            history.endTransaction();
+            archive.setTransactionSuccessful();
+            archive.endTransaction();
+
+            long historyPages = pageCount(history) - emptyHistoryPages;
+            long archivePages = pageCount(archive) - emptyArchivePages;
+            assertTrue("Archive took " + archivePages + " pages against " + historyPages
+                            + " for history rows",
+                    archivePages * 4 <= historyPages);
+        } finally {
+            history.close();
+            archive.close();
+        }
+    }
+
+    @Test
+    public void testArchiveRowsReadInAnyOrder() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        long[] issuedAt = {mToday - 2 * DAY, mToday - DAY, mToday};
+        for (long issued : issuedAt) {
+            database.insert(WeatherArchiveEntry.TABLE_NAME, null,
+                    createArchiveRow(issued, createForecast(issued)));
+        }
+        database.close();
+
+        /* Two days from each archive, oldest issue first */
+        Cursor cursor = mResolver.query(
+                WeatherArchiveEntry.buildArchiveUriForDateRange(mToday, mToday + DAY),
+                new String[]{WeatherArchiveEntry.COLUMN_ISSUED_AT, WeatherArchiveEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        try {
+            assertEquals(6, cursor.getCount());
+            for (int row = cursor.getCount() - 1; row >= 0; row--) {
+                assertTrue(cursor.moveToPosition(row));
+                assertEquals(issuedAt[row / 2], cursor.getLong(0));
+                assertEquals(mToday + (row % 2) * DAY, cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testArchiveOutlivesHistoryRows() {
+        /* Issued a couple of days ago, for days that are now past the plain row window */
+        long oldFirstDate = mToday - (WeatherHistoryEntry.ROW_RETENTION_DAYS + 3) * DAY;
+        ContentValues[] forecast = createForecast(oldFirstDate);
+        mResolver.bulkInsert(WeatherHistoryEntry.CONTENT_URI, forecast);
+
+        long startDate = oldFirstDate + DAY;
+        long endDate = oldFirstDate + 2 * DAY;
+        Cursor cursor = mResolver.query(
+                WeatherArchiveEntry.buildArchiveUriForDateRange(startDate, endDate),
+                new String[]{WeatherArchiveEntry.COLUMN_DATE, WeatherArchiveEntry.COLUMN_MAX_TEMP},
+                null,
+                null,
+                null);
+        try {
+            assertEquals("The archive should return just the requested days", 2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(startDate, cursor.getLong(0));
+            assertEquals(forecast[1].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    cursor.getDouble(1), 0.005);
+        } finally {
+            cursor.close();
+        }
+
+        Cursor rows = mResolver.query(WeatherHistoryEntry.CONTENT_URI, null,
+                WeatherHistoryEntry.getSqlSelectForDateRange(),
+                new String[]{Long.toString(startDate), Long.toString(endDate)}, null);
+        try {
+            assertEquals("Plain history rows past their window should be gone",
+                    0, rows.getCount());
+        } finally {
+            rows.close();
+        }
+    }
+
+    /* An archive table row for the given forecast, as the provider writes it */
+    private static ContentValues createArchiveRow(long issuedAt, ContentValues[] forecast) {
+        ContentValues row = new ContentValues();
+        row.put(WeatherArchiveEntry.COLUMN_ISSUED_AT, issuedAt);
+        row.put(WeatherArchiveEntry.COLUMN_LOCATION, "37.4220,-122.0841");
+        row.put(WeatherArchiveEntry.COLUMN_FIRST_DATE,
+                forecast[0].getAsLong(WeatherEntry.COLUMN_DATE));
+        row.put(WeatherArchiveEntry.COLUMN_LAST_DATE,
+                forecast[forecast.length - 1].getAsLong(WeatherEntry.COLUMN_DATE));
+        row.put(WeatherArchiveEntry.COLUMN_DATA, ForecastArchive.encode(forecast));
+        return row;
+    }
+
+    private static long pageCount(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "PRAGMA page_count", null);
+    }
+
+    /**
+     * A realistic two week forecast: values wander a little from day to day, as real ones do.
+     */
+    private static ContentValues[] createForecast(long firstDate) {
+        int[] weatherIds = {800, 801, 500, 500, 802, 800, 800, 701, 300, 500, 801, 800, 804, 600};
+        ContentValues[] forecast = new ContentValues[FORECAST_DAYS];
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_DATE, firstDate + i * DAY);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, weatherIds[i]);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 21.37 + (i % 5) * 1.13);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 12.08 - (i % 4) * 0.91);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 64.0 + (i % 3) * 2.5);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1013.2 - (i % 6) * 0.8);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 3.45 + (i % 4) * 0.35);
+            values.put(WeatherEntry.COLUMN_DEGREES, (i * 37) % 360);
+            forecast[i] = values;
+        }
+        return forecast;
+    }
+}
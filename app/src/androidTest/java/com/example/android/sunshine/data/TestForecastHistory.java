@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherHistoryEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests the forecast history kept by WeatherProvider:
+ * <p>
+ * 1) A later sync on the same day supersedes an earlier one, but syncs on different days are
+ * both kept
+ * 2) Forecasts for days outside the retention window are dropped
+ * 3) History can be queried by date and by issue time
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastHistory {
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mResolver = mContext.getContentResolver();
+
+    /* History is only kept for recent days, so test dates are relative to today */
+    private final long mToday = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+
+    @Before
+    public void setUp() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(WeatherHistoryEntry.TABLE_NAME, null, null);
+        database.close();
+    }
+
+    @Test
+    public void testLaterSyncSameDaySupersedesEarlierOne() {
+        long yesterdayMorning = mToday - DAY + 8 * 60 * 60 * 1000;
+        long todayMorning = mToday + 8 * 60 * 60 * 1000;
+        long todayEvening = mToday + 20 * 60 * 60 * 1000;
+
+        insertIssue(yesterdayMorning, mToday, 3);
+        insertIssue(todayMorning, mToday, 3);
+        insertIssue(todayEvening, mToday, 3);
+
+        /* Yesterday's issue survives, this morning's was superseded by this evening's */
+        assertEquals("Only the last issue of each day should be kept",
+                6, countRows(null));
+        assertEquals("This morning's issue should have been compacted away",
+                0, countRows(WeatherHistoryEntry.getSqlSelectForIssuedBetween(),
+                        Long.toString(todayMorning), Long.toString(todayMorning)));
+        assertEquals("Yesterday's issue should have been kept",
+                3, countRows(WeatherHistoryEntry.getSqlSelectForIssuedBetween(),
+                        Long.toString(yesterdayMorning), Long.toString(yesterdayMorning)));
+    }
+
+    @Test
+    public void testForecastsOutsideRetentionAreDropped() {
+        /* Plain rows only cover the recent part of the window; the archive keeps the rest */
+        int rowRetentionDays = Math.min(WeatherHistoryEntry.ROW_RETENTION_DAYS,
+                SunshinePreferences.getHistoryRetentionDays(mContext));
+        long retention = DAY * rowRetentionDays;
+        long tooOld = mToday - retention - DAY;
+
+        insertIssue(System.currentTimeMillis(), tooOld, 2);
+
+        /* The first day is past the retention window, the second is exactly on its edge */
+        assertEquals("Days outside the retention window should be dropped",
+                0, countRows(WeatherHistoryEntry.getSqlSelectForDateRange(),
+                        Long.toString(tooOld), Long.toString(tooOld)));
+        assertEquals("The oldest day inside the retention window should be kept",
+                1, countRows(WeatherHistoryEntry.getSqlSelectForDateRange(),
+                        Long.toString(tooOld + DAY), Long.toString(tooOld + DAY)));
+    }
+
+    @Test
+    public void testHistoryForDateReturnsEveryIssue() {
+        insertIssue(mToday - 2 * DAY, mToday, 2);
+        insertIssue(mToday - DAY, mToday, 2);
+
+        Cursor cursor = mResolver.query(
+                WeatherHistoryEntry.buildHistoryUriWithDate(mToday),
+                new String[]{WeatherHistoryEntry.COLUMN_ISSUED_AT},
+                null,
+                null,
+                null);
+        try {
+            assertEquals("Each issue should have one row for the date", 2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Issues should come oldest first",
+                    mToday - 2 * DAY, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Inserts one sync's worth of history: consecutive days starting at firstDate, all issued at
+     * the same time.
+     */
+    private void insertIssue(long issuedAt, long firstDate, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            values[i] = TestUtilities.createTestWeatherContentValues();
+            values[i].put(WeatherHistoryEntry.COLUMN_DATE, firstDate + i * DAY);
+            values[i].put(WeatherHistoryEntry.COLUMN_ISSUED_AT, issuedAt);
+        }
+        mResolver.bulkInsert(WeatherHistoryEntry.CONTENT_URI, values);
+    }
+
+    private int countRows(String selection, String... selectionArgs) {
+        Cursor cursor = mResolver.query(WeatherHistoryEntry.CONTENT_URI, null, selection,
+                selectionArgs, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherHistoryEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests paged queries and streaming:
+ * <p>
+ * 1) A page query returns at most its limit, starting after the given key
+ * 2) Streaming the weather and history tables visits every row once, in key order, whatever the
+ * page size
+ * 3) A handler can stop the stream early
+ * 4) A null projection streams every column
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastPaging {
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+    private static final int DAYS = 20;
+    private static final int ISSUES = 3;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mResolver = mContext.getContentResolver();
+    private final long mFirstDate = TestUtilities.DATE_NORMALIZED;
+
+    @Before
+    public void setUp() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(WeatherEntry.TABLE_NAME, null, null);
+        database.delete(WeatherHistoryEntry.TABLE_NAME, null, null);
+
+        /*
+         * Written straight to the database: going through the provider would apply the history
+         * retention window, which these fixed dates are far outside of.
+         */
+        database.beginTransaction();
+        try {
+            for (int day = 0; day < DAYS; day++) {
+                ContentValues values = TestUtilities.createTestWeatherContentValues();
+                values.put(WeatherEntry.COLUMN_DATE, mFirstDate + day * DAY);
+                database.insert(WeatherEntry.TABLE_NAME, null, values);
+
+                for (int issue = 0; issue < ISSUES; issue++) {
+                    values.put(WeatherHistoryEntry.COLUMN_ISSUED_AT, mFirstDate + issue * DAY);
+                    database.insert(WeatherHistoryEntry.TABLE_NAME, null, values);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        database.close();
+    }
+
+    @Test
+    public void testPageStartsAfterKeyAndRespectsLimit() {
+        Cursor cursor = mResolver.query(WeatherEntry.buildPageUri(mFirstDate + 4 * DAY, 5),
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        try {
+            assertEquals("A page should hold no more than its limit", 5, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("A page should start right after its key",
+                    mFirstDate + 5 * DAY, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testStreamWeatherVisitsEveryRowInOrder() {
+        for (int pageSize : new int[]{1, 3, DAYS, DAYS * 2}) {
+            final long[] lastDate = {Long.MIN_VALUE};
+            int rows = ForecastStreamer.streamWeather(mResolver,
+                    new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, pageSize,
+                    new ForecastStreamer.RowHandler() {
+                        @Override
+                        public boolean onRow(Cursor row) {
+                            long date = row.getLong(row.getColumnIndex(WeatherEntry.COLUMN_DATE));
+                            assertTrue("Rows should come in date order", date > lastDate[0]);
+                            lastDate[0] = date;
+                            return true;
+                        }
+                    });
+            assertEquals("Page size " + pageSize + " should visit every row", DAYS, rows);
+        }
+    }
+
+    @Test
+    public void testStreamHistoryVisitsEveryRowInOrder() {
+        final long[] last = {Long.MIN_VALUE, Long.MIN_VALUE};
+        int rows = ForecastStreamer.streamHistory(mResolver,
+                new String[]{WeatherHistoryEntry.COLUMN_DATE, WeatherHistoryEntry.COLUMN_ISSUED_AT},
+                null, null, 4,
+                new ForecastStreamer.RowHandler() {
+                    @Override
+                    public boolean onRow(Cursor row) {
+                        long date = row.getLong(0);
+                        long issuedAt = row.getLong(1);
+                        assertTrue("Rows should come in (date, issued_at) order",
+                                date > last[0] || (date == last[0] && issuedAt > last[1]));
+                        last[0] = date;
+                        last[1] = issuedAt;
+                        return true;
+                    }
+                });
+        assertEquals("Every history row should be visited once", DAYS * ISSUES, rows);
+    }
+
+    @Test
+    public void testNullProjectionStreamsEveryColumn() {
+        int rows = ForecastStreamer.streamHistory(mResolver, null, null, null, 7,
+                new ForecastStreamer.RowHandler() {
+                    @Override
+                    public boolean onRow(Cursor row) {
+                        assertTrue("Every column should be read",
+                                row.getColumnIndex(WeatherHistoryEntry.COLUMN_MAX_TEMP) >= 0);
+                        return true;
+                    }
+                });
+        assertEquals("Every history row should be visited once", DAYS * ISSUES, rows);
+    }
+
+    @Test
+    public void testHandlerCanStopStream() {
+        int rows = ForecastStreamer.streamWeather(mResolver,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, 3,
+                new ForecastStreamer.RowHandler() {
+                    private int mSeen;
+
+                    @Override
+                    public boolean onRow(Cursor row) {
+                        return ++mSeen < 7;
+                    }
+                });
+        assertEquals("Streaming should stop when the handler says so", 7, rows);
+    }
+}
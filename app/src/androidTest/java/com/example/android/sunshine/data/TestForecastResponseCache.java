@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.ForecastResponseCache;
+import com.example.android.sunshine.utilities.GeoBucket;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the geo-bucketing of coordinates and the response cache it makes effective:
+ * <p>
+ * 1) Coordinates map to their standard geohash, and nearby ones to the same cell center
+ * 2) A cached response is returned for the same URL only
+ * 3) A response is cached as it is read, and only once committed
+ * 4) Stored responses are bounded in number
+ * 5) The API key in a URL is never written to the cache
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastResponseCache {
+
+    private static final String RESPONSE = "{\"cod\":\"200\",\"list\":[]}";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        ForecastResponseCache.clear(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        ForecastResponseCache.clear(mContext);
+    }
+
+    @Test
+    public void testCoordinatesMapToGeohash() {
+        /* The example from the geohash reference */
+        assertEquals("ezs42", GeoBucket.forCoordinates(42.605, -5.603, 5).geohash);
+        assertEquals("9q9hvumngq2u",
+                GeoBucket.forCoordinates(37.4219999, -122.0840575, 12).geohash);
+    }
+
+    @Test
+    public void testNearbyCoordinatesShareABucket() {
+        GeoBucket bucket = GeoBucket.forCoordinates(37.4219999, -122.0840575, 5);
+        GeoBucket jittered = GeoBucket.forCoordinates(37.4220312, -122.0841023, 5);
+        assertEquals("A few meters of GPS jitter shouldn't change the bucket",
+                bucket.geohash, jittered.geohash);
+        assertEquals(bucket.latitude, jittered.latitude);
+        assertEquals(bucket.longitude, jittered.longitude);
+
+        GeoBucket finer = GeoBucket.forCoordinates(37.4219999, -122.0840575, 6);
+        assertTrue("A finer bucket should lie within the coarser one",
+                finer.geohash.startsWith(bucket.geohash));
+        assertFalse("Another town should be another bucket", bucket.geohash.equals(
+                GeoBucket.forCoordinates(37.3860517, -122.0838511, 5).geohash));
+    }
+
+    @Test
+    public void testResponseIsCachedPerUrl() throws Exception {
+        URL url = new URL("https://andfun-weather.udacity.com/staticweather"
+                + "?lat=37.40&lon=-122.08&mode=json&units=metric&cnt=14");
+        URL otherUnits = new URL("https://andfun-weather.udacity.com/staticweather"
+                + "?lat=37.40&lon=-122.08&mode=json&units=imperial&cnt=14");
+        assertNull(ForecastResponseCache.open(mContext, url));
+
+        put(url, RESPONSE);
+        assertEquals(RESPONSE, get(url));
+        assertNull("Another URL shouldn't be answered with this response",
+                ForecastResponseCache.open(mContext, otherUnits));
+    }
+
+    @Test
+    public void testResponseIsCachedAsItIsRead() throws Exception {
+        URL url = new URL("https://api.openweathermap.org/data/2.5/forecast?cnt=40");
+
+        ForecastResponseCache.Editor aborted = ForecastResponseCache.edit(mContext, url);
+        assertEquals(RESPONSE, NetworkUtils.readResponse(aborted.copyOf(streamOf(RESPONSE))));
+        aborted.abort();
+        assertNull("A response that wasn't committed shouldn't be cached",
+                ForecastResponseCache.open(mContext, url));
+
+        /* The parser stops at the end of the JSON; the rest is read when committing */
+        ForecastResponseCache.Editor editor = ForecastResponseCache.edit(mContext, url);
+        InputStream response = editor.copyOf(streamOf(RESPONSE + "\n"));
+        assertEquals('{', response.read());
+        editor.commit();
+        response.close();
+        assertEquals(RESPONSE + "\n", get(url));
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            URL url = new URL("https://andfun-weather.udacity.com/staticweather?cnt=" + i);
+            put(url, RESPONSE);
+        }
+
+        int stored = 0;
+        for (int i = 0; i < 20; i++) {
+            URL url = new URL("https://andfun-weather.udacity.com/staticweather?cnt=" + i);
+            if (get(url) != null) {
+                stored++;
+            }
+        }
+        assertTrue("Only a few responses should be kept", stored > 0 && stored < 20);
+    }
+
+    @Test
+    public void testApiKeyIsNotStored() throws Exception {
+        URL url = new URL("https://api.openweathermap.org/data/2.5/forecast"
+                + "?APPID=not-a-real-key&lat=37.40&lon=-122.08&cnt=40");
+        put(url, RESPONSE);
+        assertEquals(RESPONSE, get(url));
+
+        File[] files = new File(mContext.getCacheDir(), "forecast_responses").listFiles();
+        assertTrue(files != null && files.length > 0);
+        for (File file : files) {
+            assertFalse("The cached file shouldn't hold the API key",
+                    readFile(file).contains("not-a-real-key"));
+        }
+    }
+
+    private void put(URL url, String response) throws IOException {
+        ForecastResponseCache.Editor editor = ForecastResponseCache.edit(mContext, url);
+        NetworkUtils.readResponse(editor.copyOf(streamOf(response)));
+        editor.commit();
+    }
+
+    private String get(URL url) throws IOException {
+        InputStream response = ForecastResponseCache.open(mContext, url);
+        if (response == null) {
+            return null;
+        }
+        try {
+            return NetworkUtils.readResponse(response);
+        } finally {
+            response.close();
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return NetworkUtils.readResponse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static InputStream streamOf(String response) throws IOException {
+        return new ByteArrayInputStream(response.getBytes("UTF-8"));
+    }
+}
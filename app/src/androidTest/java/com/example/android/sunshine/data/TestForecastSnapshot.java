@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the memory-mapped forecast snapshot:
+ * <p>
+ * 1) What is written reads back the same, in date order
+ * 2) A missing or corrupt snapshot reads as null, so callers fall back to the provider
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastSnapshot {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        ForecastSnapshot.delete(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        ForecastSnapshot.delete(mContext);
+    }
+
+    @Test
+    public void testWriteThenReadKeepsValues() {
+        ContentValues[] values = createBulkInsertTestWeatherValues();
+
+        /* Write them out of order; the snapshot sorts by date */
+        ContentValues[] reversed = new ContentValues[values.length];
+        for (int i = 0; i < values.length; i++) {
+            reversed[i] = values[values.length - 1 - i];
+        }
+        assertTrue("Snapshot should have been written", ForecastSnapshot.write(mContext, reversed));
+
+        ForecastSnapshot snapshot = ForecastSnapshot.open(mContext);
+        assertNotNull("Snapshot should be readable", snapshot);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, snapshot.size());
+
+        for (int i = 0; i < values.length; i++) {
+            long date = values[i].getAsLong(WeatherEntry.COLUMN_DATE);
+            assertEquals("Days should be in date order", i, snapshot.indexOf(date));
+            assertEquals(date, snapshot.getDate(i));
+            assertEquals(values[i].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                    snapshot.getWeatherId(i));
+            assertEquals(values[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    snapshot.getMaxTemp(i), 0);
+            assertEquals(values[i].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    snapshot.getMinTemp(i), 0);
+        }
+
+        assertEquals("A date not in the snapshot should not be found",
+                -1, snapshot.indexOf(values[0].getAsLong(WeatherEntry.COLUMN_DATE) - 1));
+    }
+
+    @Test
+    public void testMissingOrCorruptSnapshotReadsAsNull() throws Exception {
+        assertNull("There should be no snapshot yet", ForecastSnapshot.open(mContext));
+
+        FileOutputStream out = new FileOutputStream(
+                new File(mContext.getFilesDir(), "forecast_snapshot.bin"));
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20});
+        out.close();
+
+        assertNull("A corrupt snapshot should be ignored", ForecastSnapshot.open(mContext));
+    }
+}
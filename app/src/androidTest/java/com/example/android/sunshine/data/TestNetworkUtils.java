@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.WeatherContract.WeatherIntervalEntry;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests how NetworkUtils builds the forecast URL:
+ * <p>
+ * 1) The count asked for never exceeds what the resolution's endpoint serves
+ * 2) The endpoint, count and API key follow the preferences, falling back to the daily
+ * forecast when the build can't fetch finer ones
+ * 3) The API key can be taken out of a URL, leaving the rest of the query as it was
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestNetworkUtils {
+
+    private static final String DAILY_HOST = "andfun-weather.udacity.com";
+    private static final String OWM_HOST = "api.openweathermap.org";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @After
+    public void tearDown() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_forecast_days_key))
+                .remove(mContext.getString(R.string.pref_forecast_resolution_key))
+                .commit();
+    }
+
+    @Test
+    public void testCountIsClampedToEndpoint() {
+        assertEquals(14, NetworkUtils.getForecastCount(WeatherIntervalEntry.RESOLUTION_DAILY, 14));
+        assertEquals("Three-hourly forecasts reach 5 days at most", 40,
+                NetworkUtils.getForecastCount(WeatherIntervalEntry.RESOLUTION_THREE_HOURLY, 14));
+        assertEquals("Hourly forecasts reach 4 days at most", 96,
+                NetworkUtils.getForecastCount(WeatherIntervalEntry.RESOLUTION_HOURLY, 14));
+        assertEquals("A horizon the endpoint can serve shouldn't be cut", 48,
+                NetworkUtils.getForecastCount(WeatherIntervalEntry.RESOLUTION_HOURLY, 2));
+    }
+
+    @Test
+    public void testDailyUrlFollowsPreferences() {
+        setForecastPreferences("7", R.string.pref_forecast_resolution_daily);
+
+        Uri url = Uri.parse(NetworkUtils.getUrl(mContext).toString());
+        assertEquals(DAILY_HOST, url.getHost());
+        assertEquals("7", url.getQueryParameter("cnt"));
+        assertNull("Our weather server shouldn't be sent the API key",
+                url.getQueryParameter("APPID"));
+        assertEquals(7, NetworkUtils.getForecastHorizonDays(mContext));
+    }
+
+    @Test
+    public void testThreeHourlyUrlIsClampedAndKeyed() {
+        setForecastPreferences("14", R.string.pref_forecast_resolution_three_hourly);
+
+        Uri url = Uri.parse(NetworkUtils.getUrl(mContext).toString());
+        if (!NetworkUtils.isResolutionAvailable(WeatherIntervalEntry.RESOLUTION_THREE_HOURLY)) {
+            assertEquals("Without an API key, the daily forecast should be fetched instead",
+                    DAILY_HOST, url.getHost());
+            assertEquals("14", url.getQueryParameter("cnt"));
+            return;
+        }
+
+        assertEquals(OWM_HOST, url.getHost());
+        assertNotNull(url.getQueryParameter("APPID"));
+        assertEquals("40", url.getQueryParameter("cnt"));
+        assertEquals("The horizon should be what the endpoint can serve", 5,
+                NetworkUtils.getForecastHorizonDays(mContext));
+    }
+
+    @Test
+    public void testApiKeyCanBeLeftOut() throws MalformedURLException {
+        assertEquals("http://" + OWM_HOST + "/data/2.5/forecast?lat=48.1&cnt=40",
+                NetworkUtils.withoutApiKey(new URL(
+                        "http://" + OWM_HOST + "/data/2.5/forecast?APPID=secret&lat=48.1&cnt=40")));
+        assertEquals("http://" + OWM_HOST + "/data/2.5/forecast?q=94043",
+                NetworkUtils.withoutApiKey(new URL(
+                        "http://" + OWM_HOST + "/data/2.5/forecast?q=94043&APPID=secret")));
+        assertEquals("A URL without a key should be left alone",
+                "http://" + DAILY_HOST + "/weather?q=94043&cnt=14",
+                NetworkUtils.withoutApiKey(
+                        new URL("http://" + DAILY_HOST + "/weather?q=94043&cnt=14")));
+    }
+
+    /* Stored as strings, as the settings screen stores them */
+    private void setForecastPreferences(String days, int resolutionValueId) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_forecast_days_key), days)
+                .putString(mContext.getString(R.string.pref_forecast_resolution_key),
+                        mContext.getString(resolutionValueId))
+                .commit();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherIntervalEntry;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the streaming parser for OpenWeatherMap's hourly and three-hourly forecasts:
+ * <p>
+ * 1) Each interval in a /forecast response becomes one WeatherIntervalEntry row, with only the
+ * primary condition and the readings we store
+ * 2) The location's coordinates are saved only once the response turned out to hold a forecast
+ * 3) An error response, wherever its code comes, is reported as null
+ * 4) A truncated response fails rather than returning part of the forecast
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestOpenWeatherJsonUtils {
+
+    private static final long THREE_HOURS = WeatherIntervalEntry.RESOLUTION_THREE_HOURLY;
+
+    /* 16 February 2017, 12:00 UTC, in seconds as the server sends it */
+    private static final long FIRST_START_SECONDS = 1487246400L;
+
+    /* Trimmed from a /forecast response; the fields we don't store are kept to be skipped */
+    private static final String FORECAST_RESPONSE = "{"
+            + "\"cod\":\"200\",\"message\":0.0036,\"cnt\":2,"
+            + "\"list\":["
+            + "{\"dt\":1487246400,"
+            + "\"main\":{\"temp\":286.67,\"temp_min\":281.556,\"temp_max\":286.67,"
+            + "\"pressure\":972.73,\"sea_level\":1046.46,\"grnd_level\":972.73,"
+            + "\"humidity\":75,\"temp_kf\":5.11},"
+            + "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"clear sky\","
+            + "\"icon\":\"01d\"},{\"id\":701,\"main\":\"Mist\",\"description\":\"mist\","
+            + "\"icon\":\"50d\"}],"
+            + "\"clouds\":{\"all\":0},\"wind\":{\"speed\":1.81,\"deg\":247.501},"
+            + "\"sys\":{\"pod\":\"d\"},\"dt_txt\":\"2017-02-16 12:00:00\"},"
+            + "{\"dt\":1487257200,"
+            + "\"main\":{\"temp\":285.66,\"temp_min\":281.821,\"temp_max\":285.66,"
+            + "\"pressure\":970.91,\"humidity\":70},"
+            + "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\","
+            + "\"icon\":\"10d\"}],"
+            + "\"rain\":{\"3h\":0.2},\"wind\":{\"speed\":1.59,\"deg\":290.501},"
+            + "\"dt_txt\":\"2017-02-16 15:00:00\"}"
+            + "],"
+            + "\"city\":{\"id\":6940463,\"name\":\"Altstadt\","
+            + "\"coord\":{\"lat\":48.137,\"lon\":11.5752},\"country\":\"none\"}"
+            + "}\n";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        SunshinePreferences.resetLocationCoordinates(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        SunshinePreferences.resetLocationCoordinates(mContext);
+    }
+
+    @Test
+    public void testIntervalsAreParsed() throws IOException {
+        ContentValues[] intervals = OpenWeatherJsonUtils.getWeatherIntervalContentValuesFromJson(
+                mContext, streamOf(FORECAST_RESPONSE), THREE_HOURS);
+
+        assertEquals(2, intervals.length);
+
+        ContentValues first = intervals[0];
+        long firstStart = FIRST_START_SECONDS * 1000;
+        assertEquals(firstStart, (long) first.getAsLong(WeatherIntervalEntry.COLUMN_START_TIME));
+        assertEquals(THREE_HOURS, (long) first.getAsLong(WeatherIntervalEntry.COLUMN_RESOLUTION));
+        assertEquals(SunshineDateUtils.getNormalizedUtcDateForLocalDay(firstStart),
+                (long) first.getAsLong(WeatherIntervalEntry.COLUMN_DATE));
+        assertEquals("Only the primary condition should be kept",
+                800, (int) first.getAsInteger(WeatherIntervalEntry.COLUMN_WEATHER_ID));
+        assertEquals(286.67, first.getAsDouble(WeatherIntervalEntry.COLUMN_TEMP));
+        assertEquals(281.556, first.getAsDouble(WeatherIntervalEntry.COLUMN_MIN_TEMP));
+        assertEquals(286.67, first.getAsDouble(WeatherIntervalEntry.COLUMN_MAX_TEMP));
+        assertEquals(972.73, first.getAsDouble(WeatherIntervalEntry.COLUMN_PRESSURE));
+        assertEquals(75.0, first.getAsDouble(WeatherIntervalEntry.COLUMN_HUMIDITY));
+        assertEquals(1.81, first.getAsDouble(WeatherIntervalEntry.COLUMN_WIND_SPEED));
+        assertEquals(247.501, first.getAsDouble(WeatherIntervalEntry.COLUMN_DEGREES));
+
+        ContentValues second = intervals[1];
+        assertEquals(firstStart + THREE_HOURS,
+                (long) second.getAsLong(WeatherIntervalEntry.COLUMN_START_TIME));
+        assertEquals(500, (int) second.getAsInteger(WeatherIntervalEntry.COLUMN_WEATHER_ID));
+    }
+
+    @Test
+    public void testCoordinatesAreSavedWithTheForecast() throws IOException {
+        OpenWeatherJsonUtils.getWeatherIntervalContentValuesFromJson(
+                mContext, streamOf(FORECAST_RESPONSE), THREE_HOURS);
+
+        assertTrue(SunshinePreferences.isLocationLatLonAvailable(mContext));
+        double[] coordinates = SunshinePreferences.getLocationCoordinates(mContext);
+        assertEquals(48.137, coordinates[0]);
+        assertEquals(11.5752, coordinates[1]);
+    }
+
+    @Test
+    public void testErrorResponseIsNull() throws IOException {
+        assertNull(OpenWeatherJsonUtils.getWeatherIntervalContentValuesFromJson(mContext,
+                streamOf("{\"cod\":401,\"message\":\"Invalid API key.\"}"), THREE_HOURS));
+
+        /* The city comes before the code here, and still mustn't be saved */
+        String cityFirst = "{\"city\":{\"coord\":{\"lat\":1.5,\"lon\":2.5}},"
+                + "\"cod\":\"404\",\"message\":\"city not found\"}";
+        assertNull(OpenWeatherJsonUtils.getWeatherIntervalContentValuesFromJson(mContext,
+                streamOf(cityFirst), THREE_HOURS));
+        assertFalse("An error response shouldn't move the saved location",
+                SunshinePreferences.isLocationLatLonAvailable(mContext));
+    }
+
+    @Test
+    public void testTruncatedResponseFails() {
+        String truncated = FORECAST_RESPONSE.substring(0, FORECAST_RESPONSE.indexOf("\"city\""));
+        try {
+            OpenWeatherJsonUtils.getWeatherIntervalContentValuesFromJson(mContext,
+                    streamOf(truncated), THREE_HOURS);
+            fail("A truncated response should fail to parse");
+        } catch (IOException expected) {
+            /* Parsed as far as it went, and no further */
+        }
+        assertFalse(SunshinePreferences.isLocationLatLonAvailable(mContext));
+    }
+
+    private static InputStream streamOf(String response) throws IOException {
+        return new ByteArrayInputStream(response.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks how SQLite plans the weather queries the UI makes, with EXPLAIN QUERY PLAN:
+ * <p>
+ * 1) The forecast list query (today onwards, by date) and the notification query (a single
+ * date) are answered from the covering index alone, without sorting
+ * 2) On the date-keyed table the same queries search the table by its primary key
+ * 3) A benchmark that times both queries on each table layout over several years of rows
+ * <p>
+ * The projections are copies of the ones in MainActivity and NotificationUtils; if those change,
+ * change these too and make sure the index still covers them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestQueryPlans {
+
+    private static final String TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String PLAN_DATABASE_NAME = "weather_plan_test.db";
+
+    private static final String[] MAIN_FORECAST_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    private static final String[] WEATHER_NOTIFICATION_PROJECTION = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+    };
+
+    /*
+     * The weather table holds a single location, so "large" means a long run of dates. Ten years
+     * of days is far more than Sunshine ever stores, which is the point.
+     */
+    private static final int BENCHMARK_DAYS = 3650;
+    private static final int BENCHMARK_QUERIES = 200;
+
+    private final Context context = InstrumentationRegistry.getTargetContext();
+    private final long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+
+    private WeatherDbHelper dbHelper;
+
+    @Before
+    public void before() {
+        context.deleteDatabase(PLAN_DATABASE_NAME);
+    }
+
+    @After
+    public void after() {
+        if (dbHelper != null) {
+            dbHelper.close();
+        }
+        context.deleteDatabase(PLAN_DATABASE_NAME);
+    }
+
+    @Test
+    public void testForecastListUsesCoveringIndex() {
+        SQLiteDatabase database = open(StorageProfile.DEFAULT);
+        String plan = explainForecastList(database);
+
+        assertTrue("Forecast list should be served by the covering index: " + plan,
+                plan.contains("COVERING INDEX " + WeatherDbHelper.WEATHER_FORECAST_COVER_INDEX));
+        assertFalse("Forecast list should not need sorting: " + plan,
+                plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void testNotificationUsesCoveringIndex() {
+        SQLiteDatabase database = open(StorageProfile.DEFAULT);
+        String plan = explainNotification(database);
+
+        assertTrue("Notification should be served by the covering index: " + plan,
+                plan.contains("COVERING INDEX"));
+    }
+
+    @Test
+    public void testDateKeyedTableSearchesByPrimaryKey() {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+        SQLiteDatabase database = open(StorageProfile.DATE_KEYED);
+
+        String listPlan = explainForecastList(database);
+        assertTrue("Forecast list should search the table by date: " + listPlan,
+                listPlan.contains("PRIMARY KEY"));
+        assertFalse("Forecast list should not need sorting: " + listPlan,
+                listPlan.contains("TEMP B-TREE"));
+
+        String notificationPlan = explainNotification(database);
+        assertTrue("Notification should search the table by date: " + notificationPlan,
+                notificationPlan.contains("PRIMARY KEY"));
+    }
+
+    /**
+     * Times the two UI queries against each table layout and logs the results. Like the
+     * contention benchmark, this only asserts that every query returned what it should.
+     */
+    @Test
+    public void benchmarkTableLayouts() {
+        StorageProfile[] profiles = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? new StorageProfile[]{StorageProfile.DEFAULT, StorageProfile.DATE_KEYED}
+                : new StorageProfile[]{StorageProfile.DEFAULT};
+
+        for (StorageProfile profile : profiles) {
+            context.deleteDatabase(PLAN_DATABASE_NAME);
+            SQLiteDatabase database = open(profile);
+            long firstDate = today - (BENCHMARK_DAYS / 2) * SunshineDateUtils.DAY_IN_MILLIS;
+            insertDays(database, firstDate, BENCHMARK_DAYS);
+
+            long start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+                Cursor cursor = queryForecastList(database);
+                assertTrue(cursor.getCount() > 0);
+                cursor.close();
+            }
+            long listMs = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+                Cursor cursor = queryNotification(database,
+                        firstDate + (i % BENCHMARK_DAYS) * SunshineDateUtils.DAY_IN_MILLIS);
+                assertTrue(cursor.moveToFirst());
+                cursor.close();
+            }
+            long notificationMs = SystemClock.elapsedRealtime() - start;
+
+            Log.i(TAG, profile + ": " + BENCHMARK_QUERIES + " forecast list queries took "
+                    + listMs + "ms, " + BENCHMARK_QUERIES + " notification queries took "
+                    + notificationMs + "ms over " + BENCHMARK_DAYS + " days");
+
+            dbHelper.close();
+            dbHelper = null;
+        }
+    }
+
+    private SQLiteDatabase open(StorageProfile profile) {
+        dbHelper = new WeatherDbHelper(context, PLAN_DATABASE_NAME, profile);
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        insertDays(database, today - 7 * SunshineDateUtils.DAY_IN_MILLIS, 21);
+        /* Give the planner real statistics rather than its defaults */
+        database.execSQL("ANALYZE");
+        return database;
+    }
+
+    private static void insertDays(SQLiteDatabase database, long firstDate, int days) {
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < days; i++) {
+                ContentValues values = TestUtilities.createTestWeatherContentValues();
+                values.put(WeatherEntry.COLUMN_DATE,
+                        firstDate + i * SunshineDateUtils.DAY_IN_MILLIS);
+                database.insert(WeatherEntry.TABLE_NAME, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private String forecastListSql() {
+        return "SELECT " + join(MAIN_FORECAST_PROJECTION) + " FROM " + WeatherEntry.TABLE_NAME
+                + " WHERE " + WeatherEntry.COLUMN_DATE + " >= " + today
+                + " ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC";
+    }
+
+    private static String notificationSql(long date) {
+        return "SELECT " + join(WEATHER_NOTIFICATION_PROJECTION) + " FROM "
+                + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DATE + " = " + date;
+    }
+
+    private Cursor queryForecastList(SQLiteDatabase database) {
+        return database.rawQuery(forecastListSql(), null);
+    }
+
+    private static Cursor queryNotification(SQLiteDatabase database, long date) {
+        return database.rawQuery(notificationSql(date), null);
+    }
+
+    private String explainForecastList(SQLiteDatabase database) {
+        return explain(database, forecastListSql());
+    }
+
+    private String explainNotification(SQLiteDatabase database) {
+        return explain(database, notificationSql(today));
+    }
+
+    /* Joins the "detail" column of every row of the query plan into one line */
+    private static String explain(SQLiteDatabase database, String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailIndex)).append("; ");
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder joined = new StringBuilder();
+        for (String column : columns) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(column);
+        }
+        return joined.toString();
+    }
+}
@@ -193,7 +193,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 8;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -456,6 +456,14 @@ public class TestSunshineDatabase {
 
         /* Here, we add the name of our only table in this particular database */
         tableNameHashSet.add(REFLECTED_TABLE_NAME);
+        /* Bookkeeping for the schema migrations that have run on this database */
+        tableNameHashSet.add(WeatherDbHelper.MIGRATION_HISTORY_TABLE);
+        /* Past forecasts, appended on every sync */
+        tableNameHashSet.add(WeatherContract.WeatherHistoryEntry.TABLE_NAME);
+        /* The same past forecasts, packed one sync per row */
+        tableNameHashSet.add(WeatherContract.WeatherArchiveEntry.TABLE_NAME);
+        /* Hourly or three-hourly forecasts, when the user asks for them */
+        tableNameHashSet.add(WeatherContract.WeatherIntervalEntry.TABLE_NAME);
         /* Students, here is where you would add any other table names if you had them */
 //        tableNameHashSet.add(MyAwesomeSuperCoolTableName);
 //        tableNameHashSet.add(MyOtherCoolTableNameThatContainsOtherCoolData);
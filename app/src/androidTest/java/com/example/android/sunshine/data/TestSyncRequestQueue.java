@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.sync.SyncRequestQueue;
+import com.example.android.sunshine.sync.SyncTrace;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the sync request queue:
+ * <p>
+ * 1) Requests collapse into one, remembering how many they stand for
+ * 2) A sync that started after the requests drains them and records how long they waited
+ * 3) A sync that couldn't reach the server, or started before a request, leaves it queued
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncRequestQueue {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        SyncRequestQueue.clear(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        SyncRequestQueue.clear(mContext);
+    }
+
+    @Test
+    public void testRequestsCollapse() throws Exception {
+        SyncRequestQueue.enqueue(mContext, SyncRequestQueue.TYPE_MANUAL_REFRESH);
+        SyncRequestQueue.enqueue(mContext, SyncRequestQueue.TYPE_LOCATION_CHANGE);
+        SyncRequestQueue.enqueue(mContext, SyncRequestQueue.TYPE_MANUAL_REFRESH);
+        assertEquals("Every request should collapse into one", 1,
+                SyncRequestQueue.enqueue(mContext, SyncRequestQueue.TYPE_LOCATION_CHANGE));
+
+        JSONObject exported = new JSONObject(SyncRequestQueue.exportJson(mContext));
+        JSONObject pending = exported.getJSONArray("requests").getJSONObject(0);
+        assertEquals("The last location change should supersede everything before it",
+                SyncRequestQueue.TYPE_LOCATION_CHANGE, pending.getString("type"));
+        assertEquals(4, pending.getInt("collapsed"));
+    }
+
+    @Test
+    public void testSuccessfulSyncDrainsQueue() {
+        SyncRequestQueue.enqueue(mContext, SyncRequestQueue.TYPE_LOCATION_CHANGE);
+        SyncRequestQueue.enqueue(mContext, SyncRequestQueue.TYPE_MANUAL_REFRESH);
+
+        long syncStartedAt = System.currentTimeMillis();
+        assertEquals("Both collapsed requests should be satisfied", 2,
+                SyncRequestQueue.onSyncFinished(mContext, syncStartedAt,
+                        SyncTrace.OUTCOME_SUCCESS));
+        assertEquals(0, SyncRequestQueue.getDepth(mContext));
+        assertTrue("The drain latency should be recorded",
+                SyncRequestQueue.getLastDrainLatencyMs(mContext) >= 0);
+    }
+
+    @Test
+    public void testUnsatisfiedRequestsStayQueued() {
+        SyncRequestQueue.enqueue(mContext, SyncRequestQueue.TYPE_LOCATION_CHANGE);
+
+        assertEquals("A sync that couldn't reach the server satisfies nothing", 0,
+                SyncRequestQueue.onSyncFinished(mContext, System.currentTimeMillis(),
+                        SyncTrace.OUTCOME_NETWORK_ERROR));
+        assertEquals(1, SyncRequestQueue.getDepth(mContext));
+
+        long startedBeforeRequest = System.currentTimeMillis() - 60 * 1000;
+        assertEquals("A sync that started before the request can't have seen it", 0,
+                SyncRequestQueue.onSyncFinished(mContext, startedBeforeRequest,
+                        SyncTrace.OUTCOME_SUCCESS));
+        assertEquals(1, SyncRequestQueue.getDepth(mContext));
+        assertEquals(-1, SyncRequestQueue.getLastDrainLatencyMs(mContext));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.sync.SyncTrace;
+import com.example.android.sunshine.sync.SyncTraceStore;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.MalformedURLException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the sync trace store:
+ * <p>
+ * 1) A trace exports with its spans, counts and outcome
+ * 2) A failure is attributed to the stage that was running, unless the server rejected the
+ * request, and a URL that couldn't be built is a configuration error, not a network one
+ * 3) The store keeps only the most recent traces
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncTraceStore {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        SyncTraceStore.clear(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        SyncTraceStore.clear(mContext);
+    }
+
+    @Test
+    public void testTraceExportsSpansCountsAndOutcome() throws Exception {
+        SyncTrace trace = new SyncTrace();
+        trace.beginSpan(SyncTrace.SPAN_PARSE);
+        trace.beginSpan(SyncTrace.SPAN_STORE);
+        trace.setCount(SyncTrace.COUNT_ROWS, 14);
+        trace.finish(SyncTrace.OUTCOME_SUCCESS);
+        SyncTraceStore.record(mContext, trace);
+
+        JSONArray traces = new JSONArray(SyncTraceStore.exportJson(mContext));
+        assertEquals(1, traces.length());
+
+        JSONObject exported = traces.getJSONObject(0);
+        assertEquals(SyncTrace.OUTCOME_SUCCESS, exported.getString("outcome"));
+        assertEquals(14, exported.getJSONObject("counts").getLong(SyncTrace.COUNT_ROWS));
+
+        JSONObject spans = exported.getJSONObject("spans");
+        assertTrue("Every span should be exported", spans.has(SyncTrace.SPAN_PARSE));
+        assertTrue("Every span should be closed by the end of the run",
+                spans.getJSONObject(SyncTrace.SPAN_STORE).getLong("duration_ms") >= 0);
+    }
+
+    @Test
+    public void testFailureIsAttributedToRunningStage() throws Exception {
+        SyncTrace trace = new SyncTrace();
+        trace.beginSpan(SyncTrace.SPAN_CONNECT);
+        trace.beginSpan(SyncTrace.SPAN_PARSE);
+        trace.fail(new IllegalStateException("bad JSON"));
+
+        assertEquals(SyncTrace.OUTCOME_PARSE_ERROR, trace.getOutcome());
+        assertTrue("The error should name the failed stage",
+                trace.toJson().getString("error").startsWith(SyncTrace.SPAN_PARSE));
+    }
+
+    @Test
+    public void testRejectedRequestIsAClientError() {
+        SyncTrace trace = new SyncTrace();
+        trace.beginSpan(SyncTrace.SPAN_TTFB);
+        trace.fail(new NetworkUtils.ClientErrorException(401));
+
+        assertEquals("A request the server rejects shouldn't count as a network error",
+                SyncTrace.OUTCOME_CLIENT_ERROR, trace.getOutcome());
+    }
+
+    @Test
+    public void testUnbuildableUrlIsAConfigError() {
+        SyncTrace trace = new SyncTrace();
+        trace.beginSpan(SyncTrace.SPAN_URL_BUILD);
+        trace.fail(new MalformedURLException("no URL"));
+
+        assertEquals("Nothing was sent, so it shouldn't count as a network error",
+                SyncTrace.OUTCOME_CONFIG_ERROR, trace.getOutcome());
+    }
+
+    @Test
+    public void testStoreKeepsOnlyMostRecentTraces() throws Exception {
+        int recorded = SyncTraceStore.MAX_TRACES + 5;
+        for (int i = 0; i < recorded; i++) {
+            SyncTrace trace = new SyncTrace();
+            trace.setCount(SyncTrace.COUNT_ROWS, i);
+            trace.finish(SyncTrace.OUTCOME_SUCCESS);
+            SyncTraceStore.record(mContext, trace);
+        }
+
+        JSONArray traces = new JSONArray(SyncTraceStore.exportJson(mContext));
+        assertEquals(SyncTraceStore.MAX_TRACES, traces.length());
+        assertEquals("The oldest traces should have been dropped",
+                recorded - SyncTraceStore.MAX_TRACES,
+                traces.getJSONObject(0).getJSONObject("counts").getLong(SyncTrace.COUNT_ROWS));
+        assertEquals("The newest trace should be last", recorded - 1,
+                traces.getJSONObject(traces.length() - 1)
+                        .getJSONObject("counts").getLong(SyncTrace.COUNT_ROWS));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.FakeDataUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.example.android.sunshine.utilities.SyntheticWeatherGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the synthetic weather generator:
+ * <p>
+ * 1) The same seed always generates the same weather, and another seed different weather
+ * 2) Temperatures follow the seasons, the other way round south of the equator
+ * 3) Only condition IDs the app knows are generated, and a good many of them
+ * 4) Years of days load through the provider's bulk insert
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyntheticWeatherGenerator {
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+    private static final int YEAR_OF_DAYS = 365;
+
+    /* 1 January 2015, a normalized date */
+    private static final long FIRST_OF_JANUARY = 1420070400000L;
+    private static final long FIRST_OF_JULY = FIRST_OF_JANUARY + 181 * DAY;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testSameSeedSameWeather() {
+        SyntheticWeatherGenerator.Site site = SyntheticWeatherGenerator.SITE_MOSCOW;
+        ContentValues[] first = new SyntheticWeatherGenerator(42)
+                .createDays(site, FIRST_OF_JANUARY, 30);
+        ContentValues[] second = new SyntheticWeatherGenerator(42)
+                .createDays(site, FIRST_OF_JANUARY, 30);
+        ContentValues[] reseeded = new SyntheticWeatherGenerator(43)
+                .createDays(site, FIRST_OF_JANUARY, 30);
+
+        boolean anyDifferent = false;
+        for (int i = 0; i < first.length; i++) {
+            assertEquals("The same seed should generate the same day", first[i], second[i]);
+            anyDifferent |= !first[i].equals(reseeded[i]);
+        }
+        assertTrue("Another seed should generate other weather", anyDifferent);
+
+        /* A day generated on its own is the same as when generated in a run of days */
+        assertEquals(first[10], new SyntheticWeatherGenerator(42)
+                .createDay(site, FIRST_OF_JANUARY + 10 * DAY));
+    }
+
+    @Test
+    public void testTemperaturesFollowTheSeasons() {
+        SyntheticWeatherGenerator generator = new SyntheticWeatherGenerator(7);
+        double moscowJanuary = meanMaxTemp(generator, SyntheticWeatherGenerator.SITE_MOSCOW,
+                FIRST_OF_JANUARY);
+        double moscowJuly = meanMaxTemp(generator, SyntheticWeatherGenerator.SITE_MOSCOW,
+                FIRST_OF_JULY);
+        assertTrue("July should be warmer than January in the north", moscowJuly > moscowJanuary);
+
+        double buenosAiresJanuary = meanMaxTemp(generator,
+                SyntheticWeatherGenerator.SITE_BUENOS_AIRES, FIRST_OF_JANUARY);
+        double buenosAiresJuly = meanMaxTemp(generator,
+                SyntheticWeatherGenerator.SITE_BUENOS_AIRES, FIRST_OF_JULY);
+        assertTrue("January should be warmer than July in the south",
+                buenosAiresJanuary > buenosAiresJuly);
+    }
+
+    @Test
+    public void testConditionsAreKnown() {
+        SyntheticWeatherGenerator generator = new SyntheticWeatherGenerator(2016);
+        Set<Integer> conditions = new HashSet<>();
+        for (SyntheticWeatherGenerator.Site site : SyntheticWeatherGenerator.SITES) {
+            for (ContentValues day : generator.createDays(site, FIRST_OF_JANUARY, YEAR_OF_DAYS)) {
+                int weatherId = day.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+                assertFalse("Unknown condition " + weatherId,
+                        mContext.getString(R.string.condition_unknown, weatherId).equals(
+                                SunshineWeatherUtils.getStringForWeatherCondition(mContext,
+                                        weatherId)));
+                conditions.add(weatherId);
+            }
+        }
+        assertTrue("A year at every site should see many conditions, saw " + conditions.size(),
+                conditions.size() >= 30);
+    }
+
+    @Test
+    public void testYearsLoadThroughBulkInsert() {
+        int days = 3 * YEAR_OF_DAYS;
+        assertEquals(days, FakeDataUtils.insertSyntheticForecast(mContext,
+                new SyntheticWeatherGenerator(1), SyntheticWeatherGenerator.SITE_TROMSO,
+                FIRST_OF_JANUARY, days));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, WeatherEntry.COLUMN_DATE);
+        try {
+            assertEquals(days, cursor.getCount());
+            cursor.moveToLast();
+            assertEquals(FIRST_OF_JANUARY + (days - 1) * DAY, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /* The average high over the month from the given date */
+    private static double meanMaxTemp(SyntheticWeatherGenerator generator,
+                                      SyntheticWeatherGenerator.Site site, long firstDate) {
+        double sum = 0;
+        ContentValues[] days = generator.createDays(site, firstDate, 30);
+        for (ContentValues day : days) {
+            sum += day.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        }
+        return sum / days.length;
+    }
+}
@@ -44,6 +44,11 @@ public class TestUriMatcher {
     private static final String weatherCodeWithDateVariableName = "CODE_WEATHER_WITH_DATE";
     private static int REFLECTED_WEATHER_WITH_DATE_CODE;
 
+    private static final Uri TEST_WEATHER_HISTORY_DIR =
+            WeatherContract.WeatherHistoryEntry.CONTENT_URI;
+    private static final Uri TEST_WEATHER_HISTORY_WITH_DATE_DIR = WeatherContract
+            .WeatherHistoryEntry.buildHistoryUriWithDate(TestUtilities.DATE_NORMALIZED);
+
     private UriMatcher testMatcher;
 
     @Before
@@ -101,5 +106,29 @@ public class TestUriMatcher {
         assertEquals(weatherWithDateUriCodeDoesNotMatch,
                 expectedWeatherWithDateCode,
                 actualWeatherWithDateCode);
+
+        /* The forecast history URIs must not be mistaken for the current weather URIs */
+        assertEquals("Error: The CODE_WEATHER_HISTORY URI was matched incorrectly.",
+                WeatherProvider.CODE_WEATHER_HISTORY,
+                testMatcher.match(TEST_WEATHER_HISTORY_DIR));
+
+        assertEquals("Error: The CODE_WEATHER_HISTORY_WITH_DATE URI was matched incorrectly.",
+                WeatherProvider.CODE_WEATHER_HISTORY_WITH_DATE,
+                testMatcher.match(TEST_WEATHER_HISTORY_WITH_DATE_DIR));
+
+        /* The named query shapes must not be mistaken for a single date either */
+        assertEquals("Error: The CODE_WEATHER_FROM_DATE URI was matched incorrectly.",
+                WeatherProvider.CODE_WEATHER_FROM_DATE,
+                testMatcher.match(WeatherContract.WeatherEntry
+                        .buildWeatherUriFromDate(TestUtilities.DATE_NORMALIZED)));
+
+        assertEquals("Error: The CODE_WEATHER_DATE_RANGE URI was matched incorrectly.",
+                WeatherProvider.CODE_WEATHER_DATE_RANGE,
+                testMatcher.match(WeatherContract.WeatherEntry.buildWeatherUriForDateRange(
+                        TestUtilities.DATE_NORMALIZED, TestUtilities.DATE_NORMALIZED)));
+
+        assertEquals("Error: The CODE_WEATHER_LATEST URI was matched incorrectly.",
+                WeatherProvider.CODE_WEATHER_LATEST,
+                testMatcher.match(WeatherContract.WeatherEntry.CONTENT_URI_LATEST));
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.sync.SunshineSyncTask;
+import com.example.android.sunshine.sync.WeatherAlertEngine;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the weather alert rules:
+ * <p>
+ * 1) Without a previous forecast there is nothing to compare with, so nothing is raised
+ * 2) A day that turns stormy raises one alert, and only once across syncs
+ * 3) Unchanged days and days past the horizon raise nothing
+ * 4) A large temperature swing raises an alert
+ * 5) After a location change, the new city's forecast isn't compared with the old city's, and
+ * the old city's alerts don't hide the new city's
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherAlertEngine {
+
+    private static final int CLEAR = 800;
+    private static final int RAIN = 501;
+    private static final int THUNDERSTORM = 211;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final long mToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+    @Before
+    public void setUp() {
+        ForecastSnapshot.delete(mContext);
+        WeatherAlertEngine.reset(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        ForecastSnapshot.delete(mContext);
+        WeatherAlertEngine.reset(mContext);
+    }
+
+    @Test
+    public void testNoPreviousForecastRaisesNothing() {
+        List<WeatherAlertEngine.Alert> alerts = WeatherAlertEngine.evaluate(mContext, null,
+                forecast(THUNDERSTORM, 20));
+        assertTrue("Nothing should be raised without a forecast to compare with",
+                alerts.isEmpty());
+    }
+
+    @Test
+    public void testStormRaisesOneAlertOnce() {
+        ForecastSnapshot previous = snapshotOf(forecast(CLEAR, 20));
+
+        ContentValues[] stormy = forecast(CLEAR, 20);
+        stormy[1].put(WeatherEntry.COLUMN_WEATHER_ID, THUNDERSTORM);
+
+        List<WeatherAlertEngine.Alert> alerts =
+                WeatherAlertEngine.evaluate(mContext, previous, stormy);
+        assertEquals(1, alerts.size());
+        assertEquals(WeatherAlertEngine.ALERT_SEVERE_WEATHER, alerts.get(0).type);
+        assertEquals(mToday + SunshineDateUtils.DAY_IN_MILLIS, alerts.get(0).date);
+
+        assertTrue("The same alert should not be raised by a later sync",
+                WeatherAlertEngine.evaluate(mContext, previous, stormy).isEmpty());
+    }
+
+    @Test
+    public void testUnchangedAndDistantDaysRaiseNothing() {
+        ContentValues[] forecast = forecast(CLEAR, 20);
+        ForecastSnapshot previous = snapshotOf(forecast);
+        assertTrue("An unchanged forecast should raise nothing",
+                WeatherAlertEngine.evaluate(mContext, previous, forecast).isEmpty());
+
+        ContentValues[] rainLater = forecast(CLEAR, 20);
+        rainLater[rainLater.length - 1].put(WeatherEntry.COLUMN_WEATHER_ID, RAIN);
+        assertTrue("Changes past the alert horizon should raise nothing",
+                WeatherAlertEngine.evaluate(mContext, previous, rainLater).isEmpty());
+    }
+
+    @Test
+    public void testTemperatureSwingRaisesAlert() {
+        ForecastSnapshot previous = snapshotOf(forecast(CLEAR, 20));
+
+        List<WeatherAlertEngine.Alert> alerts =
+                WeatherAlertEngine.evaluate(mContext, previous, forecast(CLEAR, 8));
+        assertTrue("A large drop in temperature should raise alerts", !alerts.isEmpty());
+        for (WeatherAlertEngine.Alert alert : alerts) {
+            assertEquals(WeatherAlertEngine.ALERT_TEMPERATURE_SWING, alert.type);
+        }
+    }
+
+    @Test
+    public void testLocationChangeForgetsPreviousForecast() {
+        ForecastSnapshot oldCity = snapshotOf(forecast(CLEAR, 20));
+        ContentValues[] oldCityStormy = forecast(CLEAR, 20);
+        oldCityStormy[1].put(WeatherEntry.COLUMN_WEATHER_ID, THUNDERSTORM);
+        assertEquals(1, WeatherAlertEngine.evaluate(mContext, oldCity, oldCityStormy).size());
+
+        SunshineSyncTask.forgetPreviousLocation(mContext);
+
+        assertNull("The old city's snapshot should be gone", ForecastSnapshot.open(mContext));
+        assertTrue("The new city's forecast shouldn't be compared with the old city's",
+                WeatherAlertEngine.evaluate(mContext, ForecastSnapshot.open(mContext),
+                        forecast(THUNDERSTORM, 8)).isEmpty());
+
+        ForecastSnapshot newCity = snapshotOf(forecast(CLEAR, 20));
+        List<WeatherAlertEngine.Alert> alerts =
+                WeatherAlertEngine.evaluate(mContext, newCity, oldCityStormy);
+        assertEquals("The old city's alert shouldn't hide the same one for the new city",
+                1, alerts.size());
+        assertEquals(WeatherAlertEngine.ALERT_SEVERE_WEATHER, alerts.get(0).type);
+    }
+
+    /* A week of identical days starting today */
+    private ContentValues[] forecast(int weatherId, double high) {
+        ContentValues[] days = new ContentValues[7];
+        for (int i = 0; i < days.length; i++) {
+            ContentValues values = TestUtilities.createTestWeatherContentValues();
+            values.put(WeatherEntry.COLUMN_DATE, mToday + i * SunshineDateUtils.DAY_IN_MILLIS);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, high - 8);
+            days[i] = values;
+        }
+        return days;
+    }
+
+    private ForecastSnapshot snapshotOf(ContentValues[] forecast) {
+        assertTrue(ForecastSnapshot.write(mContext, forecast));
+        return ForecastSnapshot.open(mContext);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.utilities.WeatherArtCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+
+/**
+ * Tests the shared weather art cache:
+ * <p>
+ * 1) Art is rasterized at the size of its size class
+ * 2) The same art at the same size is rasterized once and shared, even across condition IDs
+ * 3) Different size classes get different bitmaps
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherArtCache {
+
+    /* Both map to the storm art */
+    private static final int THUNDERSTORM = 211;
+    private static final int TORNADO = 781;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        WeatherArtCache.clear();
+    }
+
+    @Test
+    public void testArtIsDrawnAtSizeClass() {
+        Bitmap art = WeatherArtCache.getBitmap(mContext, THUNDERSTORM, WeatherArtCache.SIZE_LIST);
+        int expected = mContext.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        assertEquals(expected, art.getWidth());
+        assertEquals(expected, art.getHeight());
+    }
+
+    @Test
+    public void testArtIsSharedAndCounted() {
+        int hits = WeatherArtCache.hitCount();
+        int misses = WeatherArtCache.missCount();
+
+        Bitmap first =
+                WeatherArtCache.getBitmap(mContext, THUNDERSTORM, WeatherArtCache.SIZE_TODAY);
+        Bitmap second = WeatherArtCache.getBitmap(mContext, TORNADO, WeatherArtCache.SIZE_TODAY);
+
+        assertSame("Conditions with the same art should share one bitmap", first, second);
+        assertEquals(misses + 1, WeatherArtCache.missCount());
+        assertEquals(hits + 1, WeatherArtCache.hitCount());
+
+        assertNotSame("Each size class should have its own bitmap", first,
+                WeatherArtCache.getBitmap(mContext, THUNDERSTORM, WeatherArtCache.SIZE_LIST));
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherIntervalEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests the interval forecast kept by WeatherProvider:
+ * <p>
+ * 1) Intervals are aggregated to one row per day with the weather table's columns
+ * 2) A day's condition is its most frequent one, the more severe one on a tie
+ * 3) Days the intervals only partly cover aren't aggregated
+ * 4) Inserting a new set of intervals drops the ones it no longer covers
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherIntervals {
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+    private static final long STEP = WeatherIntervalEntry.RESOLUTION_THREE_HOURLY;
+    private static final int INTERVALS_PER_DAY = (int) (DAY / STEP);
+
+    private static final int CLEAR = 800;
+    private static final int CLOUDS = 803;
+    private static final int RAIN = 501;
+
+    /* A normalized date far from today, so the test doesn't depend on the clock */
+    private static final long FIRST_DAY = 1475280000000L;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mResolver = mContext.getContentResolver();
+
+    @Before
+    public void setUp() {
+        mResolver.delete(WeatherIntervalEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(WeatherIntervalEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testIntervalsAggregateToDays() {
+        ContentValues[] intervals = new ContentValues[2 * INTERVALS_PER_DAY];
+        for (int i = 0; i < intervals.length; i++) {
+            /* Clear for the first three intervals of each day, cloudy for the rest */
+            int weatherId = i % INTERVALS_PER_DAY < 3 ? CLEAR : CLOUDS;
+            intervals[i] = createInterval(FIRST_DAY + i * STEP, weatherId, 10 + i);
+        }
+        /* The windiest interval of the first day blows from the east */
+        intervals[4].put(WeatherIntervalEntry.COLUMN_WIND_SPEED, 30.0);
+        intervals[4].put(WeatherIntervalEntry.COLUMN_DEGREES, 90.0);
+
+        assertEquals(intervals.length,
+                mResolver.bulkInsert(WeatherIntervalEntry.CONTENT_URI, intervals));
+
+        Cursor days = mResolver.query(WeatherIntervalEntry.CONTENT_URI_DAILY, null, null, null,
+                null);
+        try {
+            assertEquals("There should be one row per day", 2, days.getCount());
+
+            days.moveToFirst();
+            assertEquals(FIRST_DAY, days.getLong(days.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+            assertEquals("The most frequent condition should win",
+                    CLOUDS, days.getInt(days.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+            assertEquals("The low should be the day's lowest",
+                    10 - 2.0, days.getDouble(days.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)));
+            assertEquals("The high should be the day's highest",
+                    10 + INTERVALS_PER_DAY - 1 + 2.0,
+                    days.getDouble(days.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+            assertEquals("The wind should come from the direction of the strongest wind",
+                    90.0, days.getDouble(days.getColumnIndex(WeatherEntry.COLUMN_DEGREES)));
+
+            days.moveToNext();
+            assertEquals(FIRST_DAY + DAY,
+                    days.getLong(days.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        } finally {
+            days.close();
+        }
+    }
+
+    @Test
+    public void testTieGoesToTheMoreSevereCondition() {
+        ContentValues[] intervals = new ContentValues[INTERVALS_PER_DAY];
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = createInterval(FIRST_DAY + i * STEP, i % 2 == 0 ? CLEAR : RAIN, 15);
+        }
+        mResolver.bulkInsert(WeatherIntervalEntry.CONTENT_URI, intervals);
+
+        Cursor days = mResolver.query(WeatherIntervalEntry.CONTENT_URI_DAILY,
+                new String[]{WeatherEntry.COLUMN_WEATHER_ID}, null, null, null);
+        try {
+            days.moveToFirst();
+            assertEquals("Rain should win a tie with clear skies", RAIN, days.getInt(0));
+        } finally {
+            days.close();
+        }
+    }
+
+    @Test
+    public void testPartlyCoveredDaysAreLeftOut() {
+        /* The last two intervals of the first day, all of the second, three of the third */
+        int firstInterval = INTERVALS_PER_DAY - 2;
+        int lastInterval = 2 * INTERVALS_PER_DAY + 3;
+        ContentValues[] intervals = new ContentValues[lastInterval - firstInterval];
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = createInterval(FIRST_DAY + (firstInterval + i) * STEP, CLEAR, 15);
+        }
+        mResolver.bulkInsert(WeatherIntervalEntry.CONTENT_URI, intervals);
+
+        Cursor days = mResolver.query(WeatherIntervalEntry.CONTENT_URI_DAILY,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        try {
+            assertEquals("Only the day covered in full should be returned", 1, days.getCount());
+            days.moveToFirst();
+            assertEquals(FIRST_DAY + DAY, days.getLong(0));
+        } finally {
+            days.close();
+        }
+    }
+
+    @Test
+    public void testNewIntervalsReplaceOldOnes() {
+        ContentValues[] older = new ContentValues[2 * INTERVALS_PER_DAY];
+        for (int i = 0; i < older.length; i++) {
+            older[i] = createInterval(FIRST_DAY + i * STEP, CLEAR, 15);
+        }
+        mResolver.bulkInsert(WeatherIntervalEntry.CONTENT_URI, older);
+
+        /* The next forecast starts a day later and reaches a day further */
+        ContentValues[] newer = new ContentValues[2 * INTERVALS_PER_DAY];
+        for (int i = 0; i < newer.length; i++) {
+            newer[i] = createInterval(FIRST_DAY + DAY + i * STEP, RAIN, 15);
+        }
+        mResolver.bulkInsert(WeatherIntervalEntry.CONTENT_URI, newer);
+
+        Cursor stored = mResolver.query(WeatherIntervalEntry.CONTENT_URI,
+                new String[]{WeatherIntervalEntry.COLUMN_START_TIME,
+                        WeatherIntervalEntry.COLUMN_WEATHER_ID}, null, null, null);
+        try {
+            assertEquals("Only the new forecast's intervals should be stored",
+                    newer.length, stored.getCount());
+            stored.moveToFirst();
+            assertEquals(FIRST_DAY + DAY, stored.getLong(0));
+            assertEquals("Overlapping intervals should have been replaced", RAIN,
+                    stored.getInt(1));
+        } finally {
+            stored.close();
+        }
+    }
+
+    private static ContentValues createInterval(long startTime, int weatherId, double temp) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherIntervalEntry.COLUMN_START_TIME, startTime);
+        values.put(WeatherIntervalEntry.COLUMN_RESOLUTION, STEP);
+        values.put(WeatherIntervalEntry.COLUMN_DATE, SunshineDateUtils.normalizeDate(startTime));
+        values.put(WeatherIntervalEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(WeatherIntervalEntry.COLUMN_TEMP, temp);
+        values.put(WeatherIntervalEntry.COLUMN_MIN_TEMP, temp - 2);
+        values.put(WeatherIntervalEntry.COLUMN_MAX_TEMP, temp + 2);
+        values.put(WeatherIntervalEntry.COLUMN_HUMIDITY, 80.0);
+        values.put(WeatherIntervalEntry.COLUMN_PRESSURE, 1010.0);
+        values.put(WeatherIntervalEntry.COLUMN_WIND_SPEED, 5.0);
+        values.put(WeatherIntervalEntry.COLUMN_DEGREES, 180.0);
+        return values;
+    }
+}
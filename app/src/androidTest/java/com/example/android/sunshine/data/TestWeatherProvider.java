@@ -16,9 +16,12 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
@@ -31,9 +34,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -423,6 +429,179 @@ public class TestWeatherProvider {
         shouldBeEmptyCursor.close();
     }
 
+    /**
+     * Tests the named query shapes (from a date, a date range and the latest date), which bind
+     * their dates instead of taking them in the selection text.
+     */
+    @Test
+    public void testNamedQueryShapes() {
+        ContentValues[] values = createBulkInsertTestWeatherValues();
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+
+        String[] projection = {WeatherContract.WeatherEntry.COLUMN_DATE};
+        long secondDate = values[1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long thirdDate = values[2].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long lastDate = values[BULK_INSERT_RECORDS_TO_INSERT - 1]
+                .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        Cursor fromCursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherUriFromDate(secondDate),
+                projection, null, null, null);
+        assertNotNull(fromCursor);
+        assertEquals("Every day from the given date on should be returned",
+                BULK_INSERT_RECORDS_TO_INSERT - 1, fromCursor.getCount());
+        fromCursor.moveToFirst();
+        assertEquals("Days should come in date order", secondDate, fromCursor.getLong(0));
+        fromCursor.close();
+
+        Cursor rangeCursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherUriForDateRange(secondDate, thirdDate),
+                projection, null, null, null);
+        assertNotNull(rangeCursor);
+        assertEquals("Both ends of the range should be included", 2, rangeCursor.getCount());
+        rangeCursor.close();
+
+        Cursor latestCursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI_LATEST,
+                projection, null, null, null);
+        assertNotNull(latestCursor);
+        assertEquals("Only the latest day should be returned", 1, latestCursor.getCount());
+        latestCursor.moveToFirst();
+        assertEquals(lastDate, latestCursor.getLong(0));
+        latestCursor.close();
+    }
+
+    /**
+     * Tests that applyBatch applies inserts, updates and deletes together, that a single day can
+     * be updated in place, and that observers hear about the batch.
+     */
+    @Test
+    public void testApplyBatch() throws Exception {
+        ContentValues[] values = createBulkInsertTestWeatherValues();
+        long secondDate = values[1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .build());
+        for (ContentValues value : values) {
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(value)
+                    .build());
+        }
+        operations.add(ContentProviderOperation
+                .newUpdate(WeatherContract.WeatherEntry.buildWeatherUriWithDate(secondDate))
+                .withValue(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99)
+                .withExpectedCount(1)
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.registerContentObserver(WeatherContract.WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+
+        ContentProviderResult[] results =
+                contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertEquals("Every operation should have a result", operations.size(), results.length);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(secondDate),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, null);
+        assertNotNull(cursor);
+        assertTrue("The updated day should still be there", cursor.moveToFirst());
+        assertEquals("The update should have changed the day", 99, cursor.getInt(0));
+        cursor.close();
+    }
+
+    /**
+     * Tests that when one operation of a batch fails, none of the batch is applied.
+     */
+    @Test
+    public void testApplyBatchRollsBackOnFailure() throws Exception {
+        ContentValues[] values = createBulkInsertTestWeatherValues();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation
+                .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withValues(values[0])
+                .build());
+        /* There is no row for this date yet, so the expected count can't be met */
+        operations.add(ContentProviderOperation
+                .newUpdate(WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                        values[1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)))
+                .withValue(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99)
+                .withExpectedCount(1)
+                .build());
+
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("The batch should have failed on its update");
+        } catch (OperationApplicationException expected) {
+            /* Expected */
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals("The insert before the failure should have been rolled back",
+                0, cursor.getCount());
+        cursor.close();
+    }
+
+    /**
+     * Tests that changes are announced per day: changing one day notifies observers of that day
+     * and of the whole table, but not observers of another day, and rewriting a day with the
+     * values it already has notifies nobody.
+     */
+    @Test
+    public void testChangesAreNotifiedPerDate() throws Exception {
+        ContentValues[] values = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+
+        long firstDate = values[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long secondDate = values[1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        TestUtilities.TestContentObserver firstDayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver secondDayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver tableObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(firstDate), false,
+                firstDayObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(secondDate), false,
+                secondDayObserver);
+        contentResolver.registerContentObserver(WeatherContract.WeatherEntry.CONTENT_URI, true,
+                tableObserver);
+
+        /* The same forecast again changes nothing */
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+
+        ContentValues update = new ContentValues();
+        update.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+        contentResolver.update(WeatherContract.WeatherEntry.buildWeatherUriWithDate(firstDate),
+                update, null, null);
+
+        firstDayObserver.waitForNotificationOrFail();
+        tableObserver.waitForNotificationOrFail();
+
+        /* Give any stray notification for the second day time to arrive */
+        Thread.sleep(200);
+        assertFalse("Observers of an unchanged day should not be notified",
+                secondDayObserver.mContentChanged);
+
+        contentResolver.unregisterContentObserver(firstDayObserver);
+        contentResolver.unregisterContentObserver(secondDayObserver);
+        contentResolver.unregisterContentObserver(tableObserver);
+        secondDayObserver.mHT.quit();
+    }
+
     /**
      * This method will clear all rows from the weather table in our database.
      * <p>
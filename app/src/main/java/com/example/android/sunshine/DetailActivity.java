@@ -33,6 +33,7 @@ import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.databinding.ActivityDetailBinding;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.example.android.sunshine.utilities.WeatherArtCache;
 
 public class DetailActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
@@ -244,11 +245,9 @@ public class DetailActivity extends AppCompatActivity implements
          ****************/
         /* Read weather condition ID from the cursor (ID provided by Open Weather Map) */
         int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-        /* Use our utility method to determine the resource ID for the proper art */
-        int weatherImageId = SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId);
-
-        /* Set the resource ID on the icon to display the art */
-        mDetailBinding.primaryInfo.weatherIcon.setImageResource(weatherImageId);
+        /* Get the art for the condition from the shared cache, already drawn at today's size */
+        mDetailBinding.primaryInfo.weatherIcon.setImageBitmap(
+                WeatherArtCache.getBitmap(this, weatherId, WeatherArtCache.SIZE_TODAY));
 
         /****************
          * Weather Date *
@@ -27,6 +27,10 @@ import android.widget.TextView;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.example.android.sunshine.utilities.WeatherArtCache;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
@@ -65,6 +69,9 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
 
     private Cursor mCursor;
 
+    /* Rows to show until the first cursor arrives */
+    private ForecastListSnapshot mSnapshot;
+
     /**
      * Creates a ForecastAdapter.
      *
@@ -122,6 +129,9 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * position. In this method, we update the contents of the ViewHolder to display the weather
      * details for this particular position, using the "position" argument that is conveniently
      * passed into us.
+     * <p>
+     * Until the loader delivers a cursor, the rows come ready-formatted from the snapshot of the
+     * list saved at the end of the last session (see {@link ForecastListSnapshot}).
      *
      * @param forecastAdapterViewHolder The ViewHolder which should be updated to represent the
      *                                  contents of the item at the given position in the data set.
@@ -129,33 +139,59 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
+        ForecastListSnapshot.Row row = mCursor != null
+                ? formatRow(position)
+                : mSnapshot.getRow(position);
 
         /****************
          * Weather Icon *
          ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
-        int weatherImageId;
+        int sizeClass;
 
         int viewType = getItemViewType(position);
 
         switch (viewType) {
 
             case VIEW_TYPE_TODAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getLargeArtResourceIdForWeatherCondition(weatherId);
+                sizeClass = WeatherArtCache.SIZE_TODAY;
                 break;
 
             case VIEW_TYPE_FUTURE_DAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getSmallArtResourceIdForWeatherCondition(weatherId);
+                sizeClass = WeatherArtCache.SIZE_LIST;
                 break;
 
             default:
                 throw new IllegalArgumentException("Invalid view type, value of " + viewType);
         }
 
-        forecastAdapterViewHolder.iconView.setImageResource(weatherImageId);
+        /* The art is rasterized once and shared, instead of being decoded again for every bind */
+        forecastAdapterViewHolder.iconView.setImageBitmap(
+                WeatherArtCache.getBitmap(mContext, row.weatherId, sizeClass));
+
+        /* Display friendly date string */
+        forecastAdapterViewHolder.dateView.setText(row.dateString);
+
+        /* Set the text and content description (for accessibility purposes) */
+        forecastAdapterViewHolder.descriptionView.setText(row.description);
+        forecastAdapterViewHolder.descriptionView.setContentDescription(row.descriptionA11y);
+
+        forecastAdapterViewHolder.highTempView.setText(row.highString);
+        forecastAdapterViewHolder.highTempView.setContentDescription(row.highA11y);
+
+        forecastAdapterViewHolder.lowTempView.setText(row.lowString);
+        forecastAdapterViewHolder.lowTempView.setContentDescription(row.lowA11y);
+    }
+
+    /**
+     * Formats the weather at the given position of the cursor into the strings we display.
+     *
+     * @param position The position of the item within the cursor
+     * @return The formatted row
+     */
+    private ForecastListSnapshot.Row formatRow(int position) {
+        mCursor.moveToPosition(position);
+
+        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
 
         /****************
          * Weather Date *
@@ -165,9 +201,6 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
          /* Get human readable string using our utility method */
         String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
 
-         /* Display friendly date string */
-        forecastAdapterViewHolder.dateView.setText(dateString);
-
         /***********************
          * Weather Description *
          ***********************/
@@ -175,10 +208,6 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
          /* Create the accessibility (a11y) String from the weather description */
         String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
 
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.descriptionView.setText(description);
-        forecastAdapterViewHolder.descriptionView.setContentDescription(descriptionA11y);
-
         /**************************
          * High (max) temperature *
          **************************/
@@ -193,10 +222,6 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
          /* Create the accessibility (a11y) String from the weather description */
         String highA11y = mContext.getString(R.string.a11y_high_temp, highString);
 
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.highTempView.setText(highString);
-        forecastAdapterViewHolder.highTempView.setContentDescription(highA11y);
-
         /*************************
          * Low (min) temperature *
          *************************/
@@ -210,9 +235,25 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         String lowString = SunshineWeatherUtils.formatTemperature(mContext, lowInCelsius);
         String lowA11y = mContext.getString(R.string.a11y_low_temp, lowString);
 
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.lowTempView.setText(lowString);
-        forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
+        return new ForecastListSnapshot.Row(dateInMillis, weatherId, dateString, description,
+                descriptionA11y, highString, highA11y, lowString, lowA11y);
+    }
+
+    /**
+     * Formats the first rows of the current cursor, for saving as the snapshot the next launch
+     * starts from.
+     *
+     * @return The formatted rows, or null if there is no cursor or it is empty
+     */
+    ForecastListSnapshot snapshotRows() {
+        if (mCursor == null || mCursor.getCount() == 0) return null;
+
+        int count = Math.min(mCursor.getCount(), ForecastListSnapshot.MAX_ROWS);
+        List<ForecastListSnapshot.Row> rows = new ArrayList<>(count);
+        for (int position = 0; position < count; position++) {
+            rows.add(formatRow(position));
+        }
+        return new ForecastListSnapshot(rows);
     }
 
     /**
@@ -223,8 +264,9 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
-        if (null == mCursor) return 0;
-        return mCursor.getCount();
+        if (null != mCursor) return mCursor.getCount();
+        if (null != mSnapshot) return mSnapshot.size();
+        return 0;
     }
 
     /**
@@ -259,6 +301,17 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         notifyDataSetChanged();
     }
 
+    /**
+     * Shows the given ready-formatted rows until a cursor is swapped in. Once there is a cursor,
+     * it always takes precedence.
+     *
+     * @param snapshot The rows saved at the end of the last session
+     */
+    void swapSnapshot(ForecastListSnapshot snapshot) {
+        mSnapshot = snapshot;
+        if (mCursor == null) notifyDataSetChanged();
+    }
+
     /**
      * A ViewHolder is a required part of the pattern for RecyclerViews. It mostly behaves as
      * a cache of the child views for a forecast item. It's also a convenient place to set an
@@ -294,8 +347,13 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            long dateInMillis;
+            if (mCursor != null) {
+                mCursor.moveToPosition(adapterPosition);
+                dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            } else {
+                dateInMillis = mSnapshot.getRow(adapterPosition).date;
+            }
             mClickHandler.onClick(dateInMillis);
         }
     }
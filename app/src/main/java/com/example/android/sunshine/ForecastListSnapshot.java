@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utilities.AtomicFileWriter;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The forecast list exactly as MainActivity last showed it, with every string already formatted,
+ * saved to a small binary file so the next launch can show the list in its first frame, before
+ * the CursorLoader has opened the database.
+ * <p>
+ * The formatted strings depend on the day (the first row says "Today"), the locale and the
+ * temperature units, so the file records all three and is ignored if any of them has changed
+ * since it was written. Weather IDs are stored rather than icon resource IDs, because resource
+ * IDs can change from one build of the app to the next; looking the icon up again is a switch
+ * statement. Whatever the snapshot shows is replaced as soon as the loader delivers.
+ */
+class ForecastListSnapshot {
+
+    private static final String TAG = ForecastListSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast_list_snapshot.bin";
+
+    private static final int MAGIC = 0x534E4C53;
+    private static final int VERSION = 1;
+
+    /* A screenful and then some; the rest of the list can wait for the loader */
+    static final int MAX_ROWS = 16;
+
+    /**
+     * One rendered list item.
+     */
+    static class Row {
+        final long date;
+        final int weatherId;
+        final String dateString;
+        final String description;
+        final String descriptionA11y;
+        final String highString;
+        final String highA11y;
+        final String lowString;
+        final String lowA11y;
+
+        Row(long date, int weatherId, String dateString, String description,
+            String descriptionA11y, String highString, String highA11y, String lowString,
+            String lowA11y) {
+            this.date = date;
+            this.weatherId = weatherId;
+            this.dateString = dateString;
+            this.description = description;
+            this.descriptionA11y = descriptionA11y;
+            this.highString = highString;
+            this.highA11y = highA11y;
+            this.lowString = lowString;
+            this.lowA11y = lowA11y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Row)) return false;
+            Row other = (Row) o;
+            return date == other.date
+                    && weatherId == other.weatherId
+                    && dateString.equals(other.dateString)
+                    && description.equals(other.description)
+                    && descriptionA11y.equals(other.descriptionA11y)
+                    && highString.equals(other.highString)
+                    && highA11y.equals(other.highA11y)
+                    && lowString.equals(other.lowString)
+                    && lowA11y.equals(other.lowA11y);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (date ^ (date >>> 32)) * 31 + weatherId;
+        }
+    }
+
+    private final List<Row> mRows;
+
+    ForecastListSnapshot(List<Row> rows) {
+        mRows = Collections.unmodifiableList(new ArrayList<>(rows));
+    }
+
+    int size() {
+        return mRows.size();
+    }
+
+    Row getRow(int position) {
+        return mRows.get(position);
+    }
+
+    boolean hasSameRows(ForecastListSnapshot other) {
+        return other != null && mRows.equals(other.mRows);
+    }
+
+    /**
+     * Reads the saved list, if it was rendered for today, in the current locale and units.
+     * The file is a few hundred bytes, so this is cheap enough to do while creating the activity.
+     *
+     * @param context Used to locate the app's files directory and read the units preference
+     * @return The saved list, or null if there is none or it is out of date
+     */
+    static ForecastListSnapshot read(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            if (in.readLong() != SunshineDateUtils.getNormalizedUtcDateForToday()
+                    || !in.readUTF().equals(renderKey(context))) {
+                return null;
+            }
+
+            int count = in.readInt();
+            if (count <= 0 || count > MAX_ROWS) {
+                return null;
+            }
+            List<Row> rows = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                rows.add(new Row(in.readLong(), in.readInt(), in.readUTF(), in.readUTF(),
+                        in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+            }
+            return new ForecastListSnapshot(rows);
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable forecast list snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    /* Everything needed has been read */
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves this list, replacing the previous one. Does file I/O, so call it off the main thread.
+     *
+     * @param context Used to locate the app's files directory and read the units preference
+     */
+    void write(Context context) {
+        try {
+            AtomicFileWriter writer =
+                    AtomicFileWriter.start(new File(context.getFilesDir(), FILE_NAME));
+            try {
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(writer.getOutputStream()));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(SunshineDateUtils.getNormalizedUtcDateForToday());
+                out.writeUTF(renderKey(context));
+                out.writeInt(mRows.size());
+                for (Row row : mRows) {
+                    out.writeLong(row.date);
+                    out.writeInt(row.weatherId);
+                    out.writeUTF(row.dateString);
+                    out.writeUTF(row.description);
+                    out.writeUTF(row.descriptionA11y);
+                    out.writeUTF(row.highString);
+                    out.writeUTF(row.highA11y);
+                    out.writeUTF(row.lowString);
+                    out.writeUTF(row.lowA11y);
+                }
+                out.flush();
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write the forecast list snapshot", e);
+        }
+    }
+
+    /* What the formatted strings depend on, besides the day */
+    private static String renderKey(Context context) {
+        return Locale.getDefault().toString()
+                + (SunshinePreferences.isMetric(context) ? "|metric" : "|imperial");
+    }
+}
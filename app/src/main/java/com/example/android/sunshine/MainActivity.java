@@ -18,20 +18,12 @@ package com.example.android.sunshine;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
-import android.support.v4.graphics.drawable.DrawableCompat;
 import android.support.v7.app.AppCompatActivity;
-import android.support.v7.widget.AppCompatDrawableManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
@@ -44,22 +36,12 @@ import android.widget.ProgressBar;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.Node;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import java.io.ByteArrayOutputStream;
-
-public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>, ForecastAdapter.ForecastAdapterOnClickHandler,
-        GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener,
-        ResultCallback<DataApi.DataItemResult> {
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.WeatherArtCache;
+
+public class MainActivity extends AppCompatActivity implements
+        LoaderManager.LoaderCallbacks<Cursor>,
+        ForecastAdapter.ForecastAdapterOnClickHandler {
 
     private final String TAG = MainActivity.class.getSimpleName();
 
@@ -99,12 +81,14 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     private int mPosition = RecyclerView.NO_POSITION;
 
     private ProgressBar mLoadingIndicator;
-    private GoogleApiClient googleApiClient;
-    PutDataRequest putDataReq;
+
+    /* The forecast list as last saved, so we only rewrite it when it changes */
+    private ForecastListSnapshot mListSnapshot;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupOrchestrator.markMilestone(StartupOrchestrator.MILESTONE_ACTIVITY_CREATED);
         setContentView(R.layout.activity_forecast);
         getSupportActionBar().setElevation(0f);
 
@@ -164,8 +148,19 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         /* Setting the adapter attaches it to the RecyclerView in our layout. */
         mRecyclerView.setAdapter(mForecastAdapter);
 
-
-        showLoading();
+        /*
+         * If we saved the list we showed last time and it is still current, show it right away,
+         * so the forecast is there in the first frame without waiting for the database. The
+         * loader's result replaces it when it arrives.
+         */
+        mListSnapshot = ForecastListSnapshot.read(this);
+        if (mListSnapshot != null) {
+            mForecastAdapter.swapSnapshot(mListSnapshot);
+            showWeatherDataView();
+            StartupOrchestrator.markMilestone(StartupOrchestrator.MILESTONE_SNAPSHOT_SHOWN);
+        } else {
+            showLoading();
+        }
 
         /*
          * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
@@ -174,28 +169,18 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
          */
         getSupportLoaderManager().initLoader(ID_FORECAST_LOADER, null, this);
 
-        SunshineSyncUtils.initialize(this);
-        googleApiClient = new GoogleApiClient.Builder(this)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApi(Wearable.API)
-                .build();
-
-
-    }
-
-    @Override
-    protected void onStart() {
-        super.onStart();
-        googleApiClient.connect();
-    }
-
-    @Override
-    protected void onStop() {
-        if (googleApiClient != null && googleApiClient.isConnected()) {
-            googleApiClient.disconnect();
-        }
-        super.onStop();
+        /*
+         * Scheduling the sync job and checking whether we need to sync right away aren't needed
+         * to draw the forecast we already have, so they wait until after the first frame and run
+         * in the background. The application Context is used since the work may outlive us.
+         */
+        final Context applicationContext = getApplicationContext();
+        StartupOrchestrator.runAfterFirstDraw(this, new Runnable() {
+            @Override
+            public void run() {
+                SunshineSyncUtils.initialize(applicationContext);
+            }
+        });
     }
 
     /**
@@ -240,23 +225,20 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         switch (loaderId) {
 
             case ID_FORECAST_LOADER:
-                /* URI for all rows of weather data in our weather table */
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
-                /* Sort order: Ascending by date */
-                String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
                 /*
-                 * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-                 * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
+                 * URI for all weather data from today onwards, in date order. The provider
+                 * binds today's date into a query it has already prepared, so we don't pass a
+                 * selection or sort order of our own.
                  */
-                String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+                Uri forecastQueryUri = WeatherContract.WeatherEntry.buildWeatherUriFromDate(
+                        SunshineDateUtils.getNormalizedUtcDateForToday());
 
                 return new CursorLoader(this,
                         forecastQueryUri,
                         MAIN_FORECAST_PROJECTION,
-                        selection,
                         null,
-                        sortOrder);
+                        null,
+                        null);
 
             default:
                 throw new RuntimeException("Loader Not Implemented: " + loaderId);
@@ -283,12 +265,30 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         mRecyclerView.smoothScrollToPosition(mPosition);
         if (data.getCount() != 0) {
             showWeatherDataView();
-            data.moveToFirst();
-
-            onTempSet(data.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP), data.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP), data.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID));
+            StartupOrchestrator.markMilestone(StartupOrchestrator.MILESTONE_FIRST_FORECAST);
+            saveListSnapshot();
         }
     }
 
+    /**
+     * Saves the top of the list as it is now shown, for the next launch to start from, unless
+     * it is what we saved already. The rows are formatted here, since the adapter owns the
+     * cursor, and written to disk in the background.
+     */
+    private void saveListSnapshot() {
+        final ForecastListSnapshot snapshot = mForecastAdapter.snapshotRows();
+        if (snapshot == null || snapshot.hasSameRows(mListSnapshot)) return;
+
+        mListSnapshot = snapshot;
+        final Context applicationContext = getApplicationContext();
+        StartupOrchestrator.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                snapshot.write(applicationContext);
+            }
+        });
+    }
+
     /**
      * Called when a previously created loader is being reset, and thus making its data unavailable.
      * The application should at this point remove any references it has to the Loader's data.
@@ -346,6 +346,16 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         mLoadingIndicator.setVisibility(View.VISIBLE);
     }
 
+    /**
+     * The weather art cache can always be rebuilt, so give its memory back when the system is
+     * running low.
+     */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        WeatherArtCache.clear();
+    }
+
     /**
      * This is where we inflate and set up the menu for this Activity.
      *
@@ -387,109 +397,4 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
         return super.onOptionsItemSelected(item);
     }
-
-
-    public void onTempSet(double hiTemp, double lowTemp, int weatherID) {
-        Log.v(TAG, "onTempSet hi" + hiTemp + " low " + lowTemp);
-
-        int weatherImageId = SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherID);
-        Log.v(TAG, "weather Image id is " + weatherID);
-        Bitmap bitmap = getBitmapFromVectorDrawable(MainActivity.this,weatherImageId);
-        Asset asset = createAssetFromBitmap(bitmap);
-
-        PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/ubiquitous_watch_face_config");
-
-        putDataMapReq.getDataMap().putDouble("KEY_MAJOR_TEMP", hiTemp);
-        putDataMapReq.getDataMap().putDouble("KEY_MINOR_TEMP", lowTemp);
-        putDataMapReq.getDataMap().putAsset("KEY_WEATHER_IMAGE", asset);
-        putDataReq = putDataMapReq.asPutDataRequest();
-
-        Wearable.DataApi.putDataItem(googleApiClient, putDataReq).setResultCallback(this);
-
-
-    }
-
-    private Asset createAssetFromBitmap(Bitmap bitmap) {
-        Log.v(TAG, "createAssetFromBitmap");
-
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        return Asset.createFromBytes(byteStream.toByteArray());
-    }
-
-    public Bitmap getBitmapFromVectorDrawable(Context context, int drawableId) {
-        Log.v(TAG, "getBitmapFromVectorDrawable");
-        Drawable drawable = AppCompatDrawableManager.get().getDrawable(context, drawableId);
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-            drawable = (DrawableCompat.wrap(drawable)).mutate();
-        }
-
-        Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
-                drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-        drawable.draw(canvas);
-
-        return bitmap;
-    }
-
-    @Override
-    public void onConnected(Bundle bundle) {
-        Log.d(TAG, "onConnected");
-        if (putDataReq != null) {
-            Wearable.DataApi.putDataItem(googleApiClient, putDataReq).setResultCallback(this);
-        }
-
-        String[] myData = new String[]{"data1", "data2", "data3"};
-        new DataTask(this, myData).execute();
-    }
-
-    @Override
-    public void onConnectionSuspended(int i) {
-        Log.e(TAG, "onConnectionSuspended");
-    }
-
-    @Override
-    public void onConnectionFailed(ConnectionResult connectionResult) {
-        Log.e(TAG, "onConnectionFailed");
-    }
-
-    @Override
-    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-        Log.e(TAG, "onResult");
-        if (dataItemResult.getStatus().isSuccess()) {
-            Log.e(TAG, "onResult success");
-        } else {
-            Log.e(TAG, "onResult fail");
-        }
-    }
-
-    class DataTask extends AsyncTask<Node, Void, Void> {
-
-        private final String[] contents;
-
-        Context c;
-
-        public DataTask(Context c, String[] contents) {
-            this.c = c;
-            this.contents = contents;
-
-        }
-
-        @Override
-        protected Void doInBackground(Node... nodes) {
-
-            PutDataMapRequest dataMap = PutDataMapRequest.create("/myapp/myevent");
-            dataMap.getDataMap().putStringArray("contents", contents);
-
-            PutDataRequest request = dataMap.asPutDataRequest();
-
-            DataApi.DataItemResult dataItemResult = Wearable.DataApi
-                    .putDataItem(googleApiClient, request).await();
-
-
-            Log.d(" - doInBackground", "/myapp/myevent " + getStatus());
-            return null;
-        }
-    }
 }
@@ -26,13 +26,19 @@ import android.support.v7.preference.PreferenceScreen;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.WeatherIntervalEntry;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
+import com.example.android.sunshine.sync.SyncRequestQueue;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The SettingsFragment serves as the display for all of the user's settings. In Sunshine, the
  * user will be able to change their preference for units of measurement from metric to imperial,
- * set their preferred weather location, and indicate whether or not they'd like to see
- * notifications.
+ * set their preferred weather location, choose how far ahead and in how much detail to forecast,
+ * and indicate whether or not they'd like to see notifications.
  *
  * Please note: If you are using our dummy weather services, the location returned will always be
  * Mountain View, California.
@@ -50,6 +56,14 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
             int prefIndex = listPreference.findIndexOfValue(stringValue);
             if (prefIndex >= 0) {
                 preference.setSummary(listPreference.getEntries()[prefIndex]);
+                if (preference.getKey().equals(getString(R.string.pref_forecast_days_key))) {
+                    // A finer forecast may not reach as far ahead; say how far it does
+                    int horizonDays = NetworkUtils.getForecastHorizonDays(getActivity());
+                    if (horizonDays < SunshinePreferences.getForecastDays(getActivity())) {
+                        preference.setSummary(getString(R.string.pref_forecast_days_limited,
+                                listPreference.getEntries()[prefIndex], horizonDays));
+                    }
+                }
             }
         } else {
             // For other preferences, set the summary to the value's simple string representation.
@@ -61,6 +75,7 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
     public void onCreatePreferences(Bundle bundle, String s) {
         // Add 'general' preferences, defined in the XML file
         addPreferencesFromResource(R.xml.pref_general);
+        removeUnavailableResolutions();
 
         SharedPreferences sharedPreferences = getPreferenceScreen().getSharedPreferences();
         PreferenceScreen prefScreen = getPreferenceScreen();
@@ -74,6 +89,41 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
         }
     }
 
+    /*
+     * Only offers the forecast detail this build can fetch (see NetworkUtils), and drops the
+     * preference altogether when the daily forecast is all there is.
+     */
+    private void removeUnavailableResolutions() {
+        ListPreference preference =
+                (ListPreference) findPreference(getString(R.string.pref_forecast_resolution_key));
+        CharSequence[] entries = preference.getEntries();
+        CharSequence[] values = preference.getEntryValues();
+
+        List<CharSequence> availableEntries = new ArrayList<>();
+        List<CharSequence> availableValues = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i].toString();
+            boolean available = value.equals(getString(R.string.pref_forecast_resolution_daily))
+                    || (value.equals(getString(R.string.pref_forecast_resolution_three_hourly))
+                    && NetworkUtils.isResolutionAvailable(
+                            WeatherIntervalEntry.RESOLUTION_THREE_HOURLY))
+                    || (value.equals(getString(R.string.pref_forecast_resolution_hourly))
+                    && NetworkUtils.isResolutionAvailable(WeatherIntervalEntry.RESOLUTION_HOURLY));
+            if (available) {
+                availableEntries.add(entries[i]);
+                availableValues.add(values[i]);
+            }
+        }
+
+        if (availableValues.size() < 2) {
+            getPreferenceScreen().removePreference(preference);
+            return;
+        }
+        preference.setEntries(availableEntries.toArray(new CharSequence[availableEntries.size()]));
+        preference.setEntryValues(
+                availableValues.toArray(new CharSequence[availableValues.size()]));
+    }
+
     @Override
     public void onStop() {
         super.onStop();
@@ -98,10 +148,23 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
             SunshinePreferences.resetLocationCoordinates(activity);
-            SunshineSyncUtils.startImmediateSync(activity);
+            // the sync is queued, so a change made while offline is fetched once back online
+            SunshineSyncUtils.requestSync(activity, SyncRequestQueue.TYPE_LOCATION_CHANGE);
         } else if (key.equals(getString(R.string.pref_units_key))) {
             // units have changed. update lists of weather entries accordingly
             activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // the watch face shows temperatures in the preferred units as well
+            SunshineSyncUtils.startWearablePublish(activity);
+        } else if (key.equals(getString(R.string.pref_forecast_days_key))
+                || key.equals(getString(R.string.pref_forecast_resolution_key))) {
+            // the forecast we request has changed, so fetch it like a refresh would
+            SunshineSyncUtils.requestSync(activity, SyncRequestQueue.TYPE_MANUAL_REFRESH);
+            if (key.equals(getString(R.string.pref_forecast_resolution_key))) {
+                // how far ahead the forecast reaches depends on its detail
+                String daysKey = getString(R.string.pref_forecast_days_key);
+                setPreferenceSummary(findPreference(daysKey),
+                        sharedPreferences.getString(daysKey, ""));
+            }
         }
         Preference preference = findPreference(key);
         if (null != preference) {
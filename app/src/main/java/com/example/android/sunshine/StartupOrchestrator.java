@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps work that the first screen doesn't need out of the way of the first frame, and records
+ * how long a cold start takes to get to it.
+ * <p>
+ * Anything MainActivity used to do in onCreate that isn't needed to draw the forecast list
+ * (scheduling the sync job, checking whether we need an immediate sync) is handed to
+ * runAfterFirstDraw. It waits until the activity has drawn once and then runs the work on a
+ * single shared background thread, so it neither delays the first frame nor competes with the
+ * forecast loader for the main thread.
+ * <p>
+ * Milestones are timed from when the process started, so they include the time the system
+ * spent forking it and loading the app before any of our code ran. Nougat and later report that
+ * time; on older devices, SunshineApplication records the earliest moment our code runs instead.
+ * If the process was started for something else, such as a sync, and the activity only later,
+ * the milestones include that wait too; activity_created shows how long it was. Only the first
+ * occurrence of each milestone per process is kept, so a rotation or a trip back to the list
+ * doesn't overwrite the cold-start numbers. Once the first forecast is on screen, the milestones
+ * are logged.
+ */
+public final class StartupOrchestrator {
+
+    private static final String TAG = StartupOrchestrator.class.getSimpleName();
+
+    public static final String MILESTONE_ACTIVITY_CREATED = "activity_created";
+    public static final String MILESTONE_SNAPSHOT_SHOWN = "snapshot_shown";
+    public static final String MILESTONE_FIRST_DRAW = "first_draw";
+    public static final String MILESTONE_DEFERRED_INIT_DONE = "deferred_init_done";
+    public static final String MILESTONE_FIRST_FORECAST = "first_forecast";
+
+    /* When SunshineApplication was attached, for devices that can't report the process start */
+    private static long sApplicationAttachedAt = -1;
+
+    /* Milestone name to milliseconds since start, in the order they were reached */
+    private static final Map<String, Long> sMilestones = new LinkedHashMap<>();
+
+    /*
+     * One thread is plenty for start-up chores, and keeps them from running in parallel with
+     * each other. It runs at background priority so the UI thread always wins.
+     */
+    private static final ExecutorService sBackgroundExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "sunshine-startup");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private StartupOrchestrator() {
+    }
+
+    /**
+     * @return The shared background executor that deferred start-up work runs on. Other small
+     * chores the UI hands off, such as saving the forecast list snapshot, can run on it too.
+     */
+    public static Executor getBackgroundExecutor() {
+        return sBackgroundExecutor;
+    }
+
+    /**
+     * Runs the given work on the background executor once the activity has drawn its first
+     * frame, then records MILESTONE_DEFERRED_INIT_DONE.
+     *
+     * @param activity The activity whose first frame the work should wait for
+     * @param work     Work that must not block the first frame. It runs off the main thread.
+     */
+    public static void runAfterFirstDraw(Activity activity, final Runnable work) {
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                        /* Posting from here runs just after the frame that is about to be drawn */
+                        decorView.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                markMilestone(MILESTONE_FIRST_DRAW);
+                                sBackgroundExecutor.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        work.run();
+                                        markMilestone(MILESTONE_DEFERRED_INIT_DONE);
+                                    }
+                                });
+                            }
+                        });
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Called by SunshineApplication as early as it can, to stand in for the process start time
+     * before Nougat.
+     */
+    static synchronized void onApplicationAttached() {
+        if (sApplicationAttachedAt < 0) {
+            sApplicationAttachedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Records that start-up reached the given milestone, unless it already has in this process.
+     *
+     * @param milestone One of the MILESTONE_ constants
+     */
+    public static synchronized void markMilestone(String milestone) {
+        if (sMilestones.containsKey(milestone)) {
+            return;
+        }
+        sMilestones.put(milestone, SystemClock.elapsedRealtime() - getProcessStartedAt());
+
+        if (MILESTONE_FIRST_FORECAST.equals(milestone)) {
+            Log.i(TAG, "Cold start milestones: " + sMilestones);
+        }
+    }
+
+    /* In the elapsedRealtime time base */
+    private static long getProcessStartedAt() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        if (sApplicationAttachedAt < 0) {
+            /* Only if the Application isn't ours, as in some tests; start from now */
+            sApplicationAttachedAt = SystemClock.elapsedRealtime();
+        }
+        return sApplicationAttachedAt;
+    }
+
+    /**
+     * @return The milestones reached so far, in milliseconds since start, in the order reached
+     */
+    public static synchronized Map<String, Long> getMilestones() {
+        return new LinkedHashMap<>(sMilestones);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.app.Application;
+import android.content.Context;
+
+/**
+ * Sunshine's Application. It only exists so that StartupOrchestrator knows when the process
+ * started on devices that can't tell it (before Nougat).
+ */
+public class SunshineApplication extends Application {
+
+    /**
+     * attachBaseContext runs before any of our content providers or the Application's own
+     * onCreate, so it is the earliest point in a new process that our code gets to run.
+     */
+    @Override
+    protected void attachBaseContext(Context base) {
+        StartupOrchestrator.onApplicationAttached();
+        super.attachBaseContext(base);
+    }
+}
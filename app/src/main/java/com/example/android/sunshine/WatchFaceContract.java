@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defines the wire format used to send the forecast from the phone to the watch face. The same
+ * class exists in both the app and wearwatchface modules; the two copies must stay identical.
+ * <p>
+ * Rather than shipping a rendered PNG, the phone sends weather condition IDs and the watch
+ * resolves the art from its own bundled resources. The payload carries the whole forecast
+ * window so the watch can roll over to the next day on its own while disconnected:
+ * <pre>
+ *     byte  version
+ *     byte  flags           (bit 0: the user prefers metric units)
+ *     long  issuedAt        (wall clock time the phone published this window)
+ *     long  startDate       (normalized UTC date of the first day)
+ *     byte  dayCount
+ *     dayCount times, one per consecutive day starting at startDate:
+ *         short weatherId   (Open Weather Map condition ID)
+ *         short high        (hundredths of a degree Celsius)
+ *         short low         (hundredths of a degree Celsius)
+ * </pre>
+ */
+public final class WatchFaceContract {
+
+    /* Data item path the watch face listens on */
+    public static final String PATH_WEATHER = "/ubiquitous_watch_face_config";
+
+    /* DataMap key holding the packed forecast */
+    public static final String KEY_WEATHER = "KEY_WEATHER";
+
+    /* The most days a single payload carries */
+    public static final int MAX_DAYS = 14;
+
+    private static final byte VERSION = 2;
+    private static final int FLAG_METRIC = 1;
+
+    private static final int HEADER_SIZE = 1 + 1 + 8 + 8 + 1;
+    private static final int DAY_SIZE = 2 + 2 + 2;
+
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private WatchFaceContract() {
+    }
+
+    /**
+     * A window of consecutive daily forecasts as carried over the data layer. Temperatures are
+     * always in degrees Celsius.
+     */
+    public static final class ForecastWindow {
+        public final long issuedAt;
+        public final long startDate;
+        public final boolean metric;
+        public final int[] weatherIds;
+        public final double[] highs;
+        public final double[] lows;
+
+        public ForecastWindow(long issuedAt, long startDate, boolean metric,
+                              int[] weatherIds, double[] highs, double[] lows) {
+            if (weatherIds.length != highs.length || highs.length != lows.length) {
+                throw new IllegalArgumentException("Forecast arrays must be the same length");
+            }
+            if (weatherIds.length > MAX_DAYS) {
+                throw new IllegalArgumentException("At most " + MAX_DAYS + " days are supported");
+            }
+            this.issuedAt = issuedAt;
+            this.startDate = startDate;
+            this.metric = metric;
+            this.weatherIds = weatherIds;
+            this.highs = highs;
+            this.lows = lows;
+        }
+
+        public int size() {
+            return weatherIds.length;
+        }
+
+        /**
+         * @param normalizedDate a normalized UTC date
+         * @return the index of that day in this window, or -1 if the window doesn't cover it
+         */
+        public int indexOf(long normalizedDate) {
+            long offset = normalizedDate - startDate;
+            if (offset < 0 || offset % DAY_IN_MILLIS != 0) {
+                return -1;
+            }
+            long index = offset / DAY_IN_MILLIS;
+            return index < size() ? (int) index : -1;
+        }
+
+        /**
+         * @return a copy of this window with a different issue time
+         */
+        public ForecastWindow withIssuedAt(long issuedAt) {
+            return new ForecastWindow(issuedAt, startDate, metric, weatherIds, highs, lows);
+        }
+    }
+
+    public static byte[] encode(ForecastWindow window) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + DAY_SIZE * window.size());
+        buffer.put(VERSION);
+        buffer.put((byte) (window.metric ? FLAG_METRIC : 0));
+        buffer.putLong(window.issuedAt);
+        buffer.putLong(window.startDate);
+        buffer.put((byte) window.size());
+        for (int i = 0; i < window.size(); i++) {
+            buffer.putShort((short) window.weatherIds[i]);
+            buffer.putShort(toCentiDegrees(window.highs[i]));
+            buffer.putShort(toCentiDegrees(window.lows[i]));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @return the decoded window, or null if the payload is malformed or of an unknown version
+     */
+    public static ForecastWindow decode(byte[] payload) {
+        if (payload == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            if (buffer.get() != VERSION) {
+                return null;
+            }
+            boolean metric = (buffer.get() & FLAG_METRIC) != 0;
+            long issuedAt = buffer.getLong();
+            long startDate = buffer.getLong();
+            int count = buffer.get();
+            if (count < 0 || count > MAX_DAYS) {
+                return null;
+            }
+            int[] weatherIds = new int[count];
+            double[] highs = new double[count];
+            double[] lows = new double[count];
+            for (int i = 0; i < count; i++) {
+                weatherIds[i] = buffer.getShort();
+                highs[i] = buffer.getShort() / 100.0;
+                lows[i] = buffer.getShort() / 100.0;
+            }
+            return new ForecastWindow(issuedAt, startDate, metric, weatherIds, highs, lows);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private static short toCentiDegrees(double celsius) {
+        return (short) Math.round(celsius * 100);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Packs one sync's forecast for a location into a single compact blob for the forecast archive.
+ * <p>
+ * Stored as a row per day, a forecast costs eight 8-byte columns plus a rowid and two index
+ * entries. Neighbouring days are very similar, so the archive instead stores every value as a
+ * fixed-point integer, delta-encoded against the previous day and written as a variable-length
+ * integer, which usually fits in one or two bytes:
+ * <pre>
+ *     byte    version
+ *     varint  day count
+ *     varint  epoch day of the first date
+ *     for each day:
+ *         varint  days since the previous date (1 for consecutive days)
+ *         zigzag  weather ID delta
+ *         zigzag  max temperature delta, in hundredths of a degree Celsius
+ *         zigzag  min temperature delta, in hundredths of a degree Celsius
+ *         zigzag  humidity delta, in tenths of a percent
+ *         zigzag  pressure delta, in tenths of a hectopascal
+ *         zigzag  wind speed delta, in hundredths
+ *         byte    wind direction, quantized to 256 steps around the compass
+ * </pre>
+ * The encoding is lossy only below the precision the UI ever displays.
+ */
+public final class ForecastArchive {
+
+    private static final byte VERSION = 1;
+
+    private static final int TEMPERATURE_SCALE = 100;
+    private static final int HUMIDITY_SCALE = 10;
+    private static final int PRESSURE_SCALE = 10;
+    private static final int WIND_SPEED_SCALE = 100;
+    private static final double DEGREES_PER_STEP = 360.0 / 256;
+
+    private ForecastArchive() {
+    }
+
+    /**
+     * One decoded archive blob, as parallel arrays with one element per day.
+     */
+    public static final class Days {
+        public final long[] dates;
+        public final int[] weatherIds;
+        public final double[] maxTemps;
+        public final double[] minTemps;
+        public final double[] humidities;
+        public final double[] pressures;
+        public final double[] windSpeeds;
+        public final double[] degrees;
+
+        Days(int count) {
+            dates = new long[count];
+            weatherIds = new int[count];
+            maxTemps = new double[count];
+            minTemps = new double[count];
+            humidities = new double[count];
+            pressures = new double[count];
+            windSpeeds = new double[count];
+            degrees = new double[count];
+        }
+
+        public int size() {
+            return dates.length;
+        }
+    }
+
+    /**
+     * Encodes a forecast given as WeatherEntry ContentValues, such as the ones the sync inserts.
+     * The days may come in any order but every date must be normalized.
+     *
+     * @param values One ContentValues per day
+     * @return The packed blob
+     */
+    public static byte[] encode(ContentValues[] values) {
+        ContentValues[] days = values.clone();
+        Arrays.sort(days, new Comparator<ContentValues>() {
+            @Override
+            public int compare(ContentValues a, ContentValues b) {
+                long dateA = a.getAsLong(WeatherEntry.COLUMN_DATE);
+                long dateB = b.getAsLong(WeatherEntry.COLUMN_DATE);
+                return dateA < dateB ? -1 : (dateA == dateB ? 0 : 1);
+            }
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + days.length * 12);
+        out.write(VERSION);
+        writeVarint(out, days.length);
+        if (days.length == 0) {
+            return out.toByteArray();
+        }
+
+        long previousDay = toEpochDay(days[0].getAsLong(WeatherEntry.COLUMN_DATE));
+        writeVarint(out, previousDay);
+
+        long previousWeatherId = 0;
+        long previousMax = 0;
+        long previousMin = 0;
+        long previousHumidity = 0;
+        long previousPressure = 0;
+        long previousWind = 0;
+
+        for (ContentValues day : days) {
+            long epochDay = toEpochDay(day.getAsLong(WeatherEntry.COLUMN_DATE));
+            writeVarint(out, epochDay - previousDay);
+            previousDay = epochDay;
+
+            long weatherId = day.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            long max = toFixed(day.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), TEMPERATURE_SCALE);
+            long min = toFixed(day.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), TEMPERATURE_SCALE);
+            long humidity = toFixed(day.getAsDouble(WeatherEntry.COLUMN_HUMIDITY), HUMIDITY_SCALE);
+            long pressure = toFixed(day.getAsDouble(WeatherEntry.COLUMN_PRESSURE), PRESSURE_SCALE);
+            long wind = toFixed(day.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED), WIND_SPEED_SCALE);
+
+            writeZigzag(out, weatherId - previousWeatherId);
+            writeZigzag(out, max - previousMax);
+            writeZigzag(out, min - previousMin);
+            writeZigzag(out, humidity - previousHumidity);
+            writeZigzag(out, pressure - previousPressure);
+            writeZigzag(out, wind - previousWind);
+            out.write(quantizeDegrees(day.getAsDouble(WeatherEntry.COLUMN_DEGREES)));
+
+            previousWeatherId = weatherId;
+            previousMax = max;
+            previousMin = min;
+            previousHumidity = humidity;
+            previousPressure = pressure;
+            previousWind = wind;
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @param blob A blob produced by {@link #encode}
+     * @return The decoded days, in date order
+     * @throws IllegalArgumentException if the blob is truncated or of an unknown version
+     */
+    public static Days decode(byte[] blob) {
+        Reader in = new Reader(blob);
+        if (in.readByte() != VERSION) {
+            throw new IllegalArgumentException("Unknown forecast archive version");
+        }
+        int count = (int) in.readVarint();
+        Days days = new Days(count);
+        if (count == 0) {
+            return days;
+        }
+
+        long epochDay = in.readVarint();
+        long weatherId = 0;
+        long max = 0;
+        long min = 0;
+        long humidity = 0;
+        long pressure = 0;
+        long wind = 0;
+
+        for (int i = 0; i < count; i++) {
+            epochDay += in.readVarint();
+            weatherId += in.readZigzag();
+            max += in.readZigzag();
+            min += in.readZigzag();
+            humidity += in.readZigzag();
+            pressure += in.readZigzag();
+            wind += in.readZigzag();
+
+            days.dates[i] = epochDay * SunshineDateUtils.DAY_IN_MILLIS;
+            days.weatherIds[i] = (int) weatherId;
+            days.maxTemps[i] = (double) max / TEMPERATURE_SCALE;
+            days.minTemps[i] = (double) min / TEMPERATURE_SCALE;
+            days.humidities[i] = (double) humidity / HUMIDITY_SCALE;
+            days.pressures[i] = (double) pressure / PRESSURE_SCALE;
+            days.windSpeeds[i] = (double) wind / WIND_SPEED_SCALE;
+            days.degrees[i] = (in.readByte() & 0xFF) * DEGREES_PER_STEP;
+        }
+        return days;
+    }
+
+    /**
+     * Reads only the dates of a blob, skipping over the values, for callers that need to know
+     * which days it holds before deciding whether to decode it.
+     *
+     * @param blob A blob produced by {@link #encode}
+     * @return The dates of the days, in date order
+     * @throws IllegalArgumentException if the blob is truncated or of an unknown version
+     */
+    public static long[] decodeDates(byte[] blob) {
+        Reader in = new Reader(blob);
+        if (in.readByte() != VERSION) {
+            throw new IllegalArgumentException("Unknown forecast archive version");
+        }
+        long[] dates = new long[(int) in.readVarint()];
+        if (dates.length == 0) {
+            return dates;
+        }
+
+        long epochDay = in.readVarint();
+        for (int i = 0; i < dates.length; i++) {
+            epochDay += in.readVarint();
+            dates[i] = epochDay * SunshineDateUtils.DAY_IN_MILLIS;
+
+            /* Weather ID, temperatures, humidity, pressure and wind speed, then the direction */
+            for (int value = 0; value < 6; value++) {
+                in.readVarint();
+            }
+            in.readByte();
+        }
+        return dates;
+    }
+
+    private static long toEpochDay(long normalizedDate) {
+        if (!SunshineDateUtils.isDateNormalized(normalizedDate)) {
+            throw new IllegalArgumentException("Date must be normalized to archive");
+        }
+        return normalizedDate / SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    private static long toFixed(double value, int scale) {
+        return Math.round(value * scale);
+    }
+
+    private static int quantizeDegrees(double degrees) {
+        double normalized = ((degrees % 360) + 360) % 360;
+        return (int) Math.round(normalized / DEGREES_PER_STEP) & 0xFF;
+    }
+
+    private static void writeZigzag(ByteArrayOutputStream out, long value) {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /* Minimal reader over a byte array; avoids ByteBuffer's bounds bookkeeping per byte */
+    private static final class Reader {
+        private final byte[] mBytes;
+        private int mPosition;
+
+        Reader(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        byte readByte() {
+            if (mPosition >= mBytes.length) {
+                throw new IllegalArgumentException("Truncated forecast archive");
+            }
+            return mBytes[mPosition++];
+        }
+
+        long readVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        long readZigzag() {
+            long encoded = readVarint();
+            return (encoded >>> 1) ^ -(encoded & 1);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherArchiveEntry;
+
+import java.util.Arrays;
+
+/**
+ * Exposes archived forecast blobs as ordinary per-day rows, with the same column names as
+ * WeatherEntry plus the issue time, so callers can't tell the data was ever packed.
+ * <p>
+ * Only the dates of each blob are read when the cursor is built, to count the rows. A blob's
+ * values are decoded when the cursor first moves onto one of its days, and only the archive
+ * under the cursor is kept decoded, so memory stays at one forecast however many archives the
+ * query matched. The cursor owns the archive rows it reads from and closes them with itself.
+ */
+class ForecastArchiveCursor extends AbstractCursor {
+
+    /* Every column this cursor can serve, in the order used when no projection is given */
+    static final String[] ALL_COLUMNS = {
+            WeatherArchiveEntry._ID,
+            WeatherArchiveEntry.COLUMN_ISSUED_AT,
+            WeatherArchiveEntry.COLUMN_DATE,
+            WeatherArchiveEntry.COLUMN_WEATHER_ID,
+            WeatherArchiveEntry.COLUMN_MIN_TEMP,
+            WeatherArchiveEntry.COLUMN_MAX_TEMP,
+            WeatherArchiveEntry.COLUMN_HUMIDITY,
+            WeatherArchiveEntry.COLUMN_PRESSURE,
+            WeatherArchiveEntry.COLUMN_WIND_SPEED,
+            WeatherArchiveEntry.COLUMN_DEGREES,
+    };
+
+    private static final int FIELD_ID = 0;
+    private static final int FIELD_ISSUED_AT = 1;
+    private static final int FIELD_DATE = 2;
+    private static final int FIELD_WEATHER_ID = 3;
+    private static final int FIELD_MIN_TEMP = 4;
+    private static final int FIELD_MAX_TEMP = 5;
+    private static final int FIELD_HUMIDITY = 6;
+    private static final int FIELD_PRESSURE = 7;
+    private static final int FIELD_WIND_SPEED = 8;
+    private static final int FIELD_DEGREES = 9;
+
+    private final String[] mColumnNames;
+    /* For each projected column, which of the fields above it maps to */
+    private final int[] mFields;
+
+    private final Cursor mArchiveRows;
+    private final int mIssuedAtIndex;
+    private final int mDataIndex;
+
+    /* For each row, the position of the archive row it came from and the day within it */
+    private int[] mRowArchive = new int[16];
+    private int[] mRowDay = new int[16];
+    private int mCount;
+
+    /* The archive under the cursor, decoded, and its position; -1 before any is decoded */
+    private ForecastArchive.Days mDecodedDays;
+    private int mDecodedArchive = -1;
+
+    /**
+     * @param archiveRows Rows from the archive table with the issue time and blob columns, in
+     *                    the order the results should come out. Closed with this cursor.
+     * @param projection  Columns to expose, or null for {@link #ALL_COLUMNS}
+     * @param startDate   First normalized date to include
+     * @param endDate     Last normalized date to include
+     */
+    ForecastArchiveCursor(Cursor archiveRows, String[] projection, long startDate, long endDate) {
+        mColumnNames = projection != null ? projection : ALL_COLUMNS;
+        mFields = new int[mColumnNames.length];
+        for (int i = 0; i < mColumnNames.length; i++) {
+            mFields[i] = fieldFor(mColumnNames[i]);
+        }
+
+        mArchiveRows = archiveRows;
+        mIssuedAtIndex = archiveRows.getColumnIndexOrThrow(WeatherArchiveEntry.COLUMN_ISSUED_AT);
+        mDataIndex = archiveRows.getColumnIndexOrThrow(WeatherArchiveEntry.COLUMN_DATA);
+        while (archiveRows.moveToNext()) {
+            long[] dates = ForecastArchive.decodeDates(archiveRows.getBlob(mDataIndex));
+            for (int day = 0; day < dates.length; day++) {
+                if (dates[day] >= startDate && dates[day] <= endDate) {
+                    addRow(archiveRows.getPosition(), day);
+                }
+            }
+        }
+    }
+
+    private void addRow(int archive, int day) {
+        if (mCount == mRowArchive.length) {
+            int newLength = mCount * 2;
+            mRowArchive = Arrays.copyOf(mRowArchive, newLength);
+            mRowDay = Arrays.copyOf(mRowDay, newLength);
+        }
+        mRowArchive[mCount] = archive;
+        mRowDay[mCount] = day;
+        mCount++;
+    }
+
+    private static int fieldFor(String column) {
+        for (int field = 0; field < ALL_COLUMNS.length; field++) {
+            if (ALL_COLUMNS[field].equals(column)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unknown archive column: " + column);
+    }
+
+    /* The archive the current row belongs to, decoded if the cursor just moved onto it */
+    private ForecastArchive.Days getDays() {
+        checkPosition();
+        int archive = mRowArchive[mPos];
+        if (archive != mDecodedArchive) {
+            mArchiveRows.moveToPosition(archive);
+            mDecodedDays = ForecastArchive.decode(mArchiveRows.getBlob(mDataIndex));
+            mDecodedArchive = archive;
+        }
+        return mDecodedDays;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        mArchiveRows.close();
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        switch (mFields[column]) {
+            case FIELD_ID:
+            case FIELD_ISSUED_AT:
+            case FIELD_DATE:
+            case FIELD_WEATHER_ID:
+                return FIELD_TYPE_INTEGER;
+            default:
+                return FIELD_TYPE_FLOAT;
+        }
+    }
+
+    @Override
+    public double getDouble(int column) {
+        ForecastArchive.Days days = getDays();
+        int day = mRowDay[mPos];
+        switch (mFields[column]) {
+            case FIELD_MIN_TEMP:
+                return days.minTemps[day];
+            case FIELD_MAX_TEMP:
+                return days.maxTemps[day];
+            case FIELD_HUMIDITY:
+                return days.humidities[day];
+            case FIELD_PRESSURE:
+                return days.pressures[day];
+            case FIELD_WIND_SPEED:
+                return days.windSpeeds[day];
+            case FIELD_DEGREES:
+                return days.degrees[day];
+            default:
+                return getLong(column);
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        ForecastArchive.Days days = getDays();
+        int day = mRowDay[mPos];
+        switch (mFields[column]) {
+            case FIELD_ID:
+                return mPos;
+            case FIELD_ISSUED_AT:
+                /* getDays left the archive rows on this row's archive */
+                return mArchiveRows.getLong(mIssuedAtIndex);
+            case FIELD_DATE:
+                return days.dates[day];
+            case FIELD_WEATHER_ID:
+                return days.weatherIds[day];
+            default:
+                return (long) getDouble(column);
+        }
+    }
+
+    @Override
+    public String getString(int column) {
+        return getType(column) == FIELD_TYPE_INTEGER
+                ? Long.toString(getLong(column))
+                : Double.toString(getDouble(column));
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return false;
+    }
+}
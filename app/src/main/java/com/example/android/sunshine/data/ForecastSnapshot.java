@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.AtomicFileWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A small read-only file holding the forecast from the last sync, for code that just needs a
+ * few numbers about the current forecast (the notification, the watch publisher) and shouldn't
+ * have to go through the ContentProvider, Binder and a CursorWindow copy to get them.
+ * <p>
+ * The sync writes the file next to its database commit. Readers memory-map it and read values
+ * straight out of the page cache, with no locks, copies or IPC. The file is fixed-layout, big
+ * endian:
+ * <pre>
+ *     int     magic ("SNSH")
+ *     int     version
+ *     long    time the snapshot was written, in milliseconds since the epoch
+ *     int     day count
+ *     for each day, in date order:
+ *         long    normalized date
+ *         int     weather ID
+ *         double  max temperature, in °C
+ *         double  min temperature, in °C
+ * </pre>
+ * The snapshot is always replaced whole with AtomicFileWriter, and a reader that already mapped
+ * the old file keeps seeing it whole, so readers never see a half-written snapshot. It is only
+ * a shortcut: when there is no valid snapshot, callers fall back to querying the provider.
+ */
+public final class ForecastSnapshot {
+
+    private static final String TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast_snapshot.bin";
+
+    private static final int MAGIC = 0x534E5348;
+    private static final int VERSION = 1;
+
+    /* More than the sync ever fetches; keeps the file, and a corrupt count, bounded */
+    public static final int MAX_DAYS = 32;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final int DAY_SIZE = 8 + 4 + 8 + 8;
+
+    private static final int OFFSET_WRITTEN_AT = 8;
+    private static final int OFFSET_COUNT = 16;
+    private static final int OFFSET_WEATHER_ID = 8;
+    private static final int OFFSET_MAX_TEMP = 12;
+    private static final int OFFSET_MIN_TEMP = 20;
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+
+    private ForecastSnapshot(ByteBuffer buffer, int count) {
+        mBuffer = buffer;
+        mCount = count;
+    }
+
+    /**
+     * Writes the given forecast as the current snapshot, replacing any previous one.
+     *
+     * @param context Used to locate the app's files directory
+     * @param values  One WeatherEntry ContentValues per day, in any order
+     * @return true if the snapshot was written
+     */
+    public static boolean write(Context context, ContentValues[] values) {
+        ContentValues[] days = values.clone();
+        Arrays.sort(days, new Comparator<ContentValues>() {
+            @Override
+            public int compare(ContentValues a, ContentValues b) {
+                long dateA = a.getAsLong(WeatherEntry.COLUMN_DATE);
+                long dateB = b.getAsLong(WeatherEntry.COLUMN_DATE);
+                return dateA < dateB ? -1 : (dateA == dateB ? 0 : 1);
+            }
+        });
+        int count = Math.min(days.length, MAX_DAYS);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * DAY_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(days[i].getAsLong(WeatherEntry.COLUMN_DATE));
+            buffer.putInt(days[i].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+            buffer.putDouble(days[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+            buffer.putDouble(days[i].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+        }
+
+        try {
+            AtomicFileWriter writer =
+                    AtomicFileWriter.start(new File(context.getFilesDir(), FILE_NAME));
+            try {
+                writer.getOutputStream().write(buffer.array());
+                writer.commit();
+                return true;
+            } finally {
+                writer.abort();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write the forecast snapshot", e);
+            return false;
+        }
+    }
+
+    /**
+     * Removes the snapshot, so readers go back to the provider until the next sync writes one.
+     */
+    public static void delete(Context context) {
+        new File(context.getFilesDir(), FILE_NAME).delete();
+    }
+
+    /**
+     * Maps the current snapshot.
+     *
+     * @param context Used to locate the app's files directory
+     * @return The snapshot, or null if there is none or it isn't valid
+     */
+    public static ForecastSnapshot open(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+
+            /* The mapping stays valid after the channel is closed */
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            int count = buffer.getInt(OFFSET_COUNT);
+            if (count < 0 || count > MAX_DAYS || size < HEADER_SIZE + (long) count * DAY_SIZE) {
+                return null;
+            }
+            return new ForecastSnapshot(buffer, count);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read the forecast snapshot", e);
+            return null;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException ignored) {
+                    /* Nothing useful to do; the mapping is unaffected */
+                }
+            }
+        }
+    }
+
+    /**
+     * @return When the snapshot was written, in milliseconds since the epoch
+     */
+    public long getWrittenAt() {
+        return mBuffer.getLong(OFFSET_WRITTEN_AT);
+    }
+
+    /**
+     * @return The number of days in the snapshot
+     */
+    public int size() {
+        return mCount;
+    }
+
+    public long getDate(int day) {
+        return mBuffer.getLong(dayOffset(day));
+    }
+
+    public int getWeatherId(int day) {
+        return mBuffer.getInt(dayOffset(day) + OFFSET_WEATHER_ID);
+    }
+
+    public double getMaxTemp(int day) {
+        return mBuffer.getDouble(dayOffset(day) + OFFSET_MAX_TEMP);
+    }
+
+    public double getMinTemp(int day) {
+        return mBuffer.getDouble(dayOffset(day) + OFFSET_MIN_TEMP);
+    }
+
+    /**
+     * @param normalizedDate A normalized date, such as today's
+     * @return The index of the day with that date, or -1 if the snapshot doesn't include it
+     */
+    public int indexOf(long normalizedDate) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long date = getDate(middle);
+            if (date < normalizedDate) {
+                low = middle + 1;
+            } else if (date > normalizedDate) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int dayOffset(int day) {
+        if (day < 0 || day >= mCount) {
+            throw new IndexOutOfBoundsException("Day " + day + " of " + mCount);
+        }
+        return HEADER_SIZE + day * DAY_SIZE;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherHistoryEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams every row of the weather or history table to a callback, one page at a time, for bulk
+ * readers such as exports and analytics.
+ * <p>
+ * A single query over a long history gives back one cursor that fills its CursorWindow again
+ * and again as it is read, and holds the whole read open for as long as that takes. Here each
+ * page is a separate keyset query (see WeatherContract.QUERY_PARAM_LIMIT) that is read and
+ * closed before the next, so memory stays at one page however many rows there are. Rows written
+ * while streaming are picked up if they sort after the current page, and never seen twice.
+ * <p>
+ * Like any provider query, this blocks and must be called off the main thread.
+ */
+public final class ForecastStreamer {
+
+    /* Rows per page; small enough to fit one CursorWindow comfortably */
+    public static final int DEFAULT_PAGE_SIZE = 256;
+
+    /**
+     * Receives streamed rows.
+     */
+    public interface RowHandler {
+
+        /**
+         * @param row A cursor positioned on the row. It is only valid during this call, and
+         *            includes the requested columns, plus the key columns if they weren't
+         *            requested, or every column if the projection was null.
+         * @return true to keep streaming, false to stop
+         */
+        boolean onRow(Cursor row);
+    }
+
+    private ForecastStreamer() {
+    }
+
+    /**
+     * Streams the weather table in date order.
+     *
+     * @param resolver      Used to query the provider
+     * @param projection    Columns to read, or null for every column
+     * @param selection     An optional restriction on the rows, or null for every row
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @param pageSize      Rows to read per query
+     * @param handler       Called once per row
+     * @return The number of rows handed to the handler
+     */
+    public static int streamWeather(ContentResolver resolver, String[] projection,
+                                    String selection, String[] selectionArgs, int pageSize,
+                                    RowHandler handler) {
+        String[] pageProjection = withColumns(projection, WeatherEntry.COLUMN_DATE);
+
+        long afterDate = Long.MIN_VALUE;
+        int rows = 0;
+        while (true) {
+            Uri page = WeatherEntry.buildPageUri(afterDate, pageSize);
+            Cursor cursor = resolver.query(page, pageProjection, selection, selectionArgs, null);
+            if (cursor == null) {
+                return rows;
+            }
+            try {
+                int dateIndex = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_DATE);
+                while (cursor.moveToNext()) {
+                    rows++;
+                    afterDate = cursor.getLong(dateIndex);
+                    if (!handler.onRow(cursor)) {
+                        return rows;
+                    }
+                }
+                if (cursor.getCount() < pageSize) {
+                    return rows;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Streams the forecast history ordered by date, then by issue time.
+     *
+     * @param resolver      Used to query the provider
+     * @param projection    Columns to read, or null for every column
+     * @param selection     An optional restriction on the rows, or null for every row
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @param pageSize      Rows to read per query
+     * @param handler       Called once per row
+     * @return The number of rows handed to the handler
+     */
+    public static int streamHistory(ContentResolver resolver, String[] projection,
+                                    String selection, String[] selectionArgs, int pageSize,
+                                    RowHandler handler) {
+        String[] pageProjection = withColumns(projection,
+                WeatherHistoryEntry.COLUMN_DATE, WeatherHistoryEntry.COLUMN_ISSUED_AT);
+
+        long afterDate = Long.MIN_VALUE;
+        long afterIssuedAt = Long.MIN_VALUE;
+        int rows = 0;
+        while (true) {
+            Uri page = WeatherHistoryEntry.buildPageUri(afterDate, afterIssuedAt, pageSize);
+            Cursor cursor = resolver.query(page, pageProjection, selection, selectionArgs, null);
+            if (cursor == null) {
+                return rows;
+            }
+            try {
+                int dateIndex = cursor.getColumnIndexOrThrow(WeatherHistoryEntry.COLUMN_DATE);
+                int issuedAtIndex =
+                        cursor.getColumnIndexOrThrow(WeatherHistoryEntry.COLUMN_ISSUED_AT);
+                while (cursor.moveToNext()) {
+                    rows++;
+                    afterDate = cursor.getLong(dateIndex);
+                    afterIssuedAt = cursor.getLong(issuedAtIndex);
+                    if (!handler.onRow(cursor)) {
+                        return rows;
+                    }
+                }
+                if (cursor.getCount() < pageSize) {
+                    return rows;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /*
+     * The projection with any of the given key columns it lacks added to the end. A null
+     * projection already reads every column, key columns included, so it stays null.
+     */
+    private static String[] withColumns(String[] projection, String... keyColumns) {
+        if (projection == null) {
+            return null;
+        }
+        List<String> columns = new ArrayList<>(Arrays.asList(projection));
+        for (String keyColumn : keyColumns) {
+            if (!columns.contains(keyColumn)) {
+                columns.add(keyColumn);
+            }
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step in upgrading the weather database from one schema version to the next. A migration
+ * transforms the existing tables and data in place, so users keep their cached forecast across
+ * releases instead of all having to sync from scratch at the same time.
+ * <p>
+ * Migrations are run by {@link WeatherDbHelper#onUpgrade} inside the transaction that
+ * SQLiteOpenHelper already opens for upgrades, so a step that throws leaves the database
+ * untouched at its old version.
+ */
+public abstract class Migration {
+
+    public final int startVersion;
+    public final int endVersion;
+
+    public Migration(int startVersion, int endVersion) {
+        if (endVersion <= startVersion) {
+            throw new IllegalArgumentException(
+                    "Migration must move forward: " + startVersion + " -> " + endVersion);
+        }
+        this.startVersion = startVersion;
+        this.endVersion = endVersion;
+    }
+
+    /**
+     * Transforms a database at {@link #startVersion} into one at {@link #endVersion}.
+     *
+     * @param sqLiteDatabase The database being upgraded
+     */
+    public abstract void migrate(SQLiteDatabase sqLiteDatabase);
+
+    @Override
+    public String toString() {
+        return "Migration{" + startVersion + " -> " + endVersion + "}";
+    }
+}
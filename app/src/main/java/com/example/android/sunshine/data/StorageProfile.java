@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import com.example.android.sunshine.BuildConfig;
+
+/**
+ * Describes how {@link WeatherDbHelper} configures SQLite when it opens the weather database.
+ * <p>
+ * The weather table is written by the sync task in one large delete + bulkInsert and read
+ * constantly by the CursorLoaders in MainActivity and DetailActivity. With SQLite's default
+ * rollback journal, a single connection serves both, so every read waits for the whole sync
+ * transaction to finish. Write-ahead logging lets Android keep one connection for the writer and
+ * a pool of connections for readers, and readers keep seeing the last committed data while a
+ * write is in progress.
+ */
+public class StorageProfile {
+
+    /*
+     * Values for SQLite's "synchronous" pragma. FULL syncs the journal on every commit; NORMAL
+     * only syncs at checkpoints, which is still safe from corruption in WAL mode. Losing the last
+     * commit on power loss is harmless here since the table is only a cache of network data.
+     */
+    public static final String SYNCHRONOUS_FULL = "FULL";
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+
+    /**
+     * SQLite's own defaults: rollback journal, full sync, default page cache. Reads block for the
+     * duration of a sync. Mostly useful as a baseline to compare against.
+     */
+    public static final StorageProfile ROLLBACK_JOURNAL =
+            new StorageProfile("rollback_journal", false, SYNCHRONOUS_FULL, 0);
+
+    /**
+     * Write-ahead logging with relaxed syncing. Readers don't wait on the sync writer. The page
+     * cache keeps SQLite's default size, which already holds the whole database several times
+     * over; a smaller one would only cost reads.
+     */
+    public static final StorageProfile CONCURRENT =
+            new StorageProfile("concurrent", true, SYNCHRONOUS_NORMAL, 0);
+
+    /**
+     * Like CONCURRENT, but the weather table is created as a WITHOUT ROWID table keyed on the
+     * date, so rows are stored in date order and every date lookup or date-ordered scan reads
+     * the table itself with no separate index. The table has no _id column in this variant.
+     * WITHOUT ROWID needs SQLite 3.8.2, so on devices older than Lollipop this quietly falls back
+     * to the regular table.
+     */
+    public static final StorageProfile DATE_KEYED =
+            new StorageProfile("date_keyed", true, SYNCHRONOUS_NORMAL, 0, true);
+
+    /**
+     * The profile Sunshine's ContentProvider opens the database with, chosen at build time with
+     * the storageProfile Gradle property (see app/build.gradle). CONCURRENT unless set otherwise.
+     */
+    public static final StorageProfile DEFAULT = forName(BuildConfig.STORAGE_PROFILE);
+
+    /* Identifies the profile in builds and logs */
+    public final String name;
+
+    /* Whether to enable write-ahead logging (only honored on API 11 and up) */
+    public final boolean writeAheadLogging;
+
+    /* One of the SYNCHRONOUS_* values above */
+    public final String synchronousMode;
+
+    /* Size of each connection's page cache in KiB, or 0 to leave SQLite's default in place */
+    public final int cacheSizeKib;
+
+    /*
+     * Whether a newly created weather table is keyed on the date (see DATE_KEYED). This only
+     * matters when the database is first created; it never converts an existing table.
+     */
+    public final boolean dateKeyedTable;
+
+    public StorageProfile(String name, boolean writeAheadLogging, String synchronousMode,
+                          int cacheSizeKib) {
+        this(name, writeAheadLogging, synchronousMode, cacheSizeKib, false);
+    }
+
+    public StorageProfile(String name, boolean writeAheadLogging, String synchronousMode,
+                          int cacheSizeKib, boolean dateKeyedTable) {
+        this.name = name;
+        this.writeAheadLogging = writeAheadLogging;
+        this.synchronousMode = synchronousMode;
+        this.cacheSizeKib = cacheSizeKib;
+        this.dateKeyedTable = dateKeyedTable;
+    }
+
+    /**
+     * Looks up one of the built-in profiles by its name.
+     *
+     * @param name The name of ROLLBACK_JOURNAL, CONCURRENT or DATE_KEYED
+     * @return The profile, or CONCURRENT if no profile has that name
+     */
+    public static StorageProfile forName(String name) {
+        if (ROLLBACK_JOURNAL.name.equals(name)) {
+            return ROLLBACK_JOURNAL;
+        } else if (DATE_KEYED.name.equals(name)) {
+            return DATE_KEYED;
+        }
+        return CONCURRENT;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageProfile{" + name
+                + ", wal=" + writeAheadLogging
+                + ", synchronous=" + synchronousMode
+                + ", cacheSizeKib=" + cacheSizeKib
+                + ", dateKeyedTable=" + dateKeyedTable + "}";
+    }
+}
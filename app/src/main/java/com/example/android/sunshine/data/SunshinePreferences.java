@@ -20,6 +20,9 @@ import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.WeatherContract.WeatherIntervalEntry;
+import com.example.android.sunshine.utilities.GeoBucket;
+import com.example.android.sunshine.utilities.NetworkUtils;
 
 public final class SunshinePreferences {
 
@@ -242,4 +245,83 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns how many days of past forecasts the history table keeps. Forecasts for days older
+     * than this are removed whenever a new forecast is added to the history.
+     *
+     * @param context Used to access SharedPreferences
+     * @return Number of days of forecast history to retain
+     */
+    public static int getHistoryRetentionDays(Context context) {
+        String retentionKey = context.getString(R.string.pref_history_retention_days_key);
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getInt(retentionKey, WeatherContract.WeatherHistoryEntry.DEFAULT_RETENTION_DAYS);
+    }
+
+    /**
+     * Returns how many days ahead the forecast we request should reach, between one day and
+     * {@link WeatherContract.WeatherEntry#MAX_FORECAST_DAYS}.
+     *
+     * @param context Used to access SharedPreferences
+     * @return Number of days of forecast to request
+     */
+    public static int getForecastDays(Context context) {
+        String forecastDaysKey = context.getString(R.string.pref_forecast_days_key);
+        String defaultForecastDays = context.getString(R.string.pref_forecast_days_default);
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+
+        /* Stored as a string, which is what the ListPreference in the settings writes */
+        int forecastDays;
+        try {
+            forecastDays = Integer.parseInt(sp.getString(forecastDaysKey, defaultForecastDays));
+        } catch (NumberFormatException e) {
+            forecastDays = WeatherContract.WeatherEntry.DEFAULT_FORECAST_DAYS;
+        }
+        return Math.max(1, Math.min(forecastDays, WeatherContract.WeatherEntry.MAX_FORECAST_DAYS));
+    }
+
+    /**
+     * Returns how long each interval of the forecast we request should be: one of the
+     * RESOLUTION_ constants in {@link WeatherIntervalEntry}. A finer resolution than this build
+     * can fetch (see {@link NetworkUtils#isResolutionAvailable(long)}) falls back to the finest
+     * one it can, and anything else to a daily forecast.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The forecast resolution in milliseconds
+     */
+    public static long getForecastResolution(Context context) {
+        String resolutionKey = context.getString(R.string.pref_forecast_resolution_key);
+        String hourly = context.getString(R.string.pref_forecast_resolution_hourly);
+        String threeHourly = context.getString(R.string.pref_forecast_resolution_three_hourly);
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String resolution = sp.getString(resolutionKey,
+                context.getString(R.string.pref_forecast_resolution_daily));
+
+        if (hourly.equals(resolution)
+                && NetworkUtils.isResolutionAvailable(WeatherIntervalEntry.RESOLUTION_HOURLY)) {
+            return WeatherIntervalEntry.RESOLUTION_HOURLY;
+        }
+        if ((hourly.equals(resolution) || threeHourly.equals(resolution))
+                && NetworkUtils.isResolutionAvailable(
+                        WeatherIntervalEntry.RESOLUTION_THREE_HOURLY)) {
+            return WeatherIntervalEntry.RESOLUTION_THREE_HOURLY;
+        }
+        return WeatherIntervalEntry.RESOLUTION_DAILY;
+    }
+
+    /**
+     * Returns how finely the preferred coordinates are rounded before the forecast for them is
+     * requested, as a geohash precision between 1 and {@link GeoBucket#MAX_PRECISION}. Every
+     * location in the same cell shares one request URL, and so one cached response.
+     *
+     * @param context Used to access SharedPreferences
+     * @return Geohash precision, in characters
+     */
+    public static int getGeoBucketPrecision(Context context) {
+        String precisionKey = context.getString(R.string.pref_geo_precision_key);
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        int precision = sp.getInt(precisionKey, GeoBucket.DEFAULT_PRECISION);
+        return Math.max(1, Math.min(precision, GeoBucket.MAX_PRECISION));
+    }
+}
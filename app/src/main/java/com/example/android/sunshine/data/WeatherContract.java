@@ -56,6 +56,35 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * Path for the forecast history, every forecast each sync ever stored (within the retention
+     * window). For instance, content://com.example.android.sunshine/weather_history/
+     */
+    public static final String PATH_WEATHER_HISTORY = "weather_history";
+
+    /*
+     * Path for the compact long-term archive of past forecasts.
+     * For instance, content://com.example.android.sunshine/weather_archive?start_date=...
+     */
+    public static final String PATH_WEATHER_ARCHIVE = "weather_archive";
+
+    /*
+     * Path for the forecast at a finer resolution than a day, such as every hour or every three
+     * hours. For instance, content://com.example.android.sunshine/weather_interval/daily
+     */
+    public static final String PATH_WEATHER_INTERVAL = "weather_interval";
+
+    /*
+     * Query parameters for reading the weather and history tables a page at a time. A page is
+     * the first QUERY_PARAM_LIMIT rows, in key order, that come after the key of the last row of
+     * the previous page: the date for the weather table, the date and issue time for the history.
+     * Because each page starts from a key rather than an offset, SQLite seeks straight to it in
+     * the index, and every page costs the same no matter how far into the table it is.
+     */
+    public static final String QUERY_PARAM_LIMIT = "limit";
+    public static final String QUERY_PARAM_AFTER_DATE = "after_date";
+    public static final String QUERY_PARAM_AFTER_ISSUED_AT = "after_issued_at";
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -109,6 +138,13 @@ public class WeatherContract {
          */
         public static final String COLUMN_DEGREES = "degrees";
 
+        /*
+         * How many days ahead the forecast reaches unless the user's preferences say otherwise,
+         * and the most that can be asked for, which is as far as Open Weather Map forecasts.
+         */
+        public static final int DEFAULT_FORECAST_DAYS = 14;
+        public static final int MAX_FORECAST_DAYS = 16;
+
         /**
          * Builds a URI that adds the weather date to the end of the forecast content URI path.
          * This is used to query details about a single weather entry by date. This is what we
@@ -123,10 +159,75 @@ public class WeatherContract {
                     .build();
         }
 
+        /*
+         * Path segments for the named query shapes WeatherProvider serves. Each shape always runs
+         * the same SQL with the dates bound as arguments, so SQLite prepares it once per
+         * connection and reuses it from its statement cache, instead of parsing and planning a
+         * new statement every time the date in the selection changes.
+         */
+        public static final String PATH_FROM_DATE = "from";
+        public static final String PATH_DATE_RANGE = "range";
+        public static final String PATH_LATEST = "latest";
+
+        /*
+         * content://com.example.android.sunshine/weather/latest returns the row for the furthest
+         * date we have a forecast for.
+         */
+        public static final Uri CONTENT_URI_LATEST = CONTENT_URI.buildUpon()
+                .appendPath(PATH_LATEST)
+                .build();
+
+        /**
+         * Builds a URI for every weather entry on or after the given date, ordered by date. This
+         * is what the forecast list uses, with today's date.
+         *
+         * @param date Normalized date in milliseconds
+         * @return Uri to query the forecast from that date onwards
+         */
+        public static Uri buildWeatherUriFromDate(long date) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_FROM_DATE)
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the weather entries between two dates, both inclusive, ordered by date.
+         *
+         * @param startDate First normalized date in milliseconds
+         * @param endDate   Last normalized date in milliseconds
+         * @return Uri to query the forecast for that range of days
+         */
+        public static Uri buildWeatherUriForDateRange(long startDate, long endDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_DATE_RANGE)
+                    .appendPath(Long.toString(startDate))
+                    .appendPath(Long.toString(endDate))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for one page of the weather table, in date order.
+         *
+         * @param afterDate The date of the last row of the previous page, or Long.MIN_VALUE for
+         *                  the first page
+         * @param limit     The most rows to return
+         * @return Uri to query one page of weather
+         */
+        public static Uri buildPageUri(long afterDate, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_AFTER_DATE, Long.toString(afterDate))
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
         /**
          * Returns just the selection part of the weather query from a normalized today value.
          * This is used to get a weather forecast from today's date. To make this easy to use
          * in compound selection, we embed today's date as an argument in the query.
+         * <p>
+         * Because the date is part of the SQL text, every day's query is a new statement to
+         * SQLite. Prefer querying {@link #buildWeatherUriFromDate(long)} with today's date.
          *
          * @return The selection part of the weather query for today onwards
          */
@@ -135,4 +236,216 @@ public class WeatherContract {
             return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Inner class that defines the table contents of the forecast history table. Unlike the
+     * weather table, which only ever holds the latest forecast, rows here are appended on every
+     * sync and tagged with the time they were issued, so we can later compare what was forecast
+     * for a day with what that day turned out to be.
+     */
+    public static final class WeatherHistoryEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the history table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_WEATHER_HISTORY)
+                .build();
+
+        /* Used internally as the name of our history table. */
+        public static final String TABLE_NAME = "weather_history";
+
+        /*
+         * When the sync that produced this row ran, in milliseconds since the epoch. Every row
+         * written by the same sync shares this value, so it identifies one issue of the forecast.
+         */
+        public static final String COLUMN_ISSUED_AT = "issued_at";
+
+        /* The remaining columns have the same names and meaning as their WeatherEntry twins */
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /*
+         * How many days of past forecasts to keep unless the user's preferences say otherwise.
+         * Only the most recent ROW_RETENTION_DAYS of that stay in this table as plain rows; the
+         * full window is kept in compact form in the archive (see WeatherArchiveEntry).
+         */
+        public static final int DEFAULT_RETENTION_DAYS = 30;
+        public static final int ROW_RETENTION_DAYS = 7;
+
+        /**
+         * Builds a URI for every forecast that was ever issued for one day, oldest issue first.
+         *
+         * @param date Normalized date in milliseconds
+         * @return Uri to query the forecast history of a single date
+         */
+        public static Uri buildHistoryUriWithDate(long date) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for one page of the forecast history, ordered by date and then by issue
+         * time.
+         *
+         * @param afterDate     The date of the last row of the previous page, or
+         *                      Long.MIN_VALUE for the first page
+         * @param afterIssuedAt The issue time of the last row of the previous page, or
+         *                      Long.MIN_VALUE for the first page
+         * @param limit         The most rows to return
+         * @return Uri to query one page of history
+         */
+        public static Uri buildPageUri(long afterDate, long afterIssuedAt, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_AFTER_DATE, Long.toString(afterDate))
+                    .appendQueryParameter(QUERY_PARAM_AFTER_ISSUED_AT,
+                            Long.toString(afterIssuedAt))
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * Returns just the selection part of a history query for forecasts of the days between
+         * two normalized dates, both inclusive. Bind the first and last date to include as the
+         * selection arguments, in that order, so the SQL is the same for every range.
+         *
+         * @return The selection part of the history query for a range of days
+         */
+        public static String getSqlSelectForDateRange() {
+            return COLUMN_DATE + " BETWEEN ? AND ?";
+        }
+
+        /**
+         * Returns just the selection part of a history query for forecasts issued by the syncs
+         * that ran between two instants, both inclusive. Bind the earliest and latest issue time
+         * to include as the selection arguments, in that order.
+         *
+         * @return The selection part of the history query for a range of issue times
+         */
+        public static String getSqlSelectForIssuedBetween() {
+            return COLUMN_ISSUED_AT + " BETWEEN ? AND ?";
+        }
+    }
+
+    /*
+     * Inner class that defines the forecast archive. Each row of the archive table holds a whole
+     * sync's forecast for one location packed into a single blob (see ForecastArchive), which
+     * is many times smaller than the same forecast stored a row per day.
+     *
+     * Queries against PATH_WEATHER_ARCHIVE don't return the blobs. They return one row per
+     * archived day with the same columns as WeatherEntry plus COLUMN_ISSUED_AT, decoded on the fly.
+     */
+    public static final class WeatherArchiveEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the archive from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_WEATHER_ARCHIVE)
+                .build();
+
+        /* Used internally as the name of our archive table. */
+        public static final String TABLE_NAME = "weather_archive";
+
+        /* Columns of the archive table itself */
+        public static final String COLUMN_ISSUED_AT = WeatherHistoryEntry.COLUMN_ISSUED_AT;
+        public static final String COLUMN_LOCATION = "location";
+        public static final String COLUMN_FIRST_DATE = "first_date";
+        public static final String COLUMN_LAST_DATE = "last_date";
+        public static final String COLUMN_DATA = "data";
+
+        /* Columns of the decoded rows returned by queries, named as in WeatherEntry */
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /* Query parameters limiting the decoded rows to a range of dates, both inclusive */
+        public static final String QUERY_PARAM_START_DATE = "start_date";
+        public static final String QUERY_PARAM_END_DATE = "end_date";
+
+        /**
+         * Builds a URI for every archived forecast of the days between two normalized dates,
+         * both inclusive, oldest issue first.
+         *
+         * @param startDate First normalized date to include
+         * @param endDate   Last normalized date to include
+         * @return Uri to query a range of days from the archive
+         */
+        public static Uri buildArchiveUriForDateRange(long startDate, long endDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_START_DATE, Long.toString(startDate))
+                    .appendQueryParameter(QUERY_PARAM_END_DATE, Long.toString(endDate))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the interval forecast table. When the user
+     * asks for an hourly or three-hourly forecast, each interval the server returns is one row
+     * here, about 24 times as many rows as the daily forecast.
+     *
+     * Queries against CONTENT_URI_DAILY don't return intervals. They return one row per day with
+     * the same columns as WeatherEntry, aggregated from that day's intervals by the database, so
+     * code that reads the daily forecast needn't know the data came in finer.
+     */
+    public static final class WeatherIntervalEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the interval table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_WEATHER_INTERVAL)
+                .build();
+
+        public static final String PATH_DAILY = "daily";
+
+        /*
+         * content://com.example.android.sunshine/weather_interval/daily returns the intervals
+         * aggregated to one row per day, in date order. Days the intervals only cover part of,
+         * such as the rest of today, are left out.
+         */
+        public static final Uri CONTENT_URI_DAILY = CONTENT_URI.buildUpon()
+                .appendPath(PATH_DAILY)
+                .build();
+
+        /* Used internally as the name of our interval table. */
+        public static final String TABLE_NAME = "weather_interval";
+
+        /*
+         * When the interval starts, in milliseconds since the epoch. Unlike the other tables'
+         * dates, this isn't normalized; it is the table's primary key.
+         */
+        public static final String COLUMN_START_TIME = "start_time";
+
+        /* How long the interval lasts, in milliseconds; one of the RESOLUTION_ constants */
+        public static final String COLUMN_RESOLUTION = "resolution";
+
+        /* The temperature forecast for the interval itself, in °C */
+        public static final String COLUMN_TEMP = "temp";
+
+        /*
+         * The normalized date of the local day the interval starts on, which is the day it is
+         * counted towards when aggregating. The remaining columns have the same names and meaning
+         * as their WeatherEntry twins, for the length of the interval rather than a whole day.
+         */
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /* Forecast resolutions, as the length of each interval in milliseconds */
+        public static final long RESOLUTION_HOURLY = 60 * 60 * 1000;
+        public static final long RESOLUTION_THREE_HOURLY = 3 * RESOLUTION_HOURLY;
+        public static final long RESOLUTION_DAILY = SunshineDateUtils.DAY_IN_MILLIS;
+    }
+}
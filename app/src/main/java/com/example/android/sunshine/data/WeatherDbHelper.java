@@ -15,17 +15,28 @@
  */
 package com.example.android.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.example.android.sunshine.data.WeatherContract.WeatherArchiveEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherHistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherIntervalEntry;
+
+import java.util.List;
 
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = WeatherDbHelper.class.getSimpleName();
+
     /*
      * This is the name of our database. Database names should be descriptive and end with the
      * .db extension.
@@ -42,11 +53,172 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * versions of Sunshine could cause everything to break. Although that is certainly a rare
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
+     *
+     * Version 4 introduced incremental migrations; see WeatherDbMigrations.
+     */
+    private static final int DATABASE_VERSION = 8;
+
+    /*
+     * Internal bookkeeping table with one row per migration step that has run on this database,
+     * including how long it took. It isn't exposed through the ContentProvider.
+     */
+    static final String MIGRATION_HISTORY_TABLE = "migration_history";
+    static final String COLUMN_FROM_VERSION = "from_version";
+    static final String COLUMN_TO_VERSION = "to_version";
+    static final String COLUMN_DURATION_MS = "duration_ms";
+    static final String COLUMN_APPLIED_AT = "applied_at";
+
+    static final String SQL_CREATE_MIGRATION_HISTORY_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + MIGRATION_HISTORY_TABLE + " (" +
+                    COLUMN_FROM_VERSION + " INTEGER NOT NULL, " +
+                    COLUMN_TO_VERSION   + " INTEGER NOT NULL, " +
+                    COLUMN_DURATION_MS  + " INTEGER NOT NULL, " +
+                    COLUMN_APPLIED_AT   + " INTEGER NOT NULL);";
+
+    /*
+     * The forecast history table. Rows are keyed by (issued_at, date): the unique constraint's
+     * index clusters each sync's rows together, which is what retention and range queries by
+     * issue time scan. A second index on (date, issued_at) serves the "every forecast made for
+     * this day" queries and the compaction of superseded rows.
+     */
+    static final String SQL_CREATE_WEATHER_HISTORY_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + WeatherHistoryEntry.TABLE_NAME + " (" +
+                    WeatherHistoryEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    WeatherHistoryEntry.COLUMN_ISSUED_AT  + " INTEGER NOT NULL, " +
+                    WeatherHistoryEntry.COLUMN_DATE       + " INTEGER NOT NULL, " +
+                    WeatherHistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                    WeatherHistoryEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, " +
+                    WeatherHistoryEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, " +
+                    WeatherHistoryEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, " +
+                    WeatherHistoryEntry.COLUMN_PRESSURE   + " REAL NOT NULL, " +
+                    WeatherHistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                    WeatherHistoryEntry.COLUMN_DEGREES    + " REAL NOT NULL, " +
+                    " UNIQUE (" + WeatherHistoryEntry.COLUMN_ISSUED_AT + ", " +
+                    WeatherHistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    static final String SQL_CREATE_WEATHER_HISTORY_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS weather_history_date_idx ON " +
+                    WeatherHistoryEntry.TABLE_NAME + " (" +
+                    WeatherHistoryEntry.COLUMN_DATE + ", " +
+                    WeatherHistoryEntry.COLUMN_ISSUED_AT + ");";
+
+    /*
+     * The forecast archive: one row per sync and location, the forecast itself packed into the
+     * data blob. The (location, first_date) index serves date range scans, which then read a
+     * single short row per sync rather than one row per day.
      */
-    private static final int DATABASE_VERSION = 3;
+    static final String SQL_CREATE_WEATHER_ARCHIVE_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + WeatherArchiveEntry.TABLE_NAME + " (" +
+                    WeatherArchiveEntry._ID               + " INTEGER PRIMARY KEY, " +
+                    WeatherArchiveEntry.COLUMN_ISSUED_AT  + " INTEGER NOT NULL, " +
+                    WeatherArchiveEntry.COLUMN_LOCATION   + " TEXT NOT NULL, " +
+                    WeatherArchiveEntry.COLUMN_FIRST_DATE + " INTEGER NOT NULL, " +
+                    WeatherArchiveEntry.COLUMN_LAST_DATE  + " INTEGER NOT NULL, " +
+                    WeatherArchiveEntry.COLUMN_DATA       + " BLOB NOT NULL, " +
+                    " UNIQUE (" + WeatherArchiveEntry.COLUMN_LOCATION + ", " +
+                    WeatherArchiveEntry.COLUMN_ISSUED_AT + ") ON CONFLICT REPLACE);";
+
+    static final String SQL_CREATE_WEATHER_ARCHIVE_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS weather_archive_date_idx ON " +
+                    WeatherArchiveEntry.TABLE_NAME + " (" +
+                    WeatherArchiveEntry.COLUMN_LOCATION + ", " +
+                    WeatherArchiveEntry.COLUMN_FIRST_DATE + ");";
+
+    /*
+     * Covering index for the forecast list, the notification and the watch face. Those only ever
+     * read the date, weather ID and temperatures, filtered and ordered by date, so with all four
+     * columns in the index SQLite answers them from the index alone and never visits the table.
+     * The date's unique index still enforces one row per day; this one is purely for reads.
+     */
+    static final String WEATHER_FORECAST_COVER_INDEX = "weather_forecast_cover_idx";
+
+    static final String SQL_CREATE_WEATHER_FORECAST_COVER_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + WEATHER_FORECAST_COVER_INDEX + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ");";
+
+    /*
+     * The date-keyed variant of the weather table (see StorageProfile.DATE_KEYED). The date is
+     * the primary key of a WITHOUT ROWID table, so rows live in a b-tree ordered by date and a
+     * date lookup or range scan reads them directly, with no index and no second lookup.
+     */
+    static final String SQL_CREATE_DATE_KEYED_WEATHER_TABLE =
+            "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL PRIMARY KEY " +
+                    "ON CONFLICT REPLACE, " +
+                    WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                    WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, " +
+                    WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, " +
+                    WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, " +
+                    WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, " +
+                    WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                    WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL) WITHOUT ROWID;";
+
+    /*
+     * The interval forecast table. The start time is an INTEGER PRIMARY KEY, which makes it the
+     * rowid itself: rows are stored in start time order with no separate key index to maintain,
+     * which matters at a row per hour. The (date, weather_id) index lets the daily aggregation
+     * group the intervals without sorting them, and count each day's conditions from the index.
+     */
+    static final String SQL_CREATE_WEATHER_INTERVAL_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + WeatherIntervalEntry.TABLE_NAME + " (" +
+                    WeatherIntervalEntry.COLUMN_START_TIME + " INTEGER PRIMARY KEY, " +
+                    WeatherIntervalEntry.COLUMN_RESOLUTION + " INTEGER NOT NULL, " +
+                    WeatherIntervalEntry.COLUMN_DATE       + " INTEGER NOT NULL, " +
+                    WeatherIntervalEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                    WeatherIntervalEntry.COLUMN_TEMP       + " REAL NOT NULL, " +
+                    WeatherIntervalEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, " +
+                    WeatherIntervalEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, " +
+                    WeatherIntervalEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, " +
+                    WeatherIntervalEntry.COLUMN_PRESSURE   + " REAL NOT NULL, " +
+                    WeatherIntervalEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                    WeatherIntervalEntry.COLUMN_DEGREES    + " REAL NOT NULL);";
+
+    static final String SQL_CREATE_WEATHER_INTERVAL_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS weather_interval_date_idx ON " +
+                    WeatherIntervalEntry.TABLE_NAME + " (" +
+                    WeatherIntervalEntry.COLUMN_DATE + ", " +
+                    WeatherIntervalEntry.COLUMN_WEATHER_ID + ");";
+
+    /* How SQLite is configured each time the database is opened */
+    private final StorageProfile mStorageProfile;
 
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, StorageProfile.DEFAULT);
+    }
+
+    /**
+     * Creates a helper for a database with the given name and storage profile. Other than the
+     * default constructor, this is meant for tests and benchmarks that need their own database
+     * file or want to compare profiles.
+     *
+     * @param context Used to locate the database file
+     * @param name    Name of the database file
+     * @param profile Journal, sync and cache settings to open the database with
+     */
+    public WeatherDbHelper(Context context, String name, StorageProfile profile) {
+        super(context, name, null, DATABASE_VERSION);
+        mStorageProfile = profile;
+
+        /*
+         * From Jelly Bean on, SQLiteOpenHelper can switch the journal mode itself before anything
+         * else touches the database. On older devices we fall back to doing it in onOpen.
+         */
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLoggingJellyBean(profile.writeAheadLogging);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLoggingJellyBean(boolean enabled) {
+        setWriteAheadLoggingEnabled(enabled);
+    }
+
+    public StorageProfile getStorageProfile() {
+        return mStorageProfile;
     }
 
     /**
@@ -96,18 +268,99 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
-         * that SQL with the execSQL method of our SQLite database object.
+         * that SQL with the execSQL method of our SQLite database object. WITHOUT ROWID tables
+         * need SQLite 3.8.2, which ships with Lollipop.
          */
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        if (mStorageProfile.dateKeyedTable
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            sqLiteDatabase.execSQL(SQL_CREATE_DATE_KEYED_WEATHER_TABLE);
+        } else {
+            sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+            sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_FORECAST_COVER_INDEX);
+        }
+        sqLiteDatabase.execSQL(SQL_CREATE_MIGRATION_HISTORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_HISTORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_HISTORY_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_ARCHIVE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_ARCHIVE_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_INTERVAL_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_INTERVAL_DATE_INDEX);
+    }
+
+    /**
+     * Called when the database connection is being configured, before it is created, upgraded
+     * or opened. This is where the storage profile's sync mode and page cache size are applied,
+     * so that migrations run with them too.
+     * <p>
+     * Pragmas run through SQLiteDatabase go to its primary connection, the one every write goes
+     * through. That is the connection the sync mode matters for. Read connections that the
+     * framework adds under write-ahead logging keep SQLite's default page cache, which is why
+     * no built-in profile shrinks the cache below it.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        super.onConfigure(sqLiteDatabase);
+        applyPragmas(sqLiteDatabase);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Called every time the database is opened, after any create or upgrade. Devices older than
+     * Jelly Bean never call onConfigure, so this is where they get the storage profile's
+     * journal mode, sync mode and page cache size.
+     * <p>
+     * With write-ahead logging on, Android keeps a primary connection that all writes go through
+     * and a small pool of read-only connections for queries, so the CursorLoaders' reads no
+     * longer queue up behind the sync task's transaction.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+
+        if (mStorageProfile.writeAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && !sqLiteDatabase.isReadOnly()) {
+            enableWriteAheadLoggingHoneycomb(sqLiteDatabase);
+        }
+        applyPragmas(sqLiteDatabase);
+    }
+
+    /* The profile's sync mode and page cache size; these pragmas don't return rows */
+    private void applyPragmas(SQLiteDatabase sqLiteDatabase) {
+        if (sqLiteDatabase.isReadOnly()) {
+            return;
+        }
+        sqLiteDatabase.execSQL("PRAGMA synchronous = " + mStorageProfile.synchronousMode);
+        if (mStorageProfile.cacheSizeKib > 0) {
+            /* A negative size is in KiB rather than pages, whatever the page size */
+            sqLiteDatabase.execSQL("PRAGMA cache_size = -" + mStorageProfile.cacheSizeKib);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLoggingHoneycomb(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.enableWriteAheadLogging();
+    }
+
+    /**
+     * Upgrades the database in place by running every migration between the two versions, one
+     * after another, and recording how long each one took. This keeps the cached forecast across
+     * releases, so users aren't all forced into a network sync the moment they update.
+     * <p>
+     * If there is no complete chain of migrations (the database predates the migration framework,
+     * or is from a version we never shipped), we fall back to what Sunshine always did: discard
+     * the data and recreate the tables. The data is only a cache, so that is safe, just costly.
+     * <p>
+     * Note that this only fires if you change the version number for your database (in our
+     * case, DATABASE_VERSION). It does NOT depend on the version number for your application
+     * found in your app/build.gradle file.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +368,29 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        List<Migration> migrations = WeatherDbMigrations.findPath(oldVersion, newVersion);
+        if (migrations == null) {
+            Log.w(TAG, "No migration path from " + oldVersion + " to " + newVersion
+                    + ", recreating the database");
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherHistoryEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherArchiveEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherIntervalEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        for (Migration migration : migrations) {
+            long start = SystemClock.elapsedRealtime();
+            migration.migrate(sqLiteDatabase);
+            long durationMs = SystemClock.elapsedRealtime() - start;
+
+            sqLiteDatabase.execSQL("INSERT INTO " + MIGRATION_HISTORY_TABLE + " (" +
+                            COLUMN_FROM_VERSION + ", " + COLUMN_TO_VERSION + ", " +
+                            COLUMN_DURATION_MS + ", " + COLUMN_APPLIED_AT + ") VALUES (?, ?, ?, ?)",
+                    new Object[]{migration.startVersion, migration.endVersion, durationMs,
+                            System.currentTimeMillis()});
+            Log.i(TAG, migration + " took " + durationMs + "ms");
+        }
     }
-}
\ No newline at end of file
+}
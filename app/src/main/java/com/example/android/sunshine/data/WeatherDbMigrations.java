@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every schema migration the weather database has ever had, in order.
+ * <p>
+ * When you change the schema: bump WeatherDbHelper's DATABASE_VERSION, update onCreate so fresh
+ * installs get the new schema directly, and append a Migration here that takes the previous
+ * version to the new one. Never edit a migration that has already shipped; add another one. The
+ * migration tests upgrade a database from every historical version and compare the result with a
+ * freshly created one, so they'll tell you if onCreate and the migrations disagree.
+ */
+public final class WeatherDbMigrations {
+
+    /*
+     * The oldest schema version we know how to migrate from. Anything older predates this
+     * framework and is simply dropped and recreated, as it always used to be.
+     */
+    public static final int OLDEST_MIGRATABLE_VERSION = 3;
+
+    /**
+     * Version 4 starts recording migrations in the migration history table.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SQLiteDatabase sqLiteDatabase) {
+            sqLiteDatabase.execSQL(WeatherDbHelper.SQL_CREATE_MIGRATION_HISTORY_TABLE);
+        }
+    };
+
+    /**
+     * Version 5 adds the append-only forecast history table. Existing users start with an empty
+     * history; their current forecast is untouched.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SQLiteDatabase sqLiteDatabase) {
+            sqLiteDatabase.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_HISTORY_TABLE);
+            sqLiteDatabase.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_HISTORY_DATE_INDEX);
+        }
+    };
+
+    /**
+     * Version 6 adds the compact forecast archive. The archive starts empty: history rows carry
+     * no location, so they can't be packed into it, and they age out on their own.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SQLiteDatabase sqLiteDatabase) {
+            sqLiteDatabase.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_ARCHIVE_TABLE);
+            sqLiteDatabase.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_ARCHIVE_DATE_INDEX);
+        }
+    };
+
+    /**
+     * Version 7 adds a covering index for the date, weather ID and temperature reads. Existing
+     * databases keep their regular weather table; the date-keyed variant is only ever created
+     * fresh.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SQLiteDatabase sqLiteDatabase) {
+            sqLiteDatabase.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_FORECAST_COVER_INDEX);
+        }
+    };
+
+    /**
+     * Version 8 adds the interval forecast table for hourly and three-hourly forecasts. It starts
+     * empty; the daily forecast stays in the weather table as before.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(SQLiteDatabase sqLiteDatabase) {
+            sqLiteDatabase.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_INTERVAL_TABLE);
+            sqLiteDatabase.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_INTERVAL_DATE_INDEX);
+        }
+    };
+
+    private static final List<Migration> ALL = Collections.unmodifiableList(Arrays.asList(
+            MIGRATION_3_4,
+            MIGRATION_4_5,
+            MIGRATION_5_6,
+            MIGRATION_6_7,
+            MIGRATION_7_8
+    ));
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * Finds the chain of migrations that upgrades a database from one version to another.
+     *
+     * @param fromVersion Version the database is at now
+     * @param toVersion   Version the database should end up at
+     * @return The migrations to run in order, or null if there is no complete path
+     */
+    public static List<Migration> findPath(int fromVersion, int toVersion) {
+        List<Migration> path = new ArrayList<>();
+        int version = fromVersion;
+        while (version < toVersion) {
+            Migration next = null;
+            for (Migration migration : ALL) {
+                if (migration.startVersion == version && migration.endVersion <= toVersion) {
+                    next = migration;
+                    break;
+                }
+            }
+            if (next == null) {
+                return null;
+            }
+            path.add(next);
+            version = next.endVersion;
+        }
+        return path;
+    }
+}
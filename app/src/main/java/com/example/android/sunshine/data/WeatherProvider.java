@@ -17,24 +17,37 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.data.WeatherContract.WeatherArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherIntervalEntry;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * bulkInsert data, query data, and delete data, as well as insert and update single rows and
+ * apply several of those operations atomically with applyBatch.
  * <p>
- * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
- * However, here, they are not implemented for the sake of brevity and simplicity. If you would
- * like, you may implement them on your own. However, we are not going to be teaching how to do
- * so in this course.
+ * Although ContentProvider implementation requires the implementation of getType as well, it is
+ * not implemented here for the sake of brevity and simplicity.
  */
 public class WeatherProvider extends ContentProvider {
 
@@ -45,6 +58,141 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_FROM_DATE = 102;
+    public static final int CODE_WEATHER_DATE_RANGE = 103;
+    public static final int CODE_WEATHER_LATEST = 104;
+    public static final int CODE_WEATHER_HISTORY = 200;
+    public static final int CODE_WEATHER_HISTORY_WITH_DATE = 201;
+    public static final int CODE_WEATHER_ARCHIVE = 300;
+    public static final int CODE_WEATHER_INTERVAL = 400;
+    public static final int CODE_WEATHER_INTERVAL_DAILY = 401;
+
+    /*
+     * Removes history rows that a later sync on the same UTC day superseded. Only the last
+     * forecast issued each day is kept for any given date, which bounds the table to about
+     * (retention days x forecast days) rows no matter how often we sync.
+     */
+    private static final String SQL_DELETE_SUPERSEDED_HISTORY =
+            "DELETE FROM " + WeatherContract.WeatherHistoryEntry.TABLE_NAME +
+            " WHERE " + WeatherContract.WeatherHistoryEntry.COLUMN_ISSUED_AT + " >= ?" +
+            " AND EXISTS (SELECT 1 FROM " + WeatherContract.WeatherHistoryEntry.TABLE_NAME + " newer" +
+            " WHERE newer." + WeatherContract.WeatherHistoryEntry.COLUMN_DATE + " = " +
+            WeatherContract.WeatherHistoryEntry.TABLE_NAME + "." + WeatherContract.WeatherHistoryEntry.COLUMN_DATE +
+            " AND newer." + WeatherContract.WeatherHistoryEntry.COLUMN_ISSUED_AT + " > " +
+            WeatherContract.WeatherHistoryEntry.TABLE_NAME + "." + WeatherContract.WeatherHistoryEntry.COLUMN_ISSUED_AT +
+            " AND newer." + WeatherContract.WeatherHistoryEntry.COLUMN_ISSUED_AT + " < ?)";
+
+    /* The archive equivalent: a later sync for the same location on the same day wins */
+    private static final String SQL_DELETE_SUPERSEDED_ARCHIVE =
+            "DELETE FROM " + WeatherArchiveEntry.TABLE_NAME +
+            " WHERE " + WeatherArchiveEntry.COLUMN_ISSUED_AT + " >= ?" +
+            " AND EXISTS (SELECT 1 FROM " + WeatherArchiveEntry.TABLE_NAME + " newer" +
+            " WHERE newer." + WeatherArchiveEntry.COLUMN_LOCATION + " = " +
+            WeatherArchiveEntry.TABLE_NAME + "." + WeatherArchiveEntry.COLUMN_LOCATION +
+            " AND newer." + WeatherArchiveEntry.COLUMN_ISSUED_AT + " > " +
+            WeatherArchiveEntry.TABLE_NAME + "." + WeatherArchiveEntry.COLUMN_ISSUED_AT +
+            " AND newer." + WeatherArchiveEntry.COLUMN_ISSUED_AT + " < ?)";
+
+    /*
+     * Selections for the named weather query shapes. They never change, and the dates are always
+     * bound as arguments, so each shape's SQL text is the same on every query and SQLite reuses
+     * the statement it already prepared rather than compiling it again.
+     */
+    private static final String SELECT_DATE_EQUALS =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+    private static final String SELECT_DATE_FROM =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?";
+    private static final String SELECT_DATE_RANGE =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?";
+
+    /* Keyset page selections: the rows after the last key of the previous page */
+    private static final String SELECT_DATE_AFTER =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " > ?";
+    /* Written with a plain lower bound on the date so SQLite can seek the index to it */
+    private static final String SELECT_HISTORY_AFTER =
+            WeatherContract.WeatherHistoryEntry.COLUMN_DATE + " >= ? AND (" +
+            WeatherContract.WeatherHistoryEntry.COLUMN_DATE + " > ? OR " +
+            WeatherContract.WeatherHistoryEntry.COLUMN_ISSUED_AT + " > ?)";
+
+    /* History pages follow the (date, issued_at) index, so no sorting is needed */
+    private static final String HISTORY_PAGE_SORT_ORDER =
+            WeatherContract.WeatherHistoryEntry.COLUMN_DATE + " ASC, " +
+            WeatherContract.WeatherHistoryEntry.COLUMN_ISSUED_AT + " ASC";
+
+    private static final String SORT_BY_DATE_ASC = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+    private static final String SORT_BY_DATE_DESC = WeatherContract.WeatherEntry.COLUMN_DATE + " DESC";
+
+    /*
+     * Writes one interval. Hourly forecasts are hundreds of rows per sync, so bulkInsert compiles
+     * this once and only binds new values for each row, rather than building a ContentValues
+     * insert statement per row. The start time is the primary key, so an interval that is
+     * already stored is replaced.
+     */
+    private static final String SQL_INSERT_INTERVAL =
+            "INSERT OR REPLACE INTO " + WeatherIntervalEntry.TABLE_NAME + " (" +
+            WeatherIntervalEntry.COLUMN_START_TIME + ", " +
+            WeatherIntervalEntry.COLUMN_RESOLUTION + ", " +
+            WeatherIntervalEntry.COLUMN_DATE + ", " +
+            WeatherIntervalEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherIntervalEntry.COLUMN_TEMP + ", " +
+            WeatherIntervalEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherIntervalEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherIntervalEntry.COLUMN_HUMIDITY + ", " +
+            WeatherIntervalEntry.COLUMN_PRESSURE + ", " +
+            WeatherIntervalEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherIntervalEntry.COLUMN_DEGREES + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /*
+     * The intervals aggregated to one row per day, with the columns of the weather table. The
+     * day's condition is the one forecast for the most intervals, the more severe (lower ID) one
+     * on a tie, and its wind direction is that of its strongest wind, since an average of
+     * directions means nothing. Both subqueries read a single day from the (date, weather_id)
+     * index, and none of it needs anything newer than the SQLite on our oldest devices.
+     * <p>
+     * Only days the intervals cover all of are returned. The forecast starts partway through
+     * today and ends partway through its last day, and a high and low taken from the few hours
+     * left of a day aren't that day's. A day short of one interval still counts, since interval
+     * boundaries needn't line up with local midnight, and a day with a daylight saving change is
+     * an hour short or long anyway.
+     */
+    private static final String SQL_DAILY_FROM_INTERVALS =
+            "SELECT day." + WeatherIntervalEntry.COLUMN_DATE + " AS " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+            "(SELECT c." + WeatherIntervalEntry.COLUMN_WEATHER_ID +
+            " FROM " + WeatherIntervalEntry.TABLE_NAME + " c" +
+            " WHERE c." + WeatherIntervalEntry.COLUMN_DATE + " = day." +
+            WeatherIntervalEntry.COLUMN_DATE +
+            " GROUP BY c." + WeatherIntervalEntry.COLUMN_WEATHER_ID +
+            " ORDER BY COUNT(*) DESC, c." + WeatherIntervalEntry.COLUMN_WEATHER_ID + " ASC" +
+            " LIMIT 1) AS " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            "MIN(day." + WeatherIntervalEntry.COLUMN_MIN_TEMP + ") AS " +
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            "MAX(day." + WeatherIntervalEntry.COLUMN_MAX_TEMP + ") AS " +
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            "AVG(day." + WeatherIntervalEntry.COLUMN_HUMIDITY + ") AS " +
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+            "AVG(day." + WeatherIntervalEntry.COLUMN_PRESSURE + ") AS " +
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+            "AVG(day." + WeatherIntervalEntry.COLUMN_WIND_SPEED + ") AS " +
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            "(SELECT w." + WeatherIntervalEntry.COLUMN_DEGREES +
+            " FROM " + WeatherIntervalEntry.TABLE_NAME + " w" +
+            " WHERE w." + WeatherIntervalEntry.COLUMN_DATE + " = day." +
+            WeatherIntervalEntry.COLUMN_DATE +
+            " ORDER BY w." + WeatherIntervalEntry.COLUMN_WIND_SPEED + " DESC" +
+            " LIMIT 1) AS " + WeatherContract.WeatherEntry.COLUMN_DEGREES +
+            " FROM " + WeatherIntervalEntry.TABLE_NAME + " day" +
+            " GROUP BY day." + WeatherIntervalEntry.COLUMN_DATE +
+            " HAVING SUM(day." + WeatherIntervalEntry.COLUMN_RESOLUTION + ") >= " +
+            SunshineDateUtils.DAY_IN_MILLIS + " - MAX(day." +
+            WeatherIntervalEntry.COLUMN_RESOLUTION + ")";
+
+    /* Columns read from the archive table to build a ForecastArchiveCursor */
+    private static final String[] ARCHIVE_BLOB_PROJECTION = {
+            WeatherArchiveEntry.COLUMN_ISSUED_AT,
+            WeatherArchiveEntry.COLUMN_DATA,
+    };
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -52,8 +200,18 @@ public class WeatherProvider extends ContentProvider {
      * common convention in Android programming.
      */
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+
+    private static final String DEFAULT_HISTORY_SORT_ORDER =
+            WeatherContract.WeatherHistoryEntry.COLUMN_ISSUED_AT + " ASC, " +
+            WeatherContract.WeatherHistoryEntry.COLUMN_DATE + " ASC";
     private WeatherDbHelper mOpenHelper;
 
+    /*
+     * While applyBatch is running on a thread, the URIs its operations changed; null otherwise.
+     * Per thread, because other threads may be using the provider at the same time.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,6 +254,31 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /*
+         * The named query shapes: .../weather/from/1472214172, .../weather/range/1472214172/
+         * 1472300572 and .../weather/latest. "latest" isn't a number, so it can't be confused with
+         * a date.
+         */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" +
+                WeatherContract.WeatherEntry.PATH_FROM_DATE + "/#", CODE_WEATHER_FROM_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" +
+                WeatherContract.WeatherEntry.PATH_DATE_RANGE + "/#/#", CODE_WEATHER_DATE_RANGE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" +
+                WeatherContract.WeatherEntry.PATH_LATEST, CODE_WEATHER_LATEST);
+
+        /* content://com.example.android.sunshine/weather_history/ and .../weather_history/# */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_HISTORY, CODE_WEATHER_HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_HISTORY + "/#",
+                CODE_WEATHER_HISTORY_WITH_DATE);
+
+        /* content://com.example.android.sunshine/weather_archive/ */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_ARCHIVE, CODE_WEATHER_ARCHIVE);
+
+        /* content://com.example.android.sunshine/weather_interval/ and its daily aggregate */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_INTERVAL, CODE_WEATHER_INTERVAL);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_INTERVAL + "/" +
+                WeatherIntervalEntry.PATH_DAILY, CODE_WEATHER_INTERVAL_DAILY);
+
         return matcher;
     }
 
@@ -147,6 +330,7 @@ public class WeatherProvider extends ContentProvider {
             case CODE_WEATHER:
                 db.beginTransaction();
                 int rowsInserted = 0;
+                Set<Uri> changedUris = new HashSet<>();
                 try {
                     for (ContentValues value : values) {
                         long weatherDate =
@@ -155,9 +339,17 @@ public class WeatherProvider extends ContentProvider {
                             throw new IllegalArgumentException("Date must be normalized to insert");
                         }
 
+                        /* A day the new forecast didn't change needn't be written, or announced */
+                        if (isWeatherRowUnchanged(db, weatherDate, value)) {
+                            rowsInserted++;
+                            continue;
+                        }
+
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             rowsInserted++;
+                            changedUris.add(
+                                    WeatherContract.WeatherEntry.buildWeatherUriWithDate(weatherDate));
                         }
                     }
                     db.setTransactionSuccessful();
@@ -165,17 +357,269 @@ public class WeatherProvider extends ContentProvider {
                     db.endTransaction();
                 }
 
-                if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
-                }
+                notifyChanges(changedUris);
 
                 return rowsInserted;
 
+            case CODE_WEATHER_HISTORY:
+                return bulkInsertHistory(db, uri, values);
+
+            case CODE_WEATHER_INTERVAL:
+                return bulkInsertIntervals(db, values);
+
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Appends one sync's worth of forecast to the forecast history, then applies retention and
+     * compaction in the same transaction so it never grows past its bound. Rows without an issue
+     * time are stamped with the current time, all with the same value.
+     * <p>
+     * Each issue is written twice: as plain rows to the history table, which only keeps the last
+     * ROW_RETENTION_DAYS for ad hoc SQL queries, and as a single packed blob to the archive, which
+     * keeps the whole retention window.
+     * <p>
+     * The weather table isn't touched, so the current-forecast queries the UI runs cost exactly
+     * what they did before history existed.
+     */
+    private int bulkInsertHistory(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        long issuedAt = System.currentTimeMillis();
+        long today = SunshineDateUtils.normalizeDate(issuedAt);
+        int retentionDays = SunshinePreferences.getHistoryRetentionDays(getContext());
+        int rowRetentionDays =
+                Math.min(WeatherContract.WeatherHistoryEntry.ROW_RETENTION_DAYS, retentionDays);
+        long oldestDateToArchive = today - SunshineDateUtils.DAY_IN_MILLIS * retentionDays;
+        long oldestDateToKeepAsRows = today - SunshineDateUtils.DAY_IN_MILLIS * rowRetentionDays;
+        String location = getLocationKey();
+
+        /* Rows grouped by the sync that issued them, for the archive */
+        TreeMap<Long, List<ContentValues>> issues = new TreeMap<>();
+
+        db.beginTransaction();
+        int rowsInserted = 0;
+        try {
+            for (ContentValues value : values) {
+                long weatherDate = value.getAsLong(WeatherContract.WeatherHistoryEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                ContentValues historyValue = new ContentValues(value);
+                if (!historyValue.containsKey(WeatherContract.WeatherHistoryEntry.COLUMN_ISSUED_AT)) {
+                    historyValue.put(WeatherContract.WeatherHistoryEntry.COLUMN_ISSUED_AT, issuedAt);
+                }
+                long rowIssuedAt = historyValue.getAsLong(
+                        WeatherContract.WeatherHistoryEntry.COLUMN_ISSUED_AT);
+
+                List<ContentValues> issue = issues.get(rowIssuedAt);
+                if (issue == null) {
+                    issue = new ArrayList<>();
+                    issues.put(rowIssuedAt, issue);
+                }
+                issue.add(historyValue);
+
+                long _id = db.insert(WeatherContract.WeatherHistoryEntry.TABLE_NAME, null,
+                        historyValue);
+                if (_id != -1) {
+                    rowsInserted++;
+                }
+            }
+
+            for (Map.Entry<Long, List<ContentValues>> issue : issues.entrySet()) {
+                archiveIssue(db, location, issue.getKey(), issue.getValue());
+            }
+
+            /* Retention: forget forecasts for days that have fallen out of each window */
+            db.delete(WeatherContract.WeatherHistoryEntry.TABLE_NAME,
+                    WeatherContract.WeatherHistoryEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(oldestDateToKeepAsRows)});
+            db.delete(WeatherArchiveEntry.TABLE_NAME,
+                    WeatherArchiveEntry.COLUMN_LAST_DATE + " < ?",
+                    new String[]{Long.toString(oldestDateToArchive)});
+
+            /*
+             * Compaction: only rows issued on the same UTC day as what we just inserted can have
+             * been superseded by it, so that is all we look at.
+             */
+            if (!issues.isEmpty()) {
+                long dayOfEarliestIssue = SunshineDateUtils.normalizeDate(issues.firstKey());
+                long endOfLatestIssueDay = SunshineDateUtils.normalizeDate(issues.lastKey())
+                        + SunshineDateUtils.DAY_IN_MILLIS;
+                compactHistory(db, dayOfEarliestIssue, endOfLatestIssueDay);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (rowsInserted > 0) {
+            notifyChange(uri);
+            notifyChange(WeatherArchiveEntry.CONTENT_URI);
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Replaces the interval forecast with the given intervals. Intervals already stored for the
+     * same start times are overwritten, and any that start before the first or after the last
+     * of the new ones are deleted, all in one transaction with a single change notification.
+     * <p>
+     * Every row goes through the same compiled statement, so the cost per interval is binding
+     * eleven values and one b-tree insert, which keeps a sync of a few hundred hourly rows about
+     * as cheap as the daily one used to be.
+     */
+    private int bulkInsertIntervals(SQLiteDatabase db, ContentValues[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+
+        long firstStartTime = Long.MAX_VALUE;
+        long lastStartTime = Long.MIN_VALUE;
+        int rowsInserted = 0;
+
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_INTERVAL);
+        try {
+            for (ContentValues value : values) {
+                long startTime = value.getAsLong(WeatherIntervalEntry.COLUMN_START_TIME);
+                long date = value.getAsLong(WeatherIntervalEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(date)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+                firstStartTime = Math.min(firstStartTime, startTime);
+                lastStartTime = Math.max(lastStartTime, startTime);
+
+                insert.bindLong(1, startTime);
+                insert.bindLong(2, value.getAsLong(WeatherIntervalEntry.COLUMN_RESOLUTION));
+                insert.bindLong(3, date);
+                insert.bindLong(4, value.getAsInteger(WeatherIntervalEntry.COLUMN_WEATHER_ID));
+                insert.bindDouble(5, value.getAsDouble(WeatherIntervalEntry.COLUMN_TEMP));
+                insert.bindDouble(6, value.getAsDouble(WeatherIntervalEntry.COLUMN_MIN_TEMP));
+                insert.bindDouble(7, value.getAsDouble(WeatherIntervalEntry.COLUMN_MAX_TEMP));
+                insert.bindDouble(8, value.getAsDouble(WeatherIntervalEntry.COLUMN_HUMIDITY));
+                insert.bindDouble(9, value.getAsDouble(WeatherIntervalEntry.COLUMN_PRESSURE));
+                insert.bindDouble(10, value.getAsDouble(WeatherIntervalEntry.COLUMN_WIND_SPEED));
+                insert.bindDouble(11, value.getAsDouble(WeatherIntervalEntry.COLUMN_DEGREES));
+                if (insert.executeInsert() != -1) {
+                    rowsInserted++;
+                }
+            }
+
+            db.delete(WeatherIntervalEntry.TABLE_NAME,
+                    WeatherIntervalEntry.COLUMN_START_TIME + " < ? OR " +
+                            WeatherIntervalEntry.COLUMN_START_TIME + " > ?",
+                    new String[]{Long.toString(firstStartTime), Long.toString(lastStartTime)});
+
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+
+        /* Observers of the daily aggregate hear about this too; it is below this URI */
+        if (rowsInserted > 0) {
+            notifyChange(WeatherIntervalEntry.CONTENT_URI);
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Packs one issue of the forecast into a single archive row.
+     */
+    private static void archiveIssue(SQLiteDatabase db, String location, long issuedAt,
+                                     List<ContentValues> days) {
+        long firstDate = Long.MAX_VALUE;
+        long lastDate = Long.MIN_VALUE;
+        for (ContentValues day : days) {
+            long date = day.getAsLong(WeatherArchiveEntry.COLUMN_DATE);
+            firstDate = Math.min(firstDate, date);
+            lastDate = Math.max(lastDate, date);
+        }
+
+        ContentValues archiveValues = new ContentValues();
+        archiveValues.put(WeatherArchiveEntry.COLUMN_ISSUED_AT, issuedAt);
+        archiveValues.put(WeatherArchiveEntry.COLUMN_LOCATION, location);
+        archiveValues.put(WeatherArchiveEntry.COLUMN_FIRST_DATE, firstDate);
+        archiveValues.put(WeatherArchiveEntry.COLUMN_LAST_DATE, lastDate);
+        archiveValues.put(WeatherArchiveEntry.COLUMN_DATA,
+                ForecastArchive.encode(days.toArray(new ContentValues[days.size()])));
+        db.insert(WeatherArchiveEntry.TABLE_NAME, null, archiveValues);
+    }
+
+    /**
+     * Identifies the location the forecast being archived is for: the coordinates if we have
+     * them, otherwise the location the user typed in.
+     */
+    private String getLocationKey() {
+        if (SunshinePreferences.isLocationLatLonAvailable(getContext())) {
+            double[] coordinates = SunshinePreferences.getLocationCoordinates(getContext());
+            return String.format(Locale.US, "%.4f,%.4f", coordinates[0], coordinates[1]);
+        }
+        return SunshinePreferences.getPreferredWeatherLocation(getContext());
+    }
+
+    /**
+     * Deletes superseded history rows and archive blobs one UTC day at a time between the two
+     * bounds, so that a newer issue only ever supersedes older issues from its own day.
+     */
+    private static void compactHistory(SQLiteDatabase db, long fromDay, long toDay) {
+        for (long day = fromDay; day < toDay; day += SunshineDateUtils.DAY_IN_MILLIS) {
+            Object[] bounds = new Object[]{day, day + SunshineDateUtils.DAY_IN_MILLIS};
+            db.execSQL(SQL_DELETE_SUPERSEDED_HISTORY, bounds);
+            db.execSQL(SQL_DELETE_SUPERSEDED_ARCHIVE, bounds);
+        }
+    }
+
+    /**
+     * Runs one of the named weather query shapes, combined with the caller's own selection if
+     * they gave one.
+     */
+    private Cursor queryWeatherShape(String[] projection, String shapeSelection,
+                                     String[] shapeArgs, String selection, String[] selectionArgs,
+                                     String sortOrder, String limit) {
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                combineSelections(shapeSelection, selection),
+                combineSelectionArgs(shapeArgs, selectionArgs),
+                null,
+                null,
+                sortOrder,
+                limit);
+    }
+
+    /*
+     * DatabaseUtils.concatenateWhere and appendSelectionArgs do the same, but only from
+     * Honeycomb on.
+     */
+    private static String combineSelections(String first, String second) {
+        if (first == null || first.isEmpty()) {
+            return second;
+        }
+        if (second == null || second.isEmpty()) {
+            return first;
+        }
+        return "(" + first + ") AND (" + second + ")";
+    }
+
+    private static String[] combineSelectionArgs(String[] first, String[] second) {
+        if (first == null || first.length == 0) {
+            return second;
+        }
+        if (second == null || second.length == 0) {
+            return first;
+        }
+        String[] combined = new String[first.length + second.length];
+        System.arraycopy(first, 0, combined, 0, first.length);
+        System.arraycopy(second, 0, combined, first.length, second.length);
+        return combined;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -197,6 +641,13 @@ public class WeatherProvider extends ContentProvider {
 
         Cursor cursor;
 
+        /*
+         * The URI the cursor watches for changes. Changes to the weather table are announced per
+         * day, so a query for one day watches just that day, and any query that spans several
+         * days watches the whole table, which also hears about each of its days.
+         */
+        Uri notificationUri = uri;
+
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
          * being made and query the database accordingly.
@@ -252,7 +703,7 @@ public class WeatherProvider extends ContentProvider {
                          * within the selectionArguments array will be inserted into the
                          * selection statement by SQLite under the hood.
                          */
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                        SELECT_DATE_EQUALS,
                         selectionArguments,
                         null,
                         null,
@@ -273,6 +724,19 @@ public class WeatherProvider extends ContentProvider {
              * in our weather table.
              */
             case CODE_WEATHER: {
+                if (isPageQuery(uri)) {
+                    cursor = queryWeatherShape(projection,
+                            SELECT_DATE_AFTER,
+                            new String[]{parseAfterParameter(uri,
+                                    WeatherContract.QUERY_PARAM_AFTER_DATE)},
+                            selection,
+                            selectionArgs,
+                            SORT_BY_DATE_ASC,
+                            parseLimitParameter(uri));
+
+                    break;
+                }
+
                 cursor = mOpenHelper.getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
@@ -285,14 +749,226 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            /*
+             * The named query shapes. Callers only supply the dates, in the URI; a selection of
+             * their own, if any, is ANDed onto the shape's. Results come in date order unless the
+             * caller sorts otherwise.
+             */
+            case CODE_WEATHER_FROM_DATE: {
+                cursor = queryWeatherShape(projection,
+                        SELECT_DATE_FROM,
+                        new String[]{uri.getLastPathSegment()},
+                        selection,
+                        selectionArgs,
+                        sortOrder != null ? sortOrder : SORT_BY_DATE_ASC,
+                        null);
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+
+                break;
+            }
+
+            case CODE_WEATHER_DATE_RANGE: {
+                List<String> segments = uri.getPathSegments();
+                int size = segments.size();
+                cursor = queryWeatherShape(projection,
+                        SELECT_DATE_RANGE,
+                        new String[]{segments.get(size - 2), segments.get(size - 1)},
+                        selection,
+                        selectionArgs,
+                        sortOrder != null ? sortOrder : SORT_BY_DATE_ASC,
+                        null);
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+
+                break;
+            }
+
+            case CODE_WEATHER_LATEST: {
+                cursor = queryWeatherShape(projection,
+                        null,
+                        null,
+                        selection,
+                        selectionArgs,
+                        SORT_BY_DATE_DESC,
+                        "1");
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather_history/ returns history rows
+             * matching the caller's selection, such as the date or issue time ranges from
+             * WeatherHistoryEntry. Oldest issue first unless the caller sorts otherwise.
+             */
+            case CODE_WEATHER_HISTORY: {
+                if (isPageQuery(uri)) {
+                    String afterDate =
+                            parseAfterParameter(uri, WeatherContract.QUERY_PARAM_AFTER_DATE);
+                    String afterIssuedAt =
+                            parseAfterParameter(uri, WeatherContract.QUERY_PARAM_AFTER_ISSUED_AT);
+                    cursor = mOpenHelper.getReadableDatabase().query(
+                            WeatherContract.WeatherHistoryEntry.TABLE_NAME,
+                            projection,
+                            combineSelections(SELECT_HISTORY_AFTER, selection),
+                            combineSelectionArgs(
+                                    new String[]{afterDate, afterDate, afterIssuedAt},
+                                    selectionArgs),
+                            null,
+                            null,
+                            HISTORY_PAGE_SORT_ORDER,
+                            parseLimitParameter(uri));
+
+                    break;
+                }
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherHistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : DEFAULT_HISTORY_SORT_ORDER);
+
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather_history/1472214172 returns every
+             * forecast that was issued for that one day.
+             */
+            case CODE_WEATHER_HISTORY_WITH_DATE: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherHistoryEntry.TABLE_NAME,
+                        projection,
+                        WeatherContract.WeatherHistoryEntry.COLUMN_DATE + " = ? ",
+                        new String[]{uri.getLastPathSegment()},
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : DEFAULT_HISTORY_SORT_ORDER);
+
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather_archive?start_date=..&end_date=..
+             * reads only the archive rows whose day range overlaps the requested one, and
+             * decodes them into per-day rows as they are read. The caller's selection, if any,
+             * applies to the archive table's own columns, such as the issue time or location.
+             */
+            case CODE_WEATHER_ARCHIVE: {
+                long startDate = parseDateParameter(uri,
+                        WeatherArchiveEntry.QUERY_PARAM_START_DATE, Long.MIN_VALUE);
+                long endDate = parseDateParameter(uri,
+                        WeatherArchiveEntry.QUERY_PARAM_END_DATE, Long.MAX_VALUE);
+
+                /* The caller's selection comes first, so its arguments do too */
+                String overlap = WeatherArchiveEntry.COLUMN_FIRST_DATE + " <= ? AND " +
+                        WeatherArchiveEntry.COLUMN_LAST_DATE + " >= ?";
+                String[] overlapArgs = {Long.toString(endDate), Long.toString(startDate)};
+
+                Cursor archiveRows = mOpenHelper.getReadableDatabase().query(
+                        WeatherArchiveEntry.TABLE_NAME,
+                        ARCHIVE_BLOB_PROJECTION,
+                        combineSelections(selection, overlap),
+                        combineSelectionArgs(selectionArgs, overlapArgs),
+                        null,
+                        null,
+                        WeatherArchiveEntry.COLUMN_ISSUED_AT + " ASC");
+                /* From here on the archive cursor owns the rows, and closes them with itself */
+                try {
+                    cursor = new ForecastArchiveCursor(archiveRows, projection, startDate, endDate);
+                } catch (RuntimeException e) {
+                    archiveRows.close();
+                    throw e;
+                }
+
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather_interval/ returns the intervals
+             * themselves, in start time order unless the caller sorts otherwise.
+             */
+            case CODE_WEATHER_INTERVAL: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherIntervalEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder != null
+                                ? sortOrder
+                                : WeatherIntervalEntry.COLUMN_START_TIME + " ASC");
+
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather_interval/daily returns one row per
+             * day, aggregated from the intervals, with the same columns as the weather table.
+             * The caller's projection, selection and sort order apply to those daily rows.
+             */
+            case CODE_WEATHER_INTERVAL_DAILY: {
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables("(" + SQL_DAILY_FROM_INTERVALS + ")");
+                cursor = builder.query(mOpenHelper.getReadableDatabase(),
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : SORT_BY_DATE_ASC);
+
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return cursor;
     }
 
+    /*
+     * A URI with a limit asks for one page. The key to continue after defaults to the very start,
+     * so the first page only needs the limit.
+     */
+    private static boolean isPageQuery(Uri uri) {
+        return uri.getQueryParameter(WeatherContract.QUERY_PARAM_LIMIT) != null;
+    }
+
+    private static String parseAfterParameter(Uri uri, String parameter) {
+        return Long.toString(parseDateParameter(uri, parameter, Long.MIN_VALUE));
+    }
+
+    private static String parseLimitParameter(Uri uri) {
+        String value = uri.getQueryParameter(WeatherContract.QUERY_PARAM_LIMIT);
+        try {
+            int limit = Integer.parseInt(value);
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Bad limit in " + uri);
+            }
+            return Integer.toString(limit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad limit in " + uri, e);
+        }
+    }
+
+    private static long parseDateParameter(Uri uri, String parameter, long defaultValue) {
+        String value = uri.getQueryParameter(parameter);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + parameter + " in " + uri, e);
+        }
+    }
+
     /**
      * Deletes data at a given URI with optional arguments for more fine tuned deletions.
      *
@@ -307,6 +983,12 @@ public class WeatherProvider extends ContentProvider {
         /* Users of the delete method will expect the number of rows deleted to be returned. */
         int numRowsDeleted;
 
+        /*
+         * Deleting every row changes every day, so that is announced on the table's URI. A
+         * narrower delete announces only the days it removed.
+         */
+        boolean deletingEverything = selection == null;
+
         /*
          * If we pass null as the selection to SQLiteDatabase#delete, our entire table will be
          * deleted. However, if we do pass null and delete all of the rows in the table, we won't
@@ -318,9 +1000,51 @@ public class WeatherProvider extends ContentProvider {
 
         switch (sUriMatcher.match(uri)) {
 
-            case CODE_WEATHER:
+            case CODE_WEATHER: {
+                if (deletingEverything) {
+                    numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            selection,
+                            selectionArgs);
+
+                    break;
+                }
+
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                Set<Uri> changedUris = new HashSet<>();
+                db.beginTransaction();
+                try {
+                    collectWeatherDateUris(db, selection, selectionArgs, changedUris);
+                    numRowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                notifyChanges(changedUris);
+                return numRowsDeleted;
+            }
+
+            case CODE_WEATHER_HISTORY:
                 numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherHistoryEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+
+                break;
+
+            case CODE_WEATHER_ARCHIVE:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherArchiveEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+
+                break;
+
+            case CODE_WEATHER_INTERVAL:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherIntervalEntry.TABLE_NAME,
                         selection,
                         selectionArgs);
 
@@ -332,7 +1056,7 @@ public class WeatherProvider extends ContentProvider {
 
         /* If we actually deleted any rows, notify that a change has occurred to this URI */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return numRowsDeleted;
@@ -354,25 +1078,272 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Inserts a single row. The sync inserts whole forecasts with {@link #bulkInsert}; this is for
+     * the odd single day, usually as one step of an {@link #applyBatch} that also prunes or
+     * updates other days.
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the newly inserted day, or null if nothing was inserted
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER: {
+                long weatherDate = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                Uri dateUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(weatherDate);
+                if (isWeatherRowUnchanged(db, weatherDate, values)) {
+                    return dateUri;
+                }
+
+                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                if (_id == -1) {
+                    return null;
+                }
+
+                notifyChange(dateUri);
+                return dateUri;
+            }
+
+            /* History needs its retention and compaction, which bulkInsert already does */
+            case CODE_WEATHER_HISTORY: {
+                int rowsInserted = bulkInsertHistory(mOpenHelper.getWritableDatabase(), uri,
+                        new ContentValues[]{values});
+                if (rowsInserted == 0) {
+                    return null;
+                }
+                long weatherDate = values.getAsLong(WeatherContract.WeatherHistoryEntry.COLUMN_DATE);
+                return WeatherContract.WeatherHistoryEntry.buildHistoryUriWithDate(weatherDate);
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
     }
 
+    /**
+     * Updates existing weather rows in place, either every row matching the selection or, for a
+     * URI with a date, that one day. This lets a partial refresh change a day's values without
+     * deleting and reinserting the whole forecast.
+     *
+     * @param uri           The URI of the rows to update
+     * @param values        The columns to change and their new values
+     * @param selection     An optional restriction on the rows to update
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @return The number of rows updated
+     */
     @Override
-    public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+                      String[] selectionArgs) {
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+                return updateWeather(values, selection, selectionArgs);
+
+            case CODE_WEATHER_WITH_DATE:
+                return updateWeather(values,
+                        combineSelections(SELECT_DATE_EQUALS, selection),
+                        combineSelectionArgs(new String[]{uri.getLastPathSegment()},
+                                selectionArgs));
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
+    /**
+     * Updates the matching weather rows and announces each day that was updated, plus the new
+     * date if the update moved a row to another day.
+     */
+    private int updateWeather(ContentValues values, String selection, String[] selectionArgs) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Uri> changedUris = new HashSet<>();
+        int numRowsUpdated;
+
+        db.beginTransaction();
+        try {
+            collectWeatherDateUris(db, selection, selectionArgs, changedUris);
+            numRowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                    selection, selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (numRowsUpdated == 0) {
+            return 0;
+        }
+
+        Long newDate = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (newDate != null) {
+            changedUris.add(WeatherContract.WeatherEntry.buildWeatherUriWithDate(newDate));
+        }
+        notifyChanges(changedUris);
+
+        return numRowsUpdated;
+    }
+
+    /**
+     * Applies a list of inserts, updates and deletes as a single transaction: either all of them
+     * take effect or none do. Observers are told about each changed URI once, after the commit,
+     * rather than once per operation, and never see the data half way through the batch.
+     * <p>
+     * The caller's process makes a single call into the provider however many operations there
+     * are, which is what makes this cheaper than issuing them one at a time.
+     *
+     * @param operations The operations to apply, in order
+     * @return The result of each operation
+     * @throws OperationApplicationException if any operation fails; nothing is applied then
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Uri> changedUris = new HashSet<>();
+        mPendingNotifications.set(changedUris);
+
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.remove();
+        }
+
+        for (Uri changedUri : withoutCoveredUris(changedUris)) {
+            getContext().getContentResolver().notifyChange(changedUri, null);
+        }
+
+        return results;
+    }
+
+    /**
+     * Tells observers that the data at a URI changed. Inside {@link #applyBatch}, the change is
+     * instead remembered and reported once the batch commits.
+     * <p>
+     * Weather changes are reported per day, on the URI of each date that changed. Observers of a
+     * single day (DetailActivity) only reload when that day changes, while observers of the
+     * whole table (the forecast list) register for descendants and hear about every day.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending == null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+            return;
+        }
+        pending.add(uri);
+    }
+
+    private void notifyChanges(Set<Uri> uris) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.addAll(uris);
+            return;
+        }
+        for (Uri uri : withoutCoveredUris(uris)) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /*
+     * Drops every URI that another URI in the set already covers: a notification on a URI also
+     * reaches the observers of every URI below it, so e.g. a change to the whole weather table
+     * makes the per-day notifications from the same batch redundant.
+     */
+    private static List<Uri> withoutCoveredUris(Set<Uri> uris) {
+        List<Uri> needed = new ArrayList<>(uris.size());
+        for (Uri uri : uris) {
+            boolean covered = false;
+            for (Uri other : uris) {
+                if (!other.equals(uri) && isAncestor(other, uri)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                needed.add(uri);
+            }
+        }
+        return needed;
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() < segments.size()
+                && ancestorSegments.equals(segments.subList(0, ancestorSegments.size()));
+    }
+
+    /**
+     * Adds the per-day URI of every weather row matching the selection, so a write can announce
+     * exactly the days it touches. The weather table only ever holds a couple of weeks, so this
+     * is a short read of the covering index.
+     */
+    private static void collectWeatherDateUris(SQLiteDatabase db, String selection,
+                                               String[] selectionArgs, Set<Uri> dateUris) {
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                dateUris.add(WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                        cursor.getLong(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Whether the weather table already holds exactly these values for the date, in which case
+     * writing them again would change nothing.
+     */
+    private static boolean isWeatherRowUnchanged(SQLiteDatabase db, long date,
+                                                 ContentValues values) {
+        List<Map.Entry<String, Object>> entries = new ArrayList<>(values.valueSet());
+        String[] columns = new String[entries.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = entries.get(i).getKey();
+        }
+
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, columns,
+                SELECT_DATE_EQUALS, new String[]{Long.toString(date)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                Object value = entries.get(i).getValue();
+                if (value == null) {
+                    if (!cursor.isNull(i)) {
+                        return false;
+                    }
+                } else if (value instanceof Number) {
+                    if (cursor.isNull(i)
+                            || cursor.getDouble(i) != ((Number) value).doubleValue()) {
+                        return false;
+                    }
+                } else if (!value.toString().equals(cursor.getString(i))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
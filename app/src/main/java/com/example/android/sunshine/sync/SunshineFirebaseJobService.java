@@ -45,7 +45,12 @@ public class SunshineFirebaseJobService extends JobService {
             @Override
             protected Void doInBackground(Void... voids) {
                 Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
+                /*
+                 * A request still waiting in the queue means this job answers the user, either
+                 * as the drain job or by running before it; otherwise it is a periodic sync.
+                 */
+                boolean userRequested = SyncRequestQueue.getDepth(context) > 0;
+                SunshineSyncTask.syncWeather(context, userRequested);
                 jobFinished(jobParameters, false);
                 return null;
             }
@@ -17,6 +17,7 @@ package com.example.android.sunshine.sync;
 
 import android.app.IntentService;
 import android.content.Intent;
+import android.text.TextUtils;
 
 /**
  * An {@link IntentService} subclass for handling asynchronous task requests in
@@ -24,12 +25,45 @@ import android.content.Intent;
  */
 public class SunshineSyncIntentService extends IntentService {
 
+    /* Republishes the stored forecast to the watch face without touching the network */
+    static final String ACTION_PUBLISH_TO_WEARABLE =
+            "com.example.android.sunshine.sync.action.PUBLISH_TO_WEARABLE";
+
+    /*
+     * Records a sync the user asked for in SyncRequestQueue, then syncs if there is a network.
+     * EXTRA_REQUEST_TYPE says what kind of request it is.
+     */
+    static final String ACTION_REQUEST_SYNC =
+            "com.example.android.sunshine.sync.action.REQUEST_SYNC";
+    static final String EXTRA_REQUEST_TYPE = "request_type";
+
     public SunshineSyncIntentService() {
         super("SunshineSyncIntentService");
     }
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        SunshineSyncTask.syncWeather(this);
+        if (intent != null && ACTION_PUBLISH_TO_WEARABLE.equals(intent.getAction())) {
+            WearablePublisher.publishForecastWindow(this);
+            return;
+        }
+
+        boolean userRequested = intent != null && ACTION_REQUEST_SYNC.equals(intent.getAction());
+        if (userRequested) {
+            String requestType = intent.getStringExtra(EXTRA_REQUEST_TYPE);
+            if (SyncRequestQueue.TYPE_LOCATION_CHANGE.equals(requestType)) {
+                SunshineSyncTask.forgetPreviousLocation(this);
+            }
+            SyncRequestQueue.enqueue(this, TextUtils.isEmpty(requestType)
+                    ? SyncRequestQueue.TYPE_MANUAL_REFRESH
+                    : requestType);
+
+            /* Don't spend a sync failing; the queue drains when the network comes back */
+            if (!SunshineSyncUtils.isNetworkAvailable(this)) {
+                SunshineSyncUtils.scheduleQueueDrain(this);
+                return;
+            }
+        }
+        SunshineSyncTask.syncWeather(this, userRequested);
     }
 }
\ No newline at end of file
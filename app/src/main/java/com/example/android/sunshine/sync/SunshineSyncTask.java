@@ -15,45 +15,113 @@
  */
 package com.example.android.sunshine.sync;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.text.format.DateUtils;
+import android.util.Log;
 
+import com.example.android.sunshine.data.ForecastSnapshot;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.WeatherIntervalEntry;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
      * weather has been loaded if the user hasn't been notified of the weather within the last day
-     * AND they haven't disabled notifications in the preferences screen.
+     * AND they haven't disabled notifications in the preferences screen. Finally, publishes
+     * the forecast window to the watch face if it changed.
+     * <p>
+     * Each run is traced stage by stage (see SyncTrace) and the trace is kept in SyncTraceStore,
+     * whether the run succeeded or not.
      *
-     * @param context Used to access utility methods and the ContentResolver
+     * @param context       Used to access utility methods and the ContentResolver
+     * @param userRequested Whether this sync answers a refresh or location change the user asked
+     *                      for. Those always fetch from the server; only periodic syncs may be
+     *                      answered from ForecastResponseCache.
      */
-    synchronized public static void syncWeather(Context context) {
+    synchronized public static void syncWeather(Context context, boolean userRequested) {
 
+        SyncTrace trace = new SyncTrace();
+        InputStream response = null;
+        ForecastResponseCache.Editor responseCopy = null;
         try {
             /*
              * The getUrl method will return the URL that we need to get the forecast JSON for the
              * weather. It will decide whether to create a URL based off of the latitude and
              * longitude or off of a simple location as a String.
              */
+            trace.beginSpan(SyncTrace.SPAN_URL_BUILD);
             URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            if (weatherRequestUrl == null) {
+                /* Fail here, so the trace blames the URL rather than the connection */
+                throw new MalformedURLException("No forecast URL for the location setting");
+            }
+            trace.setCount(SyncTrace.COUNT_HORIZON_DAYS,
+                    NetworkUtils.getForecastHorizonDays(context));
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            /*
+             * For a periodic sync, a response to the same URL fetched within the last hour is just
+             * as good, and saves the download. A user who asks for a refresh expects the server's
+             * latest, so their syncs skip the cache. Otherwise, use the URL to retrieve the JSON,
+             * copying it into the cache as it is read.
+             */
+            if (!userRequested) {
+                trace.beginSpan(SyncTrace.SPAN_RESPONSE_CACHE);
+                response = ForecastResponseCache.open(context, weatherRequestUrl);
+            }
+            boolean responseWasCached = response != null;
+            trace.setCount(SyncTrace.COUNT_RESPONSE_CACHE_HITS, responseWasCached ? 1 : 0);
+            if (!responseWasCached) {
+                response = NetworkUtils.openResponse(weatherRequestUrl, trace);
+                if (response == null) {
+                    trace.finish(SyncTrace.OUTCOME_EMPTY_RESPONSE);
+                    return;
+                }
+                responseCopy = ForecastResponseCache.edit(context, weatherRequestUrl);
+                if (responseCopy != null) {
+                    response = responseCopy.copyOf(response);
+                }
+            }
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+            /*
+             * Parse the JSON into a list of weather values. The daily forecast is small enough to
+             * read whole first. A finer forecast is parsed as it downloads and stored as it is,
+             * and the days the rest of the sync works with are read back from it.
+             */
+            long resolution = SunshinePreferences.getForecastResolution(context);
+            ContentValues[] weatherValues;
+            if (resolution == WeatherIntervalEntry.RESOLUTION_DAILY) {
+                if (!responseWasCached) {
+                    trace.beginSpan(SyncTrace.SPAN_DOWNLOAD);
+                }
+                String jsonWeatherResponse = NetworkUtils.readResponse(response);
+                trace.beginSpan(SyncTrace.SPAN_PARSE);
+                weatherValues = OpenWeatherJsonUtils
+                        .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+            } else {
+                trace.beginSpan(SyncTrace.SPAN_PARSE);
+                weatherValues = storeIntervals(context, response, resolution, trace);
+            }
 
             /*
              * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
@@ -62,26 +130,99 @@ public class SunshineSyncTask {
              * there isn't any to insert.
              */
             if (weatherValues != null && weatherValues.length != 0) {
+                trace.setCount(SyncTrace.COUNT_ROWS, weatherValues.length);
+
+                /* Only a response that held a forecast is worth answering the next request with */
+                if (responseCopy != null) {
+                    responseCopy.commit();
+                }
+
                 /* Get a handle on the ContentResolver to delete and insert data */
                 ContentResolver sunshineContentResolver = context.getContentResolver();
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
+                /*
+                 * Delete old weather data for days the new forecast no longer covers, because we
+                 * don't need to keep multiple days' data, and write our new weather data over the
+                 * rest. Both happen in one batch, so they commit as a single transaction: the UI
+                 * never sees a half-written forecast. The provider skips days whose values didn't
+                 * change, so only the views showing a day that did change reload.
+                 *
+                 * A finer forecast leaves out today once too little of it is left to aggregate
+                 * (see WeatherIntervalEntry.CONTENT_URI_DAILY), so today's row from an earlier
+                 * sync is kept rather than deleted as a day the forecast no longer covers.
+                 */
+                trace.beginSpan(SyncTrace.SPAN_STORE);
+                long firstDate = SunshineDateUtils.getNormalizedUtcDateForToday();
+                long lastDate = Long.MIN_VALUE;
+                for (ContentValues values : weatherValues) {
+                    long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                    firstDate = Math.min(firstDate, date);
+                    lastDate = Math.max(lastDate, date);
+                }
+
+                ArrayList<ContentProviderOperation> operations =
+                        new ArrayList<>(weatherValues.length + 1);
+                operations.add(ContentProviderOperation
+                        .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " < ? OR "
+                                        + WeatherContract.WeatherEntry.COLUMN_DATE + " > ?",
+                                new String[]{Long.toString(firstDate), Long.toString(lastDate)})
+                        .build());
+                for (ContentValues values : weatherValues) {
+                    operations.add(ContentProviderOperation
+                            .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                            .withValues(values)
+                            .build());
+                }
+                sunshineContentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
+                /*
+                 * Now that the forecast is committed, publish a snapshot of it for the readers
+                 * that only need a few values and can skip the provider (see ForecastSnapshot).
+                 */
+                trace.beginSpan(SyncTrace.SPAN_SNAPSHOT);
+                /*
+                 * Keep the snapshot of the previous forecast to compare the new one against. A
+                 * mapping stays valid after the file it came from is replaced.
+                 */
+                ForecastSnapshot previousForecast = ForecastSnapshot.open(context);
+                ForecastSnapshot.write(context, weatherValues);
+
+                /*
+                 * The weather table only ever holds the latest forecast, so also append this one
+                 * to the history. The provider stamps it with the sync time and trims the history
+                 * back down to the retention window.
+                 */
+                trace.beginSpan(SyncTrace.SPAN_HISTORY);
+                int historyRows = sunshineContentResolver.bulkInsert(
+                        WeatherContract.WeatherHistoryEntry.CONTENT_URI,
                         weatherValues);
+                trace.setCount(SyncTrace.COUNT_HISTORY_ROWS, historyRows);
+
+                /*
+                 * Look for changes from the previous forecast that are worth telling the user
+                 * about right away, such as a storm moving in.
+                 */
+                trace.beginSpan(SyncTrace.SPAN_ALERTS);
+                List<WeatherAlertEngine.Alert> alerts =
+                        WeatherAlertEngine.evaluate(context, previousForecast, weatherValues);
+                trace.setCount(SyncTrace.COUNT_ALERTS, alerts.size());
 
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
                  * we should notify the user that the weather has been refreshed.
                  */
+                trace.beginSpan(SyncTrace.SPAN_NOTIFICATION);
                 boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
 
+                /*
+                 * Alerts aren't limited to one a day like the notification below; the engine
+                 * never raises the same alert twice, so there is nothing to spam.
+                 */
+                if (notificationsEnabled) {
+                    NotificationUtils.notifyUserOfWeatherAlerts(context, alerts);
+                }
+
                 /*
                  * If the last notification was shown was more than 1 day ago, we want to send
                  * another notification to the user that the weather has been updated. Remember,
@@ -101,16 +242,144 @@ public class SunshineSyncTask {
                  * haven't shown a notification in the past day.
                  */
                 if (notificationsEnabled && oneDayPassedSinceLastNotification) {
-                    NotificationUtils.notifyUserOfNewWeather(context);
+                    /*
+                     * Build the notification from the forecast we already have in memory rather
+                     * than reading back what we just wrote.
+                     */
+                    NotificationUtils.WeatherNotification notification = NotificationUtils
+                            .prepareWeatherNotification(context, weatherValues);
+                    if (notification != null) {
+                        NotificationUtils.postWeatherNotification(context, notification);
+                    }
                 }
 
-            /* If the code reaches this point, we have successfully performed our sync */
+                /*
+                 * Keep the watch face in step with what we just stored. The publisher diffs
+                 * against what it last sent, so an unchanged forecast costs no data layer write.
+                 */
+                trace.beginSpan(SyncTrace.SPAN_WATCH_PUBLISH);
+                WearablePublisher.publishForecastWindow(context);
 
+                /* If the code reaches this point, we have successfully performed our sync */
+                trace.finish(SyncTrace.OUTCOME_SUCCESS);
+            } else {
+                trace.finish(SyncTrace.OUTCOME_NO_DATA);
             }
 
         } catch (Exception e) {
-            /* Server probably invalid */
-            e.printStackTrace();
+            /* The trace attributes the failure to the stage that was running */
+            trace.fail(e);
+            Log.e(TAG, "Sync failed", e);
+        } finally {
+            /* A copy that wasn't committed is of a response that held no forecast */
+            if (responseCopy != null) {
+                responseCopy.abort();
+            }
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException ignored) {
+                    /* Everything needed has been read */
+                }
+            }
+
+            /*
+             * Whatever asked for this sync, it satisfies the requests that were waiting for one.
+             * If it couldn't reach the server, they keep waiting, for a network to come back.
+             */
+            int drained = SyncRequestQueue.onSyncFinished(context, trace.getStartedAt(),
+                    trace.getOutcome());
+            if (drained > 0) {
+                trace.setCount(SyncTrace.COUNT_DRAINED_REQUESTS, drained);
+                trace.setCount(SyncTrace.COUNT_DRAIN_LATENCY_MS,
+                        SyncRequestQueue.getLastDrainLatencyMs(context));
+            } else if (SyncTrace.OUTCOME_NETWORK_ERROR.equals(trace.getOutcome())
+                    && SyncRequestQueue.getDepth(context) > 0) {
+                SunshineSyncUtils.scheduleQueueDrain(context);
+            }
+
+            Log.i(TAG, trace.toString());
+            SyncTraceStore.record(context, trace);
+        }
+    }
+
+    /**
+     * Forgets the forecast and the alerts of the location the user just moved away from. The
+     * next sync would otherwise compare the new city's forecast with the old city's snapshot and
+     * report the difference as forecast changes, and the old city's raised alerts could hide
+     * real ones for the new city.
+     * <p>
+     * This waits for a sync that is already running, so that it can't write the old location's
+     * snapshot back afterwards. Call it off the main thread.
+     *
+     * @param context Used to locate the snapshot and access SharedPreferences
+     */
+    synchronized public static void forgetPreviousLocation(Context context) {
+        ForecastSnapshot.delete(context);
+        WeatherAlertEngine.reset(context);
+    }
+
+    /**
+     * Stores an hourly or three-hourly forecast in the interval table and returns it aggregated
+     * to days, in the same form the daily parser returns, so that everything downstream of the
+     * parse works the same whatever the resolution. Only whole days are returned, so the weather,
+     * history and archive tables never get a day aggregated from a few hours of it.
+     *
+     * @return One WeatherEntry ContentValues per whole day, or null if the response held none
+     */
+    private static ContentValues[] storeIntervals(Context context, InputStream response,
+                                                  long resolution, SyncTrace trace)
+            throws IOException {
+        ContentValues[] intervalValues = OpenWeatherJsonUtils
+                .getWeatherIntervalContentValuesFromJson(context, response, resolution);
+        if (intervalValues == null || intervalValues.length == 0) {
+            return null;
+        }
+        trace.setCount(SyncTrace.COUNT_INTERVALS, intervalValues.length);
+
+        trace.beginSpan(SyncTrace.SPAN_INTERVALS);
+        ContentResolver resolver = context.getContentResolver();
+        resolver.bulkInsert(WeatherIntervalEntry.CONTENT_URI, intervalValues);
+
+        Cursor days = resolver.query(WeatherIntervalEntry.CONTENT_URI_DAILY, null, null, null,
+                null);
+        if (days == null) {
+            return null;
+        }
+        try {
+            int dateIndex = days.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_DATE);
+            int weatherIdIndex =
+                    days.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            int minIndex = days.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+            int maxIndex = days.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+            int humidityIndex =
+                    days.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+            int pressureIndex =
+                    days.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+            int windIndex =
+                    days.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+            int degreesIndex =
+                    days.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+
+            ContentValues[] weatherValues = new ContentValues[days.getCount()];
+            for (int i = 0; days.moveToNext(); i++) {
+                ContentValues day = new ContentValues();
+                day.put(WeatherContract.WeatherEntry.COLUMN_DATE, days.getLong(dateIndex));
+                day.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                        days.getInt(weatherIdIndex));
+                day.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, days.getDouble(minIndex));
+                day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, days.getDouble(maxIndex));
+                day.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                        days.getDouble(humidityIndex));
+                day.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                        days.getDouble(pressureIndex));
+                day.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, days.getDouble(windIndex));
+                day.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, days.getDouble(degreesIndex));
+                weatherValues[i] = day;
+            }
+            return weatherValues;
+        } finally {
+            days.close();
         }
     }
 }
\ No newline at end of file
@@ -18,10 +18,14 @@ package com.example.android.sunshine.sync;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
 
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
 import com.firebase.jobdispatcher.FirebaseJobDispatcher;
@@ -46,6 +50,13 @@ public class SunshineSyncUtils {
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
+    /*
+     * The one-off job that drains SyncRequestQueue once there is a network. It can start as soon
+     * as its constraint is met; the window end just gives the dispatcher some leeway to batch it.
+     */
+    private static final String SUNSHINE_SYNC_QUEUE_TAG = "sunshine-sync-queue";
+    private static final int SYNC_QUEUE_WINDOW_SECONDS = 60;
+
     /**
      * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
      * @param context Context used to create the GooglePlayDriver that powers the
@@ -99,13 +110,55 @@ public class SunshineSyncUtils {
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
     }
+    /**
+     * Schedules a single sync to run as soon as the device has a network, to drain the requests
+     * waiting in SyncRequestQueue. Scheduling it again while it is pending replaces it, so there
+     * is never more than one.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    static void scheduleQueueDrain(@NonNull final Context context) {
+        Driver driver = new GooglePlayDriver(context);
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+
+        Job drainQueueJob = dispatcher.newJobBuilder()
+                .setService(SunshineFirebaseJobService.class)
+                .setTag(SUNSHINE_SYNC_QUEUE_TAG)
+                .setConstraints(Constraint.ON_ANY_NETWORK)
+                /* The queue survives a reboot, so the job that drains it has to as well */
+                .setLifetime(Lifetime.FOREVER)
+                .setRecurring(false)
+                .setTrigger(Trigger.executionWindow(0, SYNC_QUEUE_WINDOW_SECONDS))
+                .setReplaceCurrent(true)
+                .build();
+
+        dispatcher.schedule(drainQueueJob);
+    }
+
+    /**
+     * @param context Used to get the ConnectivityManager
+     * @return true if the device has a network connection it could sync over right now
+     */
+    static boolean isNetworkAvailable(@NonNull final Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected();
+    }
+
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
+     * <p>
+     * Both steps block (scheduling the job binds to Google Play services, and the check queries
+     * our ContentProvider), so this must be called off the main thread. MainActivity runs it
+     * through StartupOrchestrator once its first frame is drawn.
      *
      * @param context Context that will be passed to other methods and used to access the
      *                ContentResolver
      */
+    @WorkerThread
     synchronized public static void initialize(@NonNull final Context context) {
 
         /*
@@ -124,69 +177,87 @@ public class SunshineSyncUtils {
 
         /*
          * We need to check to see if our ContentProvider has data to display in our forecast
-         * list. However, performing a query on the main thread is a bad idea as this may
-         * cause our UI to lag. Therefore, we create a thread in which we will run the query
-         * to check the contents of our ContentProvider.
+         * list. We're already on a background thread, so we can run the query right here.
          */
-        Thread checkForEmpty = new Thread(new Runnable() {
-            @Override
-            public void run() {
 
-                /* URI for every row of weather data in our weather table*/
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
+        /* URI for every row of weather data from today onwards */
+        Uri forecastQueryUri = WeatherContract.WeatherEntry.buildWeatherUriFromDate(
+                SunshineDateUtils.getNormalizedUtcDateForToday());
 
-                /*
-                 * Since this query is going to be used only as a check to see if we have any
-                 * data (rather than to display data), we just need to PROJECT the ID of each
-                 * row. In our queries where we display data, we need to PROJECT more columns
-                 * to determine what weather details need to be displayed.
-                 */
-                String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
-                String selectionStatement = WeatherContract.WeatherEntry
-                        .getSqlSelectForTodayOnwards();
-
-                /* Here, we perform the query to check to see if we have any weather data */
-                Cursor cursor = context.getContentResolver().query(
-                        forecastQueryUri,
-                        projectionColumns,
-                        selectionStatement,
-                        null,
-                        null);
-                /*
-                 * A Cursor object can be null for various different reasons. A few are
-                 * listed below.
-                 *
-                 *   1) Invalid URI
-                 *   2) A certain ContentProvider's query method returns null
-                 *   3) A RemoteException was thrown.
-                 *
-                 * Bottom line, it is generally a good idea to check if a Cursor returned
-                 * from a ContentResolver is null.
-                 *
-                 * If the Cursor was null OR if it was empty, we need to sync immediately to
-                 * be able to display data to the user.
-                 */
-                if (null == cursor || cursor.getCount() == 0) {
-                    startImmediateSync(context);
-                }
+        /*
+         * Since this query is going to be used only as a check to see if we have any data (rather
+         * than to display data), we just need to PROJECT the date of each row, which the covering
+         * index can answer on its own. In our queries where we display data, we need to PROJECT
+         * more columns to determine what weather details need to be displayed.
+         */
+        String[] projectionColumns = {WeatherContract.WeatherEntry.COLUMN_DATE};
 
-                /* Make sure to close the Cursor to avoid memory leaks! */
-                cursor.close();
-            }
-        });
+        /* Here, we perform the query to check to see if we have any weather data */
+        Cursor cursor = context.getContentResolver().query(
+                forecastQueryUri,
+                projectionColumns,
+                null,
+                null,
+                null);
+        /*
+         * A Cursor object can be null for various different reasons. A few are listed below.
+         *
+         *   1) Invalid URI
+         *   2) A certain ContentProvider's query method returns null
+         *   3) A RemoteException was thrown.
+         *
+         * Bottom line, it is generally a good idea to check if a Cursor returned from a
+         * ContentResolver is null.
+         *
+         * If the Cursor was null OR if it was empty, we need to sync immediately to be able to
+         * display data to the user.
+         */
+        if (null == cursor || cursor.getCount() == 0) {
+            startImmediateSync(context);
+        }
 
-        /* Finally, once the thread is prepared, fire it off to perform our checks. */
-        checkForEmpty.start();
+        /* Make sure to close the Cursor to avoid memory leaks! */
+        if (cursor != null) {
+            cursor.close();
+        }
     }
 
     /**
      * Helper method to perform a sync immediately using an IntentService for asynchronous
-     * execution.
+     * execution. The request is recorded as a manual refresh, so if the device is offline it
+     * isn't lost but runs as soon as a network is available.
      *
      * @param context The Context used to start the IntentService for the sync.
      */
     public static void startImmediateSync(@NonNull final Context context) {
-        Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
-        context.startService(intentToSyncImmediately);
+        requestSync(context, SyncRequestQueue.TYPE_MANUAL_REFRESH);
+    }
+
+    /**
+     * Asks for a sync on behalf of the user. The request is recorded in SyncRequestQueue, where
+     * it collapses with any requests still pending, and synced right away if there is a network
+     * or as soon as there is one otherwise.
+     *
+     * @param context     The Context used to start the IntentService for the sync.
+     * @param requestType One of SyncRequestQueue's TYPE_ constants
+     */
+    public static void requestSync(@NonNull final Context context, String requestType) {
+        Intent intentToRequestSync = new Intent(context, SunshineSyncIntentService.class);
+        intentToRequestSync.setAction(SunshineSyncIntentService.ACTION_REQUEST_SYNC);
+        intentToRequestSync.putExtra(SunshineSyncIntentService.EXTRA_REQUEST_TYPE, requestType);
+        context.startService(intentToRequestSync);
+    }
+
+    /**
+     * Republishes the forecast that is already stored to the watch face, for instance after the
+     * user changed a preference the watch payload depends on.
+     *
+     * @param context The Context used to start the IntentService.
+     */
+    public static void startWearablePublish(@NonNull final Context context) {
+        WearablePublisher.invalidate(context);
+        Intent intentToPublish = new Intent(context, SunshineSyncIntentService.class);
+        intentToPublish.setAction(SunshineSyncIntentService.ACTION_PUBLISH_TO_WEARABLE);
+        context.startService(intentToPublish);
     }
 }
\ No newline at end of file
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.AtomicFileWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The syncs the user asked for that haven't happened yet, kept in a small file so that they
+ * survive the process being killed while the device is offline.
+ * <p>
+ * A request is only taken off the queue once a sync that started after it was made has
+ * finished without a network error. Until then, SunshineSyncUtils keeps a job scheduled that
+ * runs as soon as there is a network, so a location change made on a plane is picked up on
+ * landing rather than at the next periodic sync.
+ * <p>
+ * Every sync fetches the whole forecast for the current location, so requests collapse as they
+ * are made: a location change supersedes everything before it, and a refresh asked for while
+ * anything is still pending is folded into that request. The queue therefore holds at most one
+ * request, but it keeps when the oldest request it stands for was made, which is what the drain
+ * latency is measured from.
+ * <p>
+ * The file is replaced through AtomicFileWriter, so a crash part way through a write leaves the
+ * previous requests intact.
+ */
+public final class SyncRequestQueue {
+
+    private static final String TAG = SyncRequestQueue.class.getSimpleName();
+
+    private static final String FILE_NAME = "sync_requests.json";
+
+    /* Request types */
+    public static final String TYPE_LOCATION_CHANGE = "location_change";
+    public static final String TYPE_MANUAL_REFRESH = "manual_refresh";
+
+    /* Keys of the stored JSON */
+    private static final String KEY_REQUESTS = "requests";
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_FIRST_REQUESTED_AT = "first_requested_at";
+    private static final String KEY_LAST_REQUESTED_AT = "last_requested_at";
+    private static final String KEY_COLLAPSED = "collapsed";
+    private static final String KEY_DRAINED = "drained";
+    private static final String KEY_LAST_DRAIN_LATENCY_MS = "last_drain_latency_ms";
+    private static final String KEY_MAX_DRAIN_LATENCY_MS = "max_drain_latency_ms";
+
+    /**
+     * A pending request, standing for every request that was collapsed into it.
+     */
+    private static class Request {
+        String type;
+        long firstRequestedAt;
+        long lastRequestedAt;
+        int collapsed;
+    }
+
+    /* The whole contents of the file */
+    private static class State {
+        final List<Request> requests = new ArrayList<>();
+        long drained;
+        long lastDrainLatencyMs = -1;
+        long maxDrainLatencyMs = -1;
+    }
+
+    private SyncRequestQueue() {
+    }
+
+    /**
+     * Records that the user asked for a sync, collapsing it with the requests already pending.
+     * Does file I/O, so call it off the main thread.
+     *
+     * @param context Used to locate the app's files directory
+     * @param type    One of the TYPE_ constants
+     * @return How many requests are pending afterwards
+     */
+    public static synchronized int enqueue(Context context, String type) {
+        long now = System.currentTimeMillis();
+        State state = read(context);
+
+        if (TYPE_LOCATION_CHANGE.equals(type) || state.requests.isEmpty()) {
+            Request request = new Request();
+            request.type = type;
+            request.firstRequestedAt = now;
+            request.lastRequestedAt = now;
+            request.collapsed = 1;
+
+            /* Whatever was pending would only fetch the old location; this request covers it */
+            for (Request superseded : state.requests) {
+                request.firstRequestedAt =
+                        Math.min(request.firstRequestedAt, superseded.firstRequestedAt);
+                request.collapsed += superseded.collapsed;
+            }
+            state.requests.clear();
+            state.requests.add(request);
+        } else {
+            /* The pending request will fetch a fresh forecast anyway; it just mustn't run early */
+            Request pending = state.requests.get(state.requests.size() - 1);
+            pending.lastRequestedAt = now;
+            pending.collapsed++;
+        }
+
+        write(context, state);
+        return state.requests.size();
+    }
+
+    /**
+     * Takes the requests that a finished sync satisfied off the queue: those made before it
+     * started, unless it failed to reach the server, in which case they stay for the next try.
+     * Syncs that failed for any other reason wouldn't do better on a retry, so their requests
+     * are dropped too.
+     *
+     * @param context       Used to locate the app's files directory
+     * @param syncStartedAt When the sync started, in milliseconds since the epoch
+     * @param outcome       How the sync ended, one of SyncTrace's OUTCOME_ constants
+     * @return How many of the user's requests the sync satisfied, counting collapsed ones
+     */
+    public static synchronized int onSyncFinished(Context context, long syncStartedAt,
+                                                  String outcome) {
+        if (SyncTrace.OUTCOME_NETWORK_ERROR.equals(outcome)) {
+            return 0;
+        }
+
+        State state = read(context);
+        if (state.requests.isEmpty()) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        int drained = 0;
+        long oldestRequestedAt = Long.MAX_VALUE;
+        List<Request> remaining = new ArrayList<>();
+        for (Request request : state.requests) {
+            if (request.lastRequestedAt <= syncStartedAt) {
+                drained += request.collapsed;
+                oldestRequestedAt = Math.min(oldestRequestedAt, request.firstRequestedAt);
+            } else {
+                remaining.add(request);
+            }
+        }
+        if (drained == 0) {
+            return 0;
+        }
+
+        state.requests.clear();
+        state.requests.addAll(remaining);
+        state.drained += drained;
+        state.lastDrainLatencyMs = now - oldestRequestedAt;
+        state.maxDrainLatencyMs = Math.max(state.maxDrainLatencyMs, state.lastDrainLatencyMs);
+        write(context, state);
+
+        Log.i(TAG, "Drained " + drained + " sync request(s) after "
+                + state.lastDrainLatencyMs + "ms");
+        return drained;
+    }
+
+    /**
+     * @param context Used to locate the app's files directory
+     * @return How many requests are waiting for a sync
+     */
+    public static synchronized int getDepth(Context context) {
+        return read(context).requests.size();
+    }
+
+    /**
+     * @param context Used to locate the app's files directory
+     * @return How long, in milliseconds, the oldest request satisfied by the last sync that
+     * satisfied any had waited, or -1 if none has been
+     */
+    public static synchronized long getLastDrainLatencyMs(Context context) {
+        return read(context).lastDrainLatencyMs;
+    }
+
+    /**
+     * @param context Used to locate the app's files directory
+     * @return The pending requests and the drain statistics, as a JSON object
+     */
+    public static synchronized String exportJson(Context context) {
+        try {
+            return toJson(read(context)).toString();
+        } catch (JSONException e) {
+            return "{}";
+        }
+    }
+
+    /**
+     * Forgets every pending request and the drain statistics.
+     */
+    public static synchronized void clear(Context context) {
+        new File(context.getFilesDir(), FILE_NAME).delete();
+    }
+
+    /* The stored queue, or an empty one if there is none or the file can't be read */
+    private static State read(Context context) {
+        State state = new State();
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return state;
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                contents.write(buffer, 0, read);
+            }
+
+            JSONObject json = new JSONObject(contents.toString("UTF-8"));
+            JSONArray requests = json.getJSONArray(KEY_REQUESTS);
+            for (int i = 0; i < requests.length(); i++) {
+                JSONObject stored = requests.getJSONObject(i);
+                Request request = new Request();
+                request.type = stored.getString(KEY_TYPE);
+                request.firstRequestedAt = stored.getLong(KEY_FIRST_REQUESTED_AT);
+                request.lastRequestedAt = stored.getLong(KEY_LAST_REQUESTED_AT);
+                request.collapsed = stored.getInt(KEY_COLLAPSED);
+                state.requests.add(request);
+            }
+            state.drained = json.getLong(KEY_DRAINED);
+            state.lastDrainLatencyMs = json.getLong(KEY_LAST_DRAIN_LATENCY_MS);
+            state.maxDrainLatencyMs = json.getLong(KEY_MAX_DRAIN_LATENCY_MS);
+            return state;
+        } catch (IOException | JSONException e) {
+            /* Losing the queue costs a sync at most; the periodic job still runs */
+            Log.w(TAG, "Discarding unreadable sync requests", e);
+            return new State();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    /* Everything needed has been read */
+                }
+            }
+        }
+    }
+
+    private static void write(Context context, State state) {
+        try {
+            byte[] json = toJson(state).toString().getBytes("UTF-8");
+            AtomicFileWriter writer =
+                    AtomicFileWriter.start(new File(context.getFilesDir(), FILE_NAME));
+            try {
+                writer.getOutputStream().write(json);
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unable to write the sync requests", e);
+        }
+    }
+
+    private static JSONObject toJson(State state) throws JSONException {
+        JSONArray requests = new JSONArray();
+        for (Request request : state.requests) {
+            JSONObject stored = new JSONObject();
+            stored.put(KEY_TYPE, request.type);
+            stored.put(KEY_FIRST_REQUESTED_AT, request.firstRequestedAt);
+            stored.put(KEY_LAST_REQUESTED_AT, request.lastRequestedAt);
+            stored.put(KEY_COLLAPSED, request.collapsed);
+            requests.put(stored);
+        }
+
+        JSONObject json = new JSONObject();
+        json.put(KEY_REQUESTS, requests);
+        json.put(KEY_DRAINED, state.drained);
+        json.put(KEY_LAST_DRAIN_LATENCY_MS, state.lastDrainLatencyMs);
+        json.put(KEY_MAX_DRAIN_LATENCY_MS, state.maxDrainLatencyMs);
+        return json;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.SystemClock;
+
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A record of one sync run: how long each stage took, how much data went through it, and how
+ * the run ended. SunshineSyncTask fills one in as it goes and hands it to SyncTraceStore, so we
+ * can tell afterwards whether a slow or failed sync was down to the network, the parser or the
+ * database.
+ * <p>
+ * Stages are timed as spans, one per stage name, in the order they started. Only one span is
+ * open at a time; if the run fails, the open span is the stage that failed.
+ */
+public class SyncTrace {
+
+    /* Span names, in the order a sync normally runs them */
+    public static final String SPAN_URL_BUILD = "url_build";
+    /*
+     * Periodic syncs only: looking for a cached response to the same URL. A fresh one replaces
+     * the next three.
+     */
+    public static final String SPAN_RESPONSE_CACHE = "response_cache";
+    public static final String SPAN_CONNECT = "connect";
+    public static final String SPAN_TTFB = "ttfb";
+    /*
+     * Reading the daily response. Finer responses are parsed as they are read, so their download
+     * is timed as part of the parse.
+     */
+    public static final String SPAN_DOWNLOAD = "download";
+    public static final String SPAN_PARSE = "parse";
+    /* Only for hourly and three-hourly forecasts: storing the intervals and reading back days */
+    public static final String SPAN_INTERVALS = "intervals";
+    public static final String SPAN_STORE = "store";
+    public static final String SPAN_SNAPSHOT = "snapshot";
+    public static final String SPAN_HISTORY = "history";
+    public static final String SPAN_ALERTS = "alerts";
+    public static final String SPAN_NOTIFICATION = "notification";
+    public static final String SPAN_WATCH_PUBLISH = "watch_publish";
+
+    /* Count names */
+    /* How many days ahead the requested forecast reaches, after the endpoint's limit */
+    public static final String COUNT_HORIZON_DAYS = "horizon_days";
+    public static final String COUNT_RESPONSE_BYTES = "response_bytes";
+    public static final String COUNT_RESPONSE_CACHE_HITS = "response_cache_hits";
+    public static final String COUNT_INTERVALS = "intervals";
+    public static final String COUNT_ROWS = "rows";
+    public static final String COUNT_HISTORY_ROWS = "history_rows";
+    public static final String COUNT_ALERTS = "alerts";
+    public static final String COUNT_DRAINED_REQUESTS = "drained_requests";
+    public static final String COUNT_DRAIN_LATENCY_MS = "drain_latency_ms";
+
+    /* How the run ended */
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_EMPTY_RESPONSE = "empty_response";
+    public static final String OUTCOME_NO_DATA = "no_data";
+    public static final String OUTCOME_NETWORK_ERROR = "network_error";
+    /* The server rejected the request (HTTP 4xx); retrying it unchanged won't help */
+    public static final String OUTCOME_CLIENT_ERROR = "client_error";
+    /*
+     * The request couldn't be built from the settings and build; nothing on the network was
+     * tried, so a network coming back won't help either
+     */
+    public static final String OUTCOME_CONFIG_ERROR = "config_error";
+    public static final String OUTCOME_PARSE_ERROR = "parse_error";
+    public static final String OUTCOME_STORAGE_ERROR = "storage_error";
+    public static final String OUTCOME_UNKNOWN_ERROR = "unknown_error";
+
+    private final long mStartedAt = System.currentTimeMillis();
+    private final long mStartedAtElapsed = SystemClock.elapsedRealtime();
+
+    /* Span name to {start offset, duration} in milliseconds; duration is -1 while open */
+    private final Map<String, long[]> mSpans = new LinkedHashMap<>();
+    private final Map<String, Long> mCounts = new LinkedHashMap<>();
+
+    private String mOpenSpan;
+    private String mOutcome;
+    private String mError;
+    private long mDurationMs = -1;
+
+    /**
+     * Starts timing a stage, ending the one before it if it is still open.
+     */
+    public void beginSpan(String name) {
+        if (mOpenSpan != null) {
+            endSpan();
+        }
+        mSpans.put(name, new long[]{SystemClock.elapsedRealtime() - mStartedAtElapsed, -1});
+        mOpenSpan = name;
+    }
+
+    /**
+     * Stops timing the open stage, if there is one.
+     */
+    public void endSpan() {
+        if (mOpenSpan == null) {
+            return;
+        }
+        long[] span = mSpans.get(mOpenSpan);
+        span[1] = SystemClock.elapsedRealtime() - mStartedAtElapsed - span[0];
+        mOpenSpan = null;
+    }
+
+    public void setCount(String name, long value) {
+        mCounts.put(name, value);
+    }
+
+    /**
+     * Ends the run successfully or with a non-error outcome such as OUTCOME_NO_DATA.
+     */
+    public void finish(String outcome) {
+        endSpan();
+        mOutcome = outcome;
+        mDurationMs = SystemClock.elapsedRealtime() - mStartedAtElapsed;
+    }
+
+    /**
+     * Ends the run with an error, attributed to the stage that was running when it happened,
+     * unless the server rejected the request, which is a client error whatever the stage, or
+     * the connection dropped while the response was being parsed, which is a network error.
+     */
+    public void fail(Throwable error) {
+        String failedSpan = mOpenSpan;
+        mError = (failedSpan != null ? failedSpan + ": " : "") + error;
+        if (error instanceof NetworkUtils.ClientErrorException) {
+            finish(OUTCOME_CLIENT_ERROR);
+        } else if (error instanceof NetworkUtils.ResponseReadException) {
+            finish(OUTCOME_NETWORK_ERROR);
+        } else {
+            finish(outcomeForFailureIn(failedSpan));
+        }
+    }
+
+    public String getOutcome() {
+        return mOutcome;
+    }
+
+    /**
+     * @return When the run started, in milliseconds since the epoch
+     */
+    public long getStartedAt() {
+        return mStartedAt;
+    }
+
+    private static String outcomeForFailureIn(String span) {
+        if (span == null) {
+            return OUTCOME_UNKNOWN_ERROR;
+        }
+        switch (span) {
+            case SPAN_URL_BUILD:
+                return OUTCOME_CONFIG_ERROR;
+            case SPAN_CONNECT:
+            case SPAN_TTFB:
+            case SPAN_DOWNLOAD:
+                return OUTCOME_NETWORK_ERROR;
+            case SPAN_PARSE:
+                return OUTCOME_PARSE_ERROR;
+            case SPAN_INTERVALS:
+            case SPAN_STORE:
+            case SPAN_SNAPSHOT:
+            case SPAN_HISTORY:
+                return OUTCOME_STORAGE_ERROR;
+            default:
+                return OUTCOME_UNKNOWN_ERROR;
+        }
+    }
+
+    /**
+     * @return The trace as a JSON object, the form it is stored and exported in
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("started_at", mStartedAt);
+        json.put("duration_ms", mDurationMs);
+        json.put("outcome", mOutcome);
+        if (mError != null) {
+            json.put("error", mError);
+        }
+
+        JSONObject spans = new JSONObject();
+        for (Map.Entry<String, long[]> span : mSpans.entrySet()) {
+            JSONObject timing = new JSONObject();
+            timing.put("start_ms", span.getValue()[0]);
+            timing.put("duration_ms", span.getValue()[1]);
+            spans.put(span.getKey(), timing);
+        }
+        json.put("spans", spans);
+
+        JSONObject counts = new JSONObject();
+        for (Map.Entry<String, Long> count : mCounts.entrySet()) {
+            counts.put(count.getKey(), count.getValue().longValue());
+        }
+        json.put("counts", counts);
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder("Sync ").append(mOutcome)
+                .append(" in ").append(mDurationMs).append("ms");
+        for (Map.Entry<String, long[]> span : mSpans.entrySet()) {
+            summary.append(", ").append(span.getKey())
+                    .append('=').append(span.getValue()[1]).append("ms");
+        }
+        for (Map.Entry<String, Long> count : mCounts.entrySet()) {
+            summary.append(", ").append(count.getKey()).append('=').append(count.getValue());
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.AtomicFileWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps the traces of the most recent sync runs in a small file, oldest first, so they survive
+ * process death and can be exported for a look at how syncs have been going.
+ * <p>
+ * The store is a ring buffer: once it holds MAX_TRACES traces, recording one more drops the
+ * oldest. The file is replaced through AtomicFileWriter, so a crash part way through a write
+ * leaves the previous traces intact.
+ */
+public final class SyncTraceStore {
+
+    private static final String TAG = SyncTraceStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "sync_traces.json";
+
+    /* About a week of syncs at the default interval */
+    public static final int MAX_TRACES = 64;
+
+    private SyncTraceStore() {
+    }
+
+    /**
+     * Adds a finished trace to the store, dropping the oldest if the store is full.
+     *
+     * @param context Used to locate the app's files directory
+     * @param trace   The trace of a finished sync run
+     */
+    public static synchronized void record(Context context, SyncTrace trace) {
+        try {
+            JSONArray traces = read(context);
+            traces.put(trace.toJson());
+
+            JSONArray kept = new JSONArray();
+            for (int i = Math.max(0, traces.length() - MAX_TRACES); i < traces.length(); i++) {
+                kept.put(traces.get(i));
+            }
+            write(context, kept.toString());
+        } catch (JSONException | IOException e) {
+            Log.w(TAG, "Unable to record the sync trace", e);
+        }
+    }
+
+    /**
+     * @param context Used to locate the app's files directory
+     * @return Every stored trace, oldest first, as a JSON array
+     */
+    public static synchronized String exportJson(Context context) {
+        return read(context).toString();
+    }
+
+    /**
+     * Removes every stored trace.
+     */
+    public static synchronized void clear(Context context) {
+        new File(context.getFilesDir(), FILE_NAME).delete();
+    }
+
+    /* The stored traces, or an empty array if there are none or the file can't be read */
+    private static JSONArray read(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return new JSONArray();
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                contents.write(buffer, 0, read);
+            }
+            return new JSONArray(contents.toString("UTF-8"));
+        } catch (IOException | JSONException e) {
+            /* Diagnostics only; start over rather than fail the sync that is recording */
+            Log.w(TAG, "Discarding unreadable sync traces", e);
+            return new JSONArray();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    /* Everything needed has been read */
+                }
+            }
+        }
+    }
+
+    private static void write(Context context, String json) throws IOException {
+        AtomicFileWriter writer =
+                AtomicFileWriter.start(new File(context.getFilesDir(), FILE_NAME));
+        try {
+            writer.getOutputStream().write(json.getBytes("UTF-8"));
+            writer.commit();
+        } finally {
+            writer.abort();
+        }
+    }
+}
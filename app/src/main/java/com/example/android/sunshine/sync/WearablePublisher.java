@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.util.Base64;
+import android.util.Log;
+
+import com.example.android.sunshine.WatchFaceContract;
+import com.example.android.sunshine.data.ForecastSnapshot;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the forecast window to the watch face from the sync pipeline, so the watch stays
+ * fresh whether or not the phone app is ever opened. The watch keeps the window locally and
+ * moves on to the next day by itself, so it only needs to hear from us when the forecast changes.
+ * <p>
+ * The last payload that was successfully published is remembered, and nothing is written to
+ * the data layer unless the forecast differs from it. The one exception is a periodic refresh of
+ * an unchanged forecast, which keeps its issue time recent enough that the watch doesn't flag it
+ * as stale. All methods block and must be called off the main thread.
+ */
+public class WearablePublisher {
+
+    private static final String TAG = WearablePublisher.class.getSimpleName();
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+
+    /*
+     * How long an unchanged forecast may go without being republished. The watch face treats
+     * data older than twelve hours as stale, so this leaves room for a couple of missed syncs.
+     */
+    private static final long REFRESH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    /* SharedPreferences key for the Base64 encoded payload we last published */
+    private static final String PREF_LAST_PUBLISHED_PAYLOAD = "last_published_watch_payload";
+
+    /* SharedPreferences key for when we last published, in milliseconds since the epoch */
+    private static final String PREF_LAST_PUBLISHED_TIME = "last_published_watch_time";
+
+    /*
+     * The columns of data that we need to build the watch payload.
+     */
+    private static final String[] WATCH_FORECAST_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+    };
+
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+
+    /**
+     * Reads the forecast window, starting today, from the forecast snapshot (or the
+     * ContentProvider if there is none) and sends it to the watch if it differs from what the
+     * watch already has.
+     *
+     * @param context Used to query the ContentProvider and access SharedPreferences
+     * @return true if a new data item was written, false if nothing changed or publishing failed
+     */
+    synchronized public static boolean publishForecastWindow(Context context) {
+        WatchFaceContract.ForecastWindow window = buildForecastWindow(context);
+        if (window == null) {
+            return false;
+        }
+
+        /*
+         * The issue time changes on every call, so it is left out of the comparison; otherwise
+         * every sync would look like a change.
+         */
+        byte[] comparablePayload = WatchFaceContract.encode(window.withIssuedAt(0));
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastPublished = sp.getString(PREF_LAST_PUBLISHED_PAYLOAD, null);
+        long lastPublishedTime = sp.getLong(PREF_LAST_PUBLISHED_TIME, 0);
+        boolean refreshDue =
+                System.currentTimeMillis() - lastPublishedTime >= REFRESH_INTERVAL_MILLIS;
+        if (!refreshDue && lastPublished != null
+                && Arrays.equals(comparablePayload, Base64.decode(lastPublished, Base64.NO_WRAP))) {
+            Log.v(TAG, "Watch payload unchanged, skipping publish");
+            return false;
+        }
+
+        if (!putDataItem(context, WatchFaceContract.encode(window))) {
+            return false;
+        }
+
+        sp.edit()
+                .putString(PREF_LAST_PUBLISHED_PAYLOAD,
+                        Base64.encodeToString(comparablePayload, Base64.NO_WRAP))
+                .putLong(PREF_LAST_PUBLISHED_TIME, window.issuedAt)
+                .apply();
+        return true;
+    }
+
+    /**
+     * Forgets the last published payload so that the next publish always goes out, for example
+     * after a preference the payload depends on has changed.
+     */
+    public static void invalidate(Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .edit()
+                .remove(PREF_LAST_PUBLISHED_PAYLOAD)
+                .remove(PREF_LAST_PUBLISHED_TIME)
+                .apply();
+    }
+
+    private static WatchFaceContract.ForecastWindow buildForecastWindow(Context context) {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        /* The snapshot the sync just wrote has everything we need, without a provider query */
+        ForecastSnapshot snapshot = ForecastSnapshot.open(context);
+        if (snapshot != null && snapshot.indexOf(today) >= 0) {
+            return buildForecastWindow(context, snapshot, today);
+        }
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherUriFromDate(today),
+                WATCH_FORECAST_PROJECTION,
+                null,
+                null,
+                null);
+
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            /* The window must start today, or the watch would show some other day's weather */
+            if (!cursor.moveToFirst() || cursor.getLong(INDEX_DATE) != today) {
+                return null;
+            }
+
+            int dayCount = Math.min(cursor.getCount(), WatchFaceContract.MAX_DAYS);
+            int[] weatherIds = new int[dayCount];
+            double[] highs = new double[dayCount];
+            double[] lows = new double[dayCount];
+
+            int day = 0;
+            do {
+                /* Days in the payload are implicit, so stop at the first gap in the dates */
+                long expectedDate = today + SunshineDateUtils.DAY_IN_MILLIS * day;
+                if (cursor.getLong(INDEX_DATE) != expectedDate) {
+                    break;
+                }
+                weatherIds[day] = cursor.getInt(INDEX_WEATHER_ID);
+                highs[day] = cursor.getDouble(INDEX_MAX_TEMP);
+                lows[day] = cursor.getDouble(INDEX_MIN_TEMP);
+                day++;
+            } while (day < dayCount && cursor.moveToNext());
+
+            if (day < dayCount) {
+                weatherIds = Arrays.copyOf(weatherIds, day);
+                highs = Arrays.copyOf(highs, day);
+                lows = Arrays.copyOf(lows, day);
+            }
+
+            return new WatchFaceContract.ForecastWindow(
+                    System.currentTimeMillis(),
+                    today,
+                    SunshinePreferences.isMetric(context),
+                    weatherIds,
+                    highs,
+                    lows);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static WatchFaceContract.ForecastWindow buildForecastWindow(
+            Context context, ForecastSnapshot snapshot, long today) {
+        int first = snapshot.indexOf(today);
+        int dayCount = Math.min(snapshot.size() - first, WatchFaceContract.MAX_DAYS);
+        int[] weatherIds = new int[dayCount];
+        double[] highs = new double[dayCount];
+        double[] lows = new double[dayCount];
+
+        int day = 0;
+        while (day < dayCount) {
+            /* Days in the payload are implicit, so stop at the first gap in the dates */
+            long expectedDate = today + SunshineDateUtils.DAY_IN_MILLIS * day;
+            if (snapshot.getDate(first + day) != expectedDate) {
+                break;
+            }
+            weatherIds[day] = snapshot.getWeatherId(first + day);
+            highs[day] = snapshot.getMaxTemp(first + day);
+            lows[day] = snapshot.getMinTemp(first + day);
+            day++;
+        }
+
+        if (day < dayCount) {
+            weatherIds = Arrays.copyOf(weatherIds, day);
+            highs = Arrays.copyOf(highs, day);
+            lows = Arrays.copyOf(lows, day);
+        }
+
+        return new WatchFaceContract.ForecastWindow(
+                System.currentTimeMillis(),
+                today,
+                SunshinePreferences.isMetric(context),
+                weatherIds,
+                highs,
+                lows);
+    }
+
+    private static boolean putDataItem(Context context, byte[] payload) {
+        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+
+        ConnectionResult connectionResult =
+                googleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!connectionResult.isSuccess()) {
+            Log.w(TAG, "Unable to connect to the wearable data layer: " + connectionResult);
+            return false;
+        }
+
+        try {
+            PutDataMapRequest putDataMapReq =
+                    PutDataMapRequest.create(WatchFaceContract.PATH_WEATHER);
+            putDataMapReq.getDataMap().putByteArray(WatchFaceContract.KEY_WEATHER, payload);
+            PutDataRequest request = putDataMapReq.asPutDataRequest();
+
+            DataApi.DataItemResult result = Wearable.DataApi
+                    .putDataItem(googleApiClient, request)
+                    .await(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            if (!result.getStatus().isSuccess()) {
+                Log.w(TAG, "Publishing to the watch failed: " + result.getStatus());
+                return false;
+            }
+            return true;
+        } finally {
+            googleApiClient.disconnect();
+        }
+    }
+}
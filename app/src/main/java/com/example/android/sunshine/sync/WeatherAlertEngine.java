@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.data.ForecastSnapshot;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides whether a new forecast has changed enough from the one before it to be worth telling
+ * the user about straight away, rather than waiting for the once-a-day "weather updated"
+ * notification.
+ * <p>
+ * The previous forecast is read from the ForecastSnapshot the last sync left behind, so nothing
+ * is read from the database. Only days whose values changed are looked at, and only the next
+ * few days, which keeps the work the same however long the forecast is. For each changed day
+ * the rules are, most important first:
+ * <ol>
+ * <li>Severe weather (thunderstorms, tornadoes, hurricanes and the like) is now forecast</li>
+ * <li>Rain or snow is now forecast where it wasn't before</li>
+ * <li>The high or low moved by at least {@link #TEMPERATURE_SWING_CELSIUS}</li>
+ * </ol>
+ * Every alert raised is remembered until its day has passed, so the same alert for the same day
+ * is never raised twice, however many syncs see it.
+ */
+public final class WeatherAlertEngine {
+
+    /* Alert types, in order of importance */
+    public static final int ALERT_SEVERE_WEATHER = 0;
+    public static final int ALERT_PRECIPITATION = 1;
+    public static final int ALERT_TEMPERATURE_SWING = 2;
+
+    /* How far the high or low has to move, in °C, to be worth an alert */
+    static final double TEMPERATURE_SWING_CELSIUS = 5;
+
+    /* Days from today that alerts are raised for; changes further out are likely to change again */
+    static final int HORIZON_DAYS = 3;
+
+    /* Alerts already raised, as comma separated "date:type" keys */
+    private static final String PREF_RAISED_ALERTS = "raised_weather_alerts";
+
+    /**
+     * A change in the forecast worth telling the user about.
+     */
+    public static class Alert {
+        public final int type;
+        public final long date;
+        public final int weatherId;
+        public final double high;
+        public final double low;
+
+        Alert(int type, long date, int weatherId, double high, double low) {
+            this.type = type;
+            this.date = date;
+            this.weatherId = weatherId;
+            this.high = high;
+            this.low = low;
+        }
+
+        String key() {
+            return date + ":" + type;
+        }
+    }
+
+    private WeatherAlertEngine() {
+    }
+
+    /**
+     * Compares a new forecast with the previous one and returns the alerts it raises that
+     * haven't been raised before. The returned alerts are recorded as raised.
+     *
+     * @param context  Used to access SharedPreferences
+     * @param previous The snapshot of the previous forecast, or null if there is none, in which
+     *                 case there is nothing to compare with and no alerts are raised
+     * @param forecast One WeatherEntry ContentValues per day of the new forecast, in any order
+     * @return The new alerts, most important first
+     */
+    public static List<Alert> evaluate(Context context, ForecastSnapshot previous,
+                                       ContentValues[] forecast) {
+        List<Alert> alerts = new ArrayList<>();
+        if (previous == null) {
+            return alerts;
+        }
+
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long horizon = today + HORIZON_DAYS * SunshineDateUtils.DAY_IN_MILLIS;
+        Set<String> raised = readRaisedAlerts(context, today);
+
+        for (ContentValues day : forecast) {
+            long date = day.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (date < today || date >= horizon) {
+                continue;
+            }
+            int previousIndex = previous.indexOf(date);
+            if (previousIndex < 0) {
+                continue;
+            }
+
+            int weatherId = day.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            double high = day.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+            double low = day.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+            int previousWeatherId = previous.getWeatherId(previousIndex);
+            double previousHigh = previous.getMaxTemp(previousIndex);
+            double previousLow = previous.getMinTemp(previousIndex);
+            if (weatherId == previousWeatherId && high == previousHigh && low == previousLow) {
+                continue;
+            }
+
+            Alert alert = null;
+            if (isSevere(weatherId) && !isSevere(previousWeatherId)) {
+                alert = new Alert(ALERT_SEVERE_WEATHER, date, weatherId, high, low);
+            } else if (isPrecipitation(weatherId) && !isPrecipitation(previousWeatherId)) {
+                alert = new Alert(ALERT_PRECIPITATION, date, weatherId, high, low);
+            }
+            if (alert != null && raised.add(alert.key())) {
+                alerts.add(alert);
+            }
+
+            if (Math.abs(high - previousHigh) >= TEMPERATURE_SWING_CELSIUS
+                    || Math.abs(low - previousLow) >= TEMPERATURE_SWING_CELSIUS) {
+                Alert swing = new Alert(ALERT_TEMPERATURE_SWING, date, weatherId, high, low);
+                if (raised.add(swing.key())) {
+                    alerts.add(swing);
+                }
+            }
+        }
+
+        /* Writing also drops the keys of days that have passed */
+        if (!alerts.isEmpty()) {
+            writeRaisedAlerts(context, raised);
+        }
+
+        Collections.sort(alerts, new Comparator<Alert>() {
+            @Override
+            public int compare(Alert a, Alert b) {
+                if (a.type != b.type) {
+                    return a.type - b.type;
+                }
+                return a.date < b.date ? -1 : (a.date == b.date ? 0 : 1);
+            }
+        });
+        return alerts;
+    }
+
+    /**
+     * Forgets every alert raised so far, so they can be raised again.
+     */
+    public static void reset(Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .edit()
+                .remove(PREF_RAISED_ALERTS)
+                .apply();
+    }
+
+    /* Thunderstorms, and the extreme and high wind groups */
+    static boolean isSevere(int weatherId) {
+        return (weatherId >= 200 && weatherId <= 232)
+                || weatherId == 771 || weatherId == 781
+                || (weatherId >= 900 && weatherId <= 906)
+                || (weatherId >= 958 && weatherId <= 962);
+    }
+
+    /* Thunderstorms, drizzle, rain and snow */
+    static boolean isPrecipitation(int weatherId) {
+        return (weatherId >= 200 && weatherId <= 232)
+                || (weatherId >= 300 && weatherId <= 321)
+                || (weatherId >= 500 && weatherId <= 531)
+                || (weatherId >= 600 && weatherId <= 622);
+    }
+
+    /* The raised alert keys, without those for days before today */
+    private static Set<String> readRaisedAlerts(Context context, long today) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String stored = sp.getString(PREF_RAISED_ALERTS, "");
+        Set<String> raised = new LinkedHashSet<>();
+        for (String key : TextUtils.split(stored, ",")) {
+            int separator = key.indexOf(':');
+            try {
+                if (separator > 0 && Long.parseLong(key.substring(0, separator)) >= today) {
+                    raised.add(key);
+                }
+            } catch (NumberFormatException ignored) {
+                /* Not one of ours; drop it */
+            }
+        }
+        return raised;
+    }
+
+    private static void writeRaisedAlerts(Context context, Set<String> raised) {
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .edit()
+                .putString(PREF_RAISED_ALERTS, TextUtils.join(",", raised))
+                .apply();
+    }
+}
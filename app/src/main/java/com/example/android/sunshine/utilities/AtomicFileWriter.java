@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Replaces a file in one step, so that a crash part way through a write leaves the old file
+ * intact. The new contents go to a temporary file next to it, which commit flushes to disk and
+ * renames over the old file. Renames are atomic, and a reader that already opened or mapped the
+ * old file keeps seeing it whole.
+ * <p>
+ * The framework's AtomicFile isn't used because it moves the old file aside to a backup while
+ * writing, and a file that briefly isn't there would send readers to their slow path.
+ * <p>
+ * Use it like this, so the temporary file is always cleaned up:
+ * <pre>
+ *     AtomicFileWriter writer = AtomicFileWriter.start(file);
+ *     try {
+ *         writer.getOutputStream().write(contents);
+ *         writer.commit();
+ *     } finally {
+ *         writer.abort();
+ *     }
+ * </pre>
+ */
+public final class AtomicFileWriter {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mFile;
+    private final File mTemp;
+    private final FileOutputStream mOut;
+
+    private boolean mDone;
+
+    private AtomicFileWriter(File file, File temp, FileOutputStream out) {
+        mFile = file;
+        mTemp = temp;
+        mOut = out;
+    }
+
+    /**
+     * Starts writing a replacement for the given file. Nothing changes until commit is called.
+     *
+     * @param file The file to replace. It needn't exist yet, but its directory must.
+     * @return A writer for the new contents
+     * @throws IOException If the temporary file can't be created
+     */
+    public static AtomicFileWriter start(File file) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        return new AtomicFileWriter(file, temp, new FileOutputStream(temp));
+    }
+
+    /**
+     * @return The stream to write the new contents to. Flush anything wrapped around it before
+     * calling commit, but don't close it; commit and abort do.
+     */
+    public FileOutputStream getOutputStream() {
+        return mOut;
+    }
+
+    /**
+     * Puts the new contents in place of the old file. If that fails, the old file is left as it
+     * was and the new contents are discarded.
+     *
+     * @throws IOException If the new contents couldn't be written to disk or moved into place
+     */
+    public void commit() throws IOException {
+        if (mDone) {
+            throw new IllegalStateException("Already committed or aborted");
+        }
+        mDone = true;
+        try {
+            /* The rename must not reach the disk before the data it points to */
+            mOut.getFD().sync();
+            mOut.close();
+            if (!mTemp.renameTo(mFile)) {
+                throw new IOException("Unable to move " + mFile.getName() + " into place");
+            }
+        } catch (IOException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Discards the new contents, if they weren't committed. Safe to call after commit.
+     */
+    public void abort() {
+        if (mDone) {
+            return;
+        }
+        mDone = true;
+        discard();
+    }
+
+    private void discard() {
+        try {
+            mOut.close();
+        } catch (IOException ignored) {
+            /* The temporary file is deleted either way */
+        }
+        mTemp.delete();
+    }
+}
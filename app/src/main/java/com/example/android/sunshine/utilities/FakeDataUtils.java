@@ -6,6 +6,7 @@ import android.content.Context;
 import com.example.android.sunshine.data.WeatherContract;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -51,4 +52,78 @@ public class FakeDataUtils {
                 WeatherContract.WeatherEntry.CONTENT_URI,
                 fakeValues.toArray(new ContentValues[7]));
     }
+
+    /* How many rows to hand the provider per bulk insert when loading synthetic data */
+    private static final int SYNTHETIC_BATCH_SIZE = 500;
+
+    /**
+     * Fills the weather table with a synthetic forecast, through the same bulk insert a sync
+     * uses, in batches so that years of days never have to be held in memory at once. The
+     * weather table has no location column, so it holds one site at a time.
+     *
+     * @param context   Used to get the ContentResolver
+     * @param generator Generates the weather; the same seed always fills in the same rows
+     * @param site      The site whose weather to generate
+     * @param firstDate The normalized UTC date of the first day
+     * @param days      How many days to insert; years of them make for a long list to scroll
+     * @return The number of rows inserted
+     */
+    public static int insertSyntheticForecast(Context context,
+                                              SyntheticWeatherGenerator generator,
+                                              SyntheticWeatherGenerator.Site site,
+                                              long firstDate, int days) {
+        int rowsInserted = 0;
+        for (int start = 0; start < days; start += SYNTHETIC_BATCH_SIZE) {
+            int count = Math.min(SYNTHETIC_BATCH_SIZE, days - start);
+            ContentValues[] batch = generator.createDays(site,
+                    firstDate + start * SunshineDateUtils.DAY_IN_MILLIS, count);
+            rowsInserted += context.getContentResolver().bulkInsert(
+                    WeatherContract.WeatherEntry.CONTENT_URI, batch);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Fills the forecast history with what the given number of syncs a day would have stored
+     * over the last days, one bulk insert per day, through the same path a sync uses. That path
+     * applies retention and compaction as it goes, so what is left afterwards is what the
+     * history settles at after that long with the current retention preference: pass
+     * days, syncsPerDay and forecastDays at their largest to test at the largest size the
+     * tables reach. Every day's forecasts are archived under the current location.
+     *
+     * @param context      Used to get the ContentResolver
+     * @param generator    Generates the forecasts
+     * @param site         The site whose forecasts to generate
+     * @param days         How many days back to start, today included
+     * @param syncsPerDay  How many forecasts were issued each day, evenly spaced
+     * @param forecastDays How many days each forecast covers
+     * @return The number of rows inserted, before retention and compaction removed any
+     */
+    public static int insertSyntheticHistory(Context context,
+                                             SyntheticWeatherGenerator generator,
+                                             SyntheticWeatherGenerator.Site site,
+                                             int days, int syncsPerDay, int forecastDays) {
+        long now = System.currentTimeMillis();
+        long today = SunshineDateUtils.normalizeDate(now);
+        long syncInterval = SunshineDateUtils.DAY_IN_MILLIS / syncsPerDay;
+
+        int rowsInserted = 0;
+        List<ContentValues> dayValues = new ArrayList<>(syncsPerDay * forecastDays);
+        for (int ago = days - 1; ago >= 0; ago--) {
+            long day = today - ago * SunshineDateUtils.DAY_IN_MILLIS;
+            dayValues.clear();
+            for (int sync = 0; sync < syncsPerDay; sync++) {
+                long issuedAt = day + sync * syncInterval;
+                /* Nothing has been issued later today yet */
+                if (issuedAt > now) {
+                    break;
+                }
+                Collections.addAll(dayValues, generator.createIssue(site, issuedAt, forecastDays));
+            }
+            rowsInserted += context.getContentResolver().bulkInsert(
+                    WeatherContract.WeatherHistoryEntry.CONTENT_URI,
+                    dayValues.toArray(new ContentValues[dayValues.size()]));
+        }
+        return rowsInserted;
+    }
 }
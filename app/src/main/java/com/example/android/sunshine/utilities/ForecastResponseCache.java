@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Recent forecast responses, kept in the app's cache directory and keyed by the URL they were
+ * fetched from, less our API key.
+ * <p>
+ * NetworkUtils.getUrl rounds coordinates to their GeoBucket before building the URL, and the URL
+ * carries the units, the endpoint and how much forecast was asked for, so the URL is the bucket
+ * and the units plus everything else that changes the response. A periodic sync that runs soon
+ * after another sync for the same bucket, such as one for a nearby location, is then answered
+ * from here instead of the network for as long as the response is fresh. Syncs the user asked
+ * for always fetch the server's latest forecast, and only refresh the cache.
+ * <p>
+ * Responses are never held in memory whole. A response is copied into the cache as it is read
+ * from the network (see Editor), and a cached one is read back as a stream. Only responses that
+ * parsed into a forecast should be committed, so a server error is never replayed. Each response
+ * is put in place through AtomicFileWriter, and the oldest ones are deleted once there are more
+ * than MAX_ENTRIES. The system may also clear the cache directory at any time, which only costs a
+ * download.
+ */
+public final class ForecastResponseCache {
+
+    private static final String TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "forecast_responses";
+
+    /* How long a response stays fresh: well under the interval between periodic syncs */
+    public static final long MAX_AGE_MILLIS = 60 * 60 * 1000;
+
+    /* How many responses to keep, one per bucket, endpoint and length of forecast */
+    private static final int MAX_ENTRIES = 8;
+
+    private ForecastResponseCache() {
+    }
+
+    /**
+     * Opens the cached response to the given URL, if it was stored less than MAX_AGE_MILLIS
+     * ago. Does file I/O, so call it off the main thread.
+     *
+     * @param context Used to locate the app's cache directory
+     * @param url     The URL the response would be fetched from
+     * @return The body of the response, which the caller must close, or null if there is none
+     * fresh enough
+     */
+    public static synchronized InputStream open(Context context, URL url) {
+        File file = fileFor(context, url);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            /* The file name is a hash of the URL, so check the URL itself */
+            if (keyFor(url).equals(in.readUTF())) {
+                long age = System.currentTimeMillis() - in.readLong();
+                if (age >= 0 && age <= MAX_AGE_MILLIS) {
+                    /* The body runs from here to the end of the file */
+                    InputStream body = in;
+                    in = null;
+                    return body;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable cached response", e);
+            file.delete();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    /* The response isn't being returned */
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts storing a response about to be fetched from the given URL, replacing any older one
+     * once committed. Does file I/O, so call it off the main thread.
+     *
+     * @param context Used to locate the app's cache directory
+     * @param url     The URL the response is fetched from
+     * @return An Editor to copy the response into, or null if the cache can't be written
+     */
+    public static synchronized Editor edit(Context context, URL url) {
+        File directory = getDirectory(context);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Unable to create the response cache");
+            return null;
+        }
+
+        AtomicFileWriter writer = null;
+        try {
+            writer = AtomicFileWriter.start(fileFor(context, url));
+            DataOutputStream header = new DataOutputStream(writer.getOutputStream());
+            header.writeUTF(keyFor(url));
+            header.writeLong(System.currentTimeMillis());
+            header.flush();
+            Editor editor = new Editor(directory, writer);
+            writer = null;
+            return editor;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to cache the response", e);
+            return null;
+        } finally {
+            if (writer != null) {
+                writer.abort();
+            }
+        }
+    }
+
+    /**
+     * Forgets every cached response.
+     */
+    public static synchronized void clear(Context context) {
+        File[] files = getDirectory(context).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * A response being copied into the cache as it is read. Wrap the response with copyOf, read
+     * it, and then either commit the copy once the response has parsed into a forecast, or abort
+     * it. Failing to write the copy never fails the read; the response just isn't cached.
+     */
+    public static final class Editor {
+
+        private final File mDirectory;
+        private final AtomicFileWriter mWriter;
+
+        private InputStream mSource;
+        private boolean mFailed;
+        private boolean mDone;
+
+        private Editor(File directory, AtomicFileWriter writer) {
+            mDirectory = directory;
+            mWriter = writer;
+        }
+
+        /**
+         * Returns a stream that reads the given response and copies whatever is read into the
+         * cache.
+         */
+        public InputStream copyOf(InputStream response) {
+            mSource = new FilterInputStream(response) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        copy(new byte[]{(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0) {
+                        copy(buffer, offset, read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long count) throws IOException {
+                    /* Skipped bytes are part of the response too, so read them */
+                    byte[] buffer = new byte[(int) Math.min(count, 8192)];
+                    int read = read(buffer, 0, buffer.length);
+                    return Math.max(read, 0);
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+            return mSource;
+        }
+
+        /**
+         * Reads whatever the parser left of the response, such as trailing whitespace, and puts
+         * the copy in place of any older response to the same URL. The forecast has already
+         * been read by then, so failing to finish the copy only logs a warning.
+         */
+        public void commit() {
+            if (mDone) {
+                return;
+            }
+            try {
+                byte[] buffer = new byte[8192];
+                while (mSource != null && mSource.read(buffer) != -1) {
+                    /* Copied as it is read */
+                }
+                /* A copy that failed part way is missing some of the response */
+                if (!mFailed) {
+                    synchronized (ForecastResponseCache.class) {
+                        mWriter.commit();
+                        trim(mDirectory);
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to cache the response", e);
+            } finally {
+                mDone = true;
+                mWriter.abort();
+            }
+        }
+
+        /**
+         * Discards the copy, if it wasn't committed. Safe to call after commit.
+         */
+        public void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            mWriter.abort();
+        }
+
+        private void copy(byte[] buffer, int offset, int count) {
+            if (mFailed || mDone) {
+                return;
+            }
+            try {
+                mWriter.getOutputStream().write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to cache the response", e);
+                mFailed = true;
+            }
+        }
+    }
+
+    /* Deletes the least recently stored responses beyond MAX_ENTRIES */
+    private static void trim(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_ENTRIES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified > secondModified ? -1
+                        : firstModified < secondModified ? 1 : 0;
+            }
+        });
+        for (int i = MAX_ENTRIES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static File getDirectory(Context context) {
+        return new File(context.getCacheDir(), DIRECTORY_NAME);
+    }
+
+    private static File fileFor(Context context, URL url) {
+        return new File(getDirectory(context), Integer.toHexString(keyFor(url).hashCode()));
+    }
+
+    /*
+     * What a response is stored under: the URL without our API key, which must not be saved to
+     * disk. The key is the same for every request the build makes, so leaving it out doesn't
+     * make two different requests look alike.
+     */
+    private static String keyFor(URL url) {
+        return NetworkUtils.withoutApiKey(url);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+/**
+ * The geohash cell a location falls in, and the cell's center.
+ * <p>
+ * Weather is forecast on a grid a few kilometers across, so there is nothing to gain from asking
+ * for the forecast at the exact coordinates a GPS fix happened to give us, and a lot to lose:
+ * every fix differs from the last in the last few decimals, which makes every request URL new
+ * and defeats any cache. Asking for the center of the location's cell instead gives every
+ * location in the cell the same URL.
+ * <p>
+ * A geohash of a given precision (length) names one cell of a fixed grid. Each extra character
+ * makes cells 4 to 8 times smaller: at 5 characters, the default, they are about 4.9 km by
+ * 4.9 km at the equator; at 6, about 1.2 km by 0.6 km.
+ */
+public final class GeoBucket {
+
+    /* Geohash precisions, in characters */
+    public static final int DEFAULT_PRECISION = 5;
+    public static final int MAX_PRECISION = 12;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    /* The cell's geohash, e.g. "9q9hv" for Mountain View at the default precision */
+    public final String geohash;
+
+    /* The coordinates of the cell's center */
+    public final double latitude;
+    public final double longitude;
+
+    private GeoBucket(String geohash, double latitude, double longitude) {
+        this.geohash = geohash;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Finds the cell the given coordinates fall in.
+     *
+     * @param latitude  Latitude in degrees, -90 to 90
+     * @param longitude Longitude in degrees, -180 to 180
+     * @param precision Length of the geohash, 1 to MAX_PRECISION
+     * @return The cell, with its geohash and center
+     */
+    public static GeoBucket forCoordinates(double latitude, double longitude, int precision) {
+        if (precision < 1 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Geohash precision out of range: " + precision);
+        }
+
+        double minLatitude = -90;
+        double maxLatitude = 90;
+        double minLongitude = -180;
+        double maxLongitude = 180;
+
+        /* Bits alternate between longitude and latitude, starting with longitude, 5 per char */
+        StringBuilder geohash = new StringBuilder(precision);
+        boolean longitudeBit = true;
+        int bits = 0;
+        int character = 0;
+        while (geohash.length() < precision) {
+            if (longitudeBit) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                if (longitude >= middle) {
+                    character = (character << 1) | 1;
+                    minLongitude = middle;
+                } else {
+                    character <<= 1;
+                    maxLongitude = middle;
+                }
+            } else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                if (latitude >= middle) {
+                    character = (character << 1) | 1;
+                    minLatitude = middle;
+                } else {
+                    character <<= 1;
+                    maxLatitude = middle;
+                }
+            }
+            longitudeBit = !longitudeBit;
+
+            if (++bits == 5) {
+                geohash.append(BASE32[character]);
+                bits = 0;
+                character = 0;
+            }
+        }
+
+        return new GeoBucket(geohash.toString(),
+                (minLatitude + maxLatitude) / 2,
+                (minLongitude + maxLongitude) / 2);
+    }
+}
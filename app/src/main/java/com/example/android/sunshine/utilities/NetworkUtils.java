@@ -17,16 +17,24 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.Build;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.sunshine.BuildConfig;
 import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.WeatherIntervalEntry;
+import com.example.android.sunshine.sync.SyncTrace;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -56,6 +64,23 @@ public final class NetworkUtils {
 
     private static final String FORECAST_BASE_URL = STATIC_WEATHER_URL;
 
+    /*
+     * Our weather server only has daily forecasts. Finer forecasts come from OpenWeatherMap's own
+     * endpoints, which return one element per interval rather than per day, in a slightly
+     * different format (see OpenWeatherJsonUtils.getWeatherIntervalContentValuesFromJson).
+     *
+     * Those endpoints answer 401 to requests without an API key, so they are only used when the
+     * build has one (see app/build.gradle). The hourly one also needs a paid plan.
+     */
+    private static final String THREE_HOURLY_FORECAST_URL =
+            "https://api.openweathermap.org/data/2.5/forecast";
+
+    private static final String HOURLY_FORECAST_URL =
+            "https://pro.openweathermap.org/data/2.5/forecast/hourly";
+
+    /* The API key parameter of OpenWeatherMap's endpoints; never sent to our weather server */
+    private static final String APPID_PARAM = "APPID";
+
     /*
      * NOTE: These values only effect responses from OpenWeatherMap, NOT from the fake weather
      * server. They are simply here to allow us to teach you how to build a URL if you were to use
@@ -67,9 +92,6 @@ public final class NetworkUtils {
     private static final String format = "json";
     /* The units we want our API to return */
     private static final String units = "metric";
-    /* The number of days we want our API to return */
-    private static final int numDays = 14;
-
     /* The query parameter allows us to provide a location string to the API */
     private static final String QUERY_PARAM = "q";
 
@@ -80,12 +102,23 @@ public final class NetworkUtils {
     private static final String FORMAT_PARAM = "mode";
     /* The units parameter allows us to designate whether we want metric units or imperial units */
     private static final String UNITS_PARAM = "units";
-    /* The days parameter allows us to designate how many days of weather data we want */
+    /*
+     * The count parameter allows us to designate how many elements of weather data we want: days
+     * for the daily forecast, intervals for the finer ones.
+     */
     private static final String DAYS_PARAM = "cnt";
 
+    /*
+     * The most elements each endpoint returns, however many are asked for: 16 days, 5 days of
+     * three-hourly intervals and 4 days of hourly ones.
+     */
+    private static final int MAX_DAILY_COUNT = WeatherContract.WeatherEntry.MAX_FORECAST_DAYS;
+    private static final int MAX_THREE_HOURLY_COUNT = 40;
+    private static final int MAX_HOURLY_COUNT = 96;
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
-     * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
+     * well as {@link #buildUrlWithLocationQuery(String, String, int)} is two fold.
      * <p>
      * 1) You should be able to just use one method when you need to create the URL within the
      * app instead of calling both methods.
@@ -98,37 +131,148 @@ public final class NetworkUtils {
      * @return URL to query weather service
      */
     public static URL getUrl(Context context) {
+        /*
+         * The user chooses how many days ahead to look and how finely. A finer forecast is asked
+         * for as however many intervals fit in those days, up to what its endpoint serves.
+         */
+        int forecastDays = SunshinePreferences.getForecastDays(context);
+        long resolution = SunshinePreferences.getForecastResolution(context);
+        int count = getForecastCount(resolution, forecastDays);
+        if (count * resolution < forecastDays * SunshineDateUtils.DAY_IN_MILLIS) {
+            Log.w(TAG, "Forecast cut short to " + getForecastHorizonDays(context) + " of "
+                    + forecastDays + " days at this resolution");
+        }
+        String baseUrl;
+        if (resolution == WeatherIntervalEntry.RESOLUTION_HOURLY) {
+            baseUrl = withApiKey(HOURLY_FORECAST_URL);
+        } else if (resolution == WeatherIntervalEntry.RESOLUTION_THREE_HOURLY) {
+            baseUrl = withApiKey(THREE_HOURLY_FORECAST_URL);
+        } else {
+            baseUrl = FORECAST_BASE_URL;
+        }
+
         if (SunshinePreferences.isLocationLatLonAvailable(context)) {
             double[] preferredCoordinates = SunshinePreferences.getLocationCoordinates(context);
             double latitude = preferredCoordinates[0];
             double longitude = preferredCoordinates[1];
-            return buildUrlWithLatitudeLongitude(latitude, longitude);
+
+            /*
+             * Ask for the center of the cell the location falls in rather than the exact spot, so
+             * that a location that moved by a few meters is still the same URL, and so the same
+             * cached response (see ForecastResponseCache).
+             */
+            GeoBucket bucket = GeoBucket.forCoordinates(latitude, longitude,
+                    SunshinePreferences.getGeoBucketPrecision(context));
+            return buildUrlWithLatitudeLongitude(baseUrl, bucket.latitude, bucket.longitude,
+                    count);
         } else {
             String locationQuery = SunshinePreferences.getPreferredWeatherLocation(context);
-            return buildUrlWithLocationQuery(locationQuery);
+            return buildUrlWithLocationQuery(baseUrl, locationQuery, count);
+        }
+    }
+
+    /**
+     * Returns how many elements of forecast to ask for: as many days, or intervals of the given
+     * resolution, as fit in the given number of days, but no more than the endpoint for that
+     * resolution will return.
+     *
+     * @param resolution   One of the RESOLUTION_ constants in {@link WeatherIntervalEntry}
+     * @param forecastDays How many days ahead the forecast should reach
+     * @return The value of the count parameter
+     */
+    public static int getForecastCount(long resolution, int forecastDays) {
+        int maxCount;
+        if (resolution == WeatherIntervalEntry.RESOLUTION_HOURLY) {
+            maxCount = MAX_HOURLY_COUNT;
+        } else if (resolution == WeatherIntervalEntry.RESOLUTION_THREE_HOURLY) {
+            maxCount = MAX_THREE_HOURLY_COUNT;
+        } else {
+            maxCount = MAX_DAILY_COUNT;
+        }
+        int count = (int) (forecastDays * SunshineDateUtils.DAY_IN_MILLIS / resolution);
+        return Math.min(count, maxCount);
+    }
+
+    /**
+     * Returns how many days ahead the forecast getUrl asks for actually reaches. That is the
+     * number of days in the preferences, unless the endpoint for the preferred resolution can't
+     * serve that many, in which case it is as many as it can.
+     *
+     * @param context Used to access the preferences
+     * @return The forecast horizon, in days
+     */
+    public static int getForecastHorizonDays(Context context) {
+        long resolution = SunshinePreferences.getForecastResolution(context);
+        int count = getForecastCount(resolution, SunshinePreferences.getForecastDays(context));
+        return (int) (count * resolution / SunshineDateUtils.DAY_IN_MILLIS);
+    }
+
+    /**
+     * Returns whether forecasts of the given resolution can be fetched at all. Daily ones always
+     * can. Finer ones need an OpenWeatherMap API key in the build, the hourly one a key whose plan
+     * includes it, and a device that can stream the larger responses (Honeycomb or later).
+     *
+     * @param resolution One of the RESOLUTION_ constants in {@link WeatherIntervalEntry}
+     * @return Whether getUrl may ask for that resolution
+     */
+    public static boolean isResolutionAvailable(long resolution) {
+        if (resolution == WeatherIntervalEntry.RESOLUTION_DAILY) {
+            return true;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+                || TextUtils.isEmpty(BuildConfig.OWM_API_KEY)) {
+            return false;
         }
+        return resolution == WeatherIntervalEntry.RESOLUTION_THREE_HOURLY
+                || (resolution == WeatherIntervalEntry.RESOLUTION_HOURLY
+                        && BuildConfig.OWM_HOURLY_FORECASTS);
+    }
+
+    /* The given OpenWeatherMap endpoint with our API key added */
+    private static String withApiKey(String endpoint) {
+        return Uri.parse(endpoint).buildUpon()
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OWM_API_KEY)
+                .build()
+                .toString();
+    }
+
+    /**
+     * Returns the given URL as a string with our API key taken out, for anything that outlives
+     * the request, such as the log. The key is a secret of the build, not part of what was asked
+     * for.
+     *
+     * @param url A URL built by getUrl
+     * @return The URL without its APPID parameter, if it had one
+     */
+    public static String withoutApiKey(URL url) {
+        return url.toString()
+                .replaceFirst("([?&])" + APPID_PARAM + "=[^&#]*(&|$)", "$1")
+                .replaceFirst("[?&]$", "");
     }
 
     /**
      * Builds the URL used to talk to the weather server using latitude and longitude of a
      * location.
      *
+     * @param baseUrl   The forecast endpoint to query
      * @param latitude  The latitude of the location
      * @param longitude The longitude of the location
+     * @param count     How many days or intervals of forecast to ask for
      * @return The Url to use to query the weather server.
      */
-    private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
-        Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+    private static URL buildUrlWithLatitudeLongitude(String baseUrl, Double latitude,
+                                                     Double longitude, int count) {
+        Uri weatherQueryUri = Uri.parse(baseUrl).buildUpon()
                 .appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
                 .appendQueryParameter(LON_PARAM, String.valueOf(longitude))
                 .appendQueryParameter(FORMAT_PARAM, format)
                 .appendQueryParameter(UNITS_PARAM, units)
-                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(count))
                 .build();
 
         try {
             URL weatherQueryUrl = new URL(weatherQueryUri.toString());
-            Log.v(TAG, "URL: " + weatherQueryUrl);
+            Log.v(TAG, "URL: " + withoutApiKey(weatherQueryUrl));
             return weatherQueryUrl;
         } catch (MalformedURLException e) {
             e.printStackTrace();
@@ -140,20 +284,23 @@ public final class NetworkUtils {
      * Builds the URL used to talk to the weather server using a location. This location is based
      * on the query capabilities of the weather provider that we are using.
      *
+     * @param baseUrl       The forecast endpoint to query
      * @param locationQuery The location that will be queried for.
+     * @param count         How many days or intervals of forecast to ask for
      * @return The URL to use to query the weather server.
      */
-    private static URL buildUrlWithLocationQuery(String locationQuery) {
-        Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+    private static URL buildUrlWithLocationQuery(String baseUrl, String locationQuery,
+                                                 int count) {
+        Uri weatherQueryUri = Uri.parse(baseUrl).buildUpon()
                 .appendQueryParameter(QUERY_PARAM, locationQuery)
                 .appendQueryParameter(FORMAT_PARAM, format)
                 .appendQueryParameter(UNITS_PARAM, units)
-                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(count))
                 .build();
 
         try {
             URL weatherQueryUrl = new URL(weatherQueryUri.toString());
-            Log.v(TAG, "URL: " + weatherQueryUrl);
+            Log.v(TAG, "URL: " + withoutApiKey(weatherQueryUrl));
             return weatherQueryUrl;
         } catch (MalformedURLException e) {
             e.printStackTrace();
@@ -162,29 +309,157 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * Opens the response from the given URL for reading as it arrives, recording in the given
+     * trace how long connecting and waiting for the first byte of the response took. The
+     * response size is recorded once the response is closed.
+     * <p>
+     * Nothing is buffered beyond what the stream needs, so a large response can be parsed while
+     * it downloads. Failing to read the rest of it throws a ResponseReadException, so that the
+     * failure is still known to be the network's when it surfaces in the parser.
      *
-     * @param url The URL to fetch the HTTP response from.
-     * @return The contents of the HTTP response, null if no response
+     * @param url   The URL to fetch the HTTP response from.
+     * @param trace The trace of the sync making the request
+     * @return The body of the response, which the caller must close, or null if it is empty
      * @throws IOException Related to network and stream reading
      */
-    public static String getResponseFromHttpUrl(URL url) throws IOException {
+    public static InputStream openResponse(URL url, SyncTrace trace) throws IOException {
+        trace.beginSpan(SyncTrace.SPAN_CONNECT);
         HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        boolean opened = false;
         try {
-            InputStream in = urlConnection.getInputStream();
+            urlConnection.connect();
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
-
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+            /* The first byte marks the end of the server's think time and the start of the body */
+            trace.beginSpan(SyncTrace.SPAN_TTFB);
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode >= 400 && responseCode < 500) {
+                throw new ClientErrorException(responseCode);
+            }
+            InputStream in = new BufferedInputStream(urlConnection.getInputStream());
+            in.mark(1);
+            if (in.read() == -1) {
+                in.close();
+                trace.endSpan();
+                trace.setCount(SyncTrace.COUNT_RESPONSE_BYTES, 0);
+                return null;
             }
-            scanner.close();
-            return response;
+            in.reset();
+            trace.endSpan();
+
+            opened = true;
+            return new ResponseStream(in, urlConnection, trace);
         } finally {
-            urlConnection.disconnect();
+            if (!opened) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of a response into a String, for responses small enough to parse whole.
+     *
+     * @param response The body of the response, which the caller closes
+     * @return The contents of the response
+     * @throws IOException Related to network and stream reading
+     */
+    public static String readResponse(InputStream response) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = response.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return body.toString("UTF-8");
+    }
+
+    /**
+     * The body of a response as it arrives. Counts its bytes for the trace, tells read failures
+     * apart from the parser's, and disconnects when closed.
+     */
+    private static final class ResponseStream extends FilterInputStream {
+
+        private final HttpURLConnection mConnection;
+        private final SyncTrace mTrace;
+        private long mBytes;
+
+        ResponseStream(InputStream in, HttpURLConnection connection, SyncTrace trace) {
+            super(in);
+            mConnection = connection;
+            mTrace = trace;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b != -1) {
+                    mBytes++;
+                }
+                return b;
+            } catch (IOException e) {
+                throw new ResponseReadException(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            try {
+                int read = super.read(buffer, offset, count);
+                if (read > 0) {
+                    mBytes += read;
+                }
+                return read;
+            } catch (IOException e) {
+                throw new ResponseReadException(e);
+            }
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            try {
+                long skipped = super.skip(count);
+                mBytes += skipped;
+                return skipped;
+            } catch (IOException e) {
+                throw new ResponseReadException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mTrace.setCount(SyncTrace.COUNT_RESPONSE_BYTES, mBytes);
+            try {
+                super.close();
+            } finally {
+                mConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Thrown when the connection fails while a response is being read. The response is read as
+     * it is parsed, so this tells a dropped connection apart from a response that doesn't parse.
+     */
+    public static final class ResponseReadException extends IOException {
+
+        public ResponseReadException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Thrown when the server rejects a request as malformed or unauthorized (HTTP 4xx). Unlike a
+     * network failure, sending the same request again won't help, so a sync that ends this way
+     * isn't retried when the network changes.
+     */
+    public static final class ClientErrorException extends IOException {
+
+        public final int responseCode;
+
+        public ClientErrorException(int responseCode) {
+            /* Not the URL, which may hold our API key and ends up in the stored sync traces */
+            super("HTTP " + responseCode);
+            this.responseCode = responseCode;
         }
     }
-}
\ No newline at end of file
+}
@@ -2,12 +2,11 @@ package com.example.android.sunshine.utilities;
 
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
@@ -15,8 +14,12 @@ import android.support.v4.content.ContextCompat;
 
 import com.example.android.sunshine.DetailActivity;
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.ForecastSnapshot;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.sync.WeatherAlertEngine;
+
+import java.util.List;
 
 public class NotificationUtils {
 
@@ -46,16 +49,59 @@ public class NotificationUtils {
      */
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    /* Alerts get a notification of their own, so they don't replace the daily one */
+    private static final int WEATHER_ALERT_NOTIFICATION_ID = 3005;
+
+    /**
+     * Everything needed to post the weather notification, worked out ahead of time so that
+     * posting is just handing it to the NotificationManager.
+     */
+    public static class WeatherNotification {
+        final Uri contentUri;
+        final int smallIconResourceId;
+        final Bitmap largeIcon;
+        final String title;
+        final String text;
+
+        WeatherNotification(Uri contentUri, int smallIconResourceId, Bitmap largeIcon,
+                            String title, String text) {
+            this.contentUri = contentUri;
+            this.smallIconResourceId = smallIconResourceId;
+            this.largeIcon = largeIcon;
+            this.title = title;
+            this.text = text;
+        }
+    }
+
     /**
-     * Constructs and displays a notification for the newly updated weather for today.
+     * Constructs and displays a notification for the newly updated weather for today, reading
+     * today's weather back from the last sync. The sync itself uses
+     * {@link #prepareWeatherNotification(Context, ContentValues[])} instead, since it already has
+     * the forecast in memory.
      *
      * @param context Context used to query our ContentProvider and use various Utility methods
      */
     public static void notifyUserOfNewWeather(Context context) {
 
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+
         /* Build the URI for today's weather in order to show up to date data in notification */
-        Uri todaysWeatherUri = WeatherContract.WeatherEntry
-                .buildWeatherUriWithDate(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+        Uri todaysWeatherUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(today);
+
+        /*
+         * The sync writes a snapshot of the forecast alongside its commit, and today's three
+         * values can be read straight out of it without a round trip through the provider.
+         */
+        ForecastSnapshot snapshot = ForecastSnapshot.open(context);
+        int todayIndex = snapshot != null ? snapshot.indexOf(today) : -1;
+        if (todayIndex >= 0) {
+            postWeatherNotification(context, prepareWeatherNotification(context,
+                    todaysWeatherUri,
+                    snapshot.getWeatherId(todayIndex),
+                    snapshot.getMaxTemp(todayIndex),
+                    snapshot.getMinTemp(todayIndex)));
+            return;
+        }
 
         /*
          * The MAIN_FORECAST_PROJECTION array passed in as the second parameter is defined in our WeatherContract
@@ -79,68 +125,194 @@ public class NotificationUtils {
             double high = todayWeatherCursor.getDouble(INDEX_MAX_TEMP);
             double low = todayWeatherCursor.getDouble(INDEX_MIN_TEMP);
 
-            Resources resources = context.getResources();
-            int largeArtResourceId = SunshineWeatherUtils
-                    .getLargeArtResourceIdForWeatherCondition(weatherId);
-
-            Bitmap largeIcon = BitmapFactory.decodeResource(
-                    resources,
-                    largeArtResourceId);
-
-            String notificationTitle = context.getString(R.string.app_name);
-
-            String notificationText = getNotificationText(context, weatherId, high, low);
-
-            /* getSmallArtResourceIdForWeatherCondition returns the proper art to show given an ID */
-            int smallArtResourceId = SunshineWeatherUtils
-                    .getSmallArtResourceIdForWeatherCondition(weatherId);
-
-            /*
-             * NotificationCompat Builder is a very convenient way to build backward-compatible
-             * notifications. In order to use it, we provide a context and specify a color for the
-             * notification, a couple of different icons, the title for the notification, and
-             * finally the text of the notification, which in our case in a summary of today's
-             * forecast.
-             */
-            NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context)
-                    .setColor(ContextCompat.getColor(context,R.color.colorPrimary))
-                    .setSmallIcon(smallArtResourceId)
-                    .setLargeIcon(largeIcon)
-                    .setContentTitle(notificationTitle)
-                    .setContentText(notificationText)
-                    .setAutoCancel(true);
-
-            /*
-             * This Intent will be triggered when the user clicks the notification. In our case,
-             * we want to open Sunshine to the DetailActivity to display the newly updated weather.
-             */
-            Intent detailIntentForToday = new Intent(context, DetailActivity.class);
-            detailIntentForToday.setData(todaysWeatherUri);
-
-            TaskStackBuilder taskStackBuilder = TaskStackBuilder.create(context);
-            taskStackBuilder.addNextIntentWithParentStack(detailIntentForToday);
-            PendingIntent resultPendingIntent = taskStackBuilder
-                    .getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
-
-            notificationBuilder.setContentIntent(resultPendingIntent);
-
-            NotificationManager notificationManager = (NotificationManager)
-                    context.getSystemService(Context.NOTIFICATION_SERVICE);
-
-            /* WEATHER_NOTIFICATION_ID allows you to update or cancel the notification later on */
-            notificationManager.notify(WEATHER_NOTIFICATION_ID, notificationBuilder.build());
-
-            /*
-             * Since we just showed a notification, save the current time. That way, we can check
-             * next time the weather is refreshed if we should show another notification.
-             */
-            SunshinePreferences.saveLastNotificationTime(context, System.currentTimeMillis());
+            postWeatherNotification(context,
+                    prepareWeatherNotification(context, todaysWeatherUri, weatherId, high, low));
         }
 
         /* Always close your cursor when you're done with it to avoid wasting resources. */
         todayWeatherCursor.close();
     }
 
+    /**
+     * Works out today's weather notification from a forecast the caller already has in memory,
+     * such as the one a sync has just committed, so nothing has to be read back from the
+     * database.
+     *
+     * @param context  Used to access resources
+     * @param forecast One WeatherEntry ContentValues per day, in any order
+     * @return The notification, or null if the forecast doesn't include today
+     */
+    public static WeatherNotification prepareWeatherNotification(Context context,
+                                                                 ContentValues[] forecast) {
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        for (ContentValues day : forecast) {
+            if (day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE) == today) {
+                return prepareWeatherNotification(context,
+                        WeatherContract.WeatherEntry.buildWeatherUriWithDate(today),
+                        day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                        day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                        day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Works out the notification for today's weather.
+     *
+     * @param context          Used to access resources
+     * @param todaysWeatherUri Opened in DetailActivity when the notification is clicked
+     * @param weatherId        ID as determined by Open Weather Map
+     * @param high             High temperature, in °C
+     * @param low              Low temperature, in °C
+     * @return The notification, ready to post
+     */
+    private static WeatherNotification prepareWeatherNotification(Context context,
+                                                                  Uri todaysWeatherUri,
+                                                                  int weatherId,
+                                                                  double high,
+                                                                  double low) {
+        Bitmap largeIcon = WeatherArtCache.getBitmap(context, weatherId,
+                WeatherArtCache.SIZE_NOTIFICATION);
+
+        String notificationTitle = context.getString(R.string.app_name);
+
+        String notificationText = getNotificationText(context, weatherId, high, low);
+
+        /* getSmallArtResourceIdForWeatherCondition returns the proper art to show given an ID */
+        int smallArtResourceId = SunshineWeatherUtils
+                .getSmallArtResourceIdForWeatherCondition(weatherId);
+
+        return new WeatherNotification(todaysWeatherUri, smallArtResourceId, largeIcon,
+                notificationTitle, notificationText);
+    }
+
+    /**
+     * Shows a prepared weather notification, then records when it was shown.
+     *
+     * @param context      Used to access the NotificationManager
+     * @param notification The notification to show
+     */
+    public static void postWeatherNotification(Context context, WeatherNotification notification) {
+        /*
+         * NotificationCompat Builder is a very convenient way to build backward-compatible
+         * notifications. In order to use it, we provide a context and specify a color for the
+         * notification, a couple of different icons, the title for the notification, and
+         * finally the text of the notification, which in our case in a summary of today's
+         * forecast.
+         */
+        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context)
+                .setColor(ContextCompat.getColor(context,R.color.colorPrimary))
+                .setSmallIcon(notification.smallIconResourceId)
+                .setLargeIcon(notification.largeIcon)
+                .setContentTitle(notification.title)
+                .setContentText(notification.text)
+                .setAutoCancel(true);
+
+        /*
+         * This Intent will be triggered when the user clicks the notification. In our case,
+         * we want to open Sunshine to the DetailActivity to display the newly updated weather.
+         */
+        Intent detailIntentForToday = new Intent(context, DetailActivity.class);
+        detailIntentForToday.setData(notification.contentUri);
+
+        TaskStackBuilder taskStackBuilder = TaskStackBuilder.create(context);
+        taskStackBuilder.addNextIntentWithParentStack(detailIntentForToday);
+        PendingIntent resultPendingIntent = taskStackBuilder
+                .getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        notificationBuilder.setContentIntent(resultPendingIntent);
+
+        NotificationManager notificationManager = (NotificationManager)
+                context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+        /* WEATHER_NOTIFICATION_ID allows you to update or cancel the notification later on */
+        notificationManager.notify(WEATHER_NOTIFICATION_ID, notificationBuilder.build());
+
+        /*
+         * Since we just showed a notification, save the current time. That way, we can check
+         * next time the weather is refreshed if we should show another notification.
+         */
+        SunshinePreferences.saveLastNotificationTime(context, System.currentTimeMillis());
+    }
+
+    /**
+     * Shows a notification for significant changes to the forecast. The most important alert
+     * decides the title, icon and what clicking the notification opens; when there are several,
+     * each gets a line in the expanded notification. Unlike the daily notification, this one
+     * isn't rate limited here, since WeatherAlertEngine never raises the same alert twice.
+     *
+     * @param context Used to access resources and the NotificationManager
+     * @param alerts  The alerts to show, most important first
+     */
+    public static void notifyUserOfWeatherAlerts(Context context,
+                                                 List<WeatherAlertEngine.Alert> alerts) {
+        if (alerts.isEmpty()) {
+            return;
+        }
+        WeatherAlertEngine.Alert topAlert = alerts.get(0);
+
+        int titleResourceId;
+        switch (topAlert.type) {
+            case WeatherAlertEngine.ALERT_SEVERE_WEATHER:
+                titleResourceId = R.string.alert_title_severe_weather;
+                break;
+            case WeatherAlertEngine.ALERT_PRECIPITATION:
+                titleResourceId = R.string.alert_title_precipitation;
+                break;
+            default:
+                titleResourceId = R.string.alert_title_temperature_swing;
+                break;
+        }
+        String title = context.getString(titleResourceId);
+
+        NotificationCompat.InboxStyle lines = new NotificationCompat.InboxStyle()
+                .setBigContentTitle(title);
+        for (WeatherAlertEngine.Alert alert : alerts) {
+            lines.addLine(getAlertText(context, alert));
+        }
+
+        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context)
+                .setColor(ContextCompat.getColor(context, R.color.colorPrimary))
+                .setSmallIcon(SunshineWeatherUtils
+                        .getSmallArtResourceIdForWeatherCondition(topAlert.weatherId))
+                .setLargeIcon(WeatherArtCache.getBitmap(context, topAlert.weatherId,
+                        WeatherArtCache.SIZE_NOTIFICATION))
+                .setContentTitle(title)
+                .setContentText(getAlertText(context, topAlert))
+                .setStyle(lines)
+                .setAutoCancel(true);
+
+        /* Clicking the alert opens the day it is about */
+        Intent detailIntent = new Intent(context, DetailActivity.class);
+        detailIntent.setData(WeatherContract.WeatherEntry.buildWeatherUriWithDate(topAlert.date));
+
+        TaskStackBuilder taskStackBuilder = TaskStackBuilder.create(context);
+        taskStackBuilder.addNextIntentWithParentStack(detailIntent);
+        notificationBuilder.setContentIntent(taskStackBuilder
+                .getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT));
+
+        NotificationManager notificationManager = (NotificationManager)
+                context.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(WEATHER_ALERT_NOTIFICATION_ID, notificationBuilder.build());
+    }
+
+    /**
+     * Describes one alert, e.g. "Tomorrow: Thunderstorm" or "Friday: now High 21°C Low 12°C".
+     */
+    private static String getAlertText(Context context, WeatherAlertEngine.Alert alert) {
+        String day = SunshineDateUtils.getFriendlyDateString(context, alert.date, false);
+        if (alert.type == WeatherAlertEngine.ALERT_TEMPERATURE_SWING) {
+            return context.getString(R.string.format_alert_temperature,
+                    day,
+                    SunshineWeatherUtils.formatTemperature(context, alert.high),
+                    SunshineWeatherUtils.formatTemperature(context, alert.low));
+        }
+        return context.getString(R.string.format_alert_condition,
+                day,
+                SunshineWeatherUtils.getStringForWeatherCondition(context, alert.weatherId));
+    }
+
     /**
      * Constructs and returns the summary of a particular day's forecast using various utility
      * methods and resources for formatting. This method is only used to create the text for the
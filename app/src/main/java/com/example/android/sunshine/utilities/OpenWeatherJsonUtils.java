@@ -15,17 +15,26 @@
  */
 package com.example.android.sunshine.utilities;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
+import android.os.Build;
+import android.util.JsonReader;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.WeatherIntervalEntry;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utility functions to handle OpenWeatherMap JSON data.
@@ -60,6 +69,16 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * The hourly and three-hourly forecasts put the start of each interval, in seconds since the
+     * epoch, in "dt", the temperatures and other readings in "main" and the wind in "wind".
+     */
+    private static final String OWM_DATE_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_INTERVAL_MIN = "temp_min";
+    private static final String OWM_INTERVAL_MAX = "temp_max";
+    private static final String OWM_WIND = "wind";
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -181,4 +200,197 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
-}
\ No newline at end of file
+
+    /**
+     * Parses an hourly or three-hourly forecast from Open Weather Map into one WeatherIntervalEntry
+     * ContentValues per interval.
+     * <p>
+     * Finer forecasts are around 24 times the size of the daily one, so rather than buffer the
+     * response and build a tree of JSONObjects for it, this parses the response as it arrives,
+     * front to back, and only keeps the values it stores. Everything else, such as the
+     * descriptions and the duplicated readings, is skipped without being allocated.
+     * <p>
+     * The coordinates of the forecast's location are only saved once the whole response has been
+     * read and held a forecast, so an error response never moves the saved location.
+     *
+     * @param context    Used to save the coordinates of the forecast's location
+     * @param in         The response from the server, read as far as the end of the JSON. The
+     *                   caller closes it.
+     * @param resolution The length of each interval, one of WeatherIntervalEntry's RESOLUTION_
+     *                   constants
+     * @return One ContentValues per interval, in the order the server sent them, or null if the
+     * server reported an error
+     * @throws IOException If the JSON is malformed or the response can't be read
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static ContentValues[] getWeatherIntervalContentValuesFromJson(Context context,
+            InputStream in, long resolution) throws IOException {
+
+        /*
+         * The reader isn't closed, as that would close the response. It holds nothing else that
+         * needs releasing.
+         */
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        List<ContentValues> intervals = null;
+        double[] coordinates = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                /* Sent as a string by these endpoints; nextString reads a number too */
+                if (Integer.parseInt(reader.nextString()) != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+            } else if (OWM_LIST.equals(name)) {
+                intervals = readIntervals(reader, resolution);
+            } else if (OWM_CITY.equals(name)) {
+                coordinates = readCityCoordinates(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (intervals == null) {
+            return null;
+        }
+        if (coordinates != null) {
+            SunshinePreferences.setLocationDetails(context, coordinates[0], coordinates[1]);
+        }
+        return intervals.toArray(new ContentValues[intervals.size()]);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static List<ContentValues> readIntervals(JsonReader reader, long resolution)
+            throws IOException {
+        List<ContentValues> intervals = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            intervals.add(readInterval(reader, resolution));
+        }
+        reader.endArray();
+        return intervals;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ContentValues readInterval(JsonReader reader, long resolution)
+            throws IOException {
+        long startTimeMillis = 0;
+        int weatherId = 0;
+        double temperature = 0;
+        double low = 0;
+        double high = 0;
+        double pressure = 0;
+        double humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATE_TIME.equals(name)) {
+                startTimeMillis = reader.nextLong() * 1000;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String reading = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(reading)) {
+                        temperature = reader.nextDouble();
+                    } else if (OWM_INTERVAL_MIN.equals(reading)) {
+                        low = reader.nextDouble();
+                    } else if (OWM_INTERVAL_MAX.equals(reading)) {
+                        high = reader.nextDouble();
+                    } else if (OWM_PRESSURE.equals(reading)) {
+                        pressure = reader.nextDouble();
+                    } else if (OWM_HUMIDITY.equals(reading)) {
+                        humidity = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                /* Only the first, primary condition is used, as in the daily forecast */
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            weatherId = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String reading = reader.nextName();
+                    if (OWM_WINDSPEED.equals(reading)) {
+                        windSpeed = reader.nextDouble();
+                    } else if (OWM_WIND_DIRECTION.equals(reading)) {
+                        windDirection = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        ContentValues intervalValues = new ContentValues(11);
+        intervalValues.put(WeatherIntervalEntry.COLUMN_START_TIME, startTimeMillis);
+        intervalValues.put(WeatherIntervalEntry.COLUMN_RESOLUTION, resolution);
+        intervalValues.put(WeatherIntervalEntry.COLUMN_DATE,
+                SunshineDateUtils.getNormalizedUtcDateForLocalDay(startTimeMillis));
+        intervalValues.put(WeatherIntervalEntry.COLUMN_WEATHER_ID, weatherId);
+        intervalValues.put(WeatherIntervalEntry.COLUMN_TEMP, temperature);
+        intervalValues.put(WeatherIntervalEntry.COLUMN_MIN_TEMP, low);
+        intervalValues.put(WeatherIntervalEntry.COLUMN_MAX_TEMP, high);
+        intervalValues.put(WeatherIntervalEntry.COLUMN_HUMIDITY, humidity);
+        intervalValues.put(WeatherIntervalEntry.COLUMN_PRESSURE, pressure);
+        intervalValues.put(WeatherIntervalEntry.COLUMN_WIND_SPEED, windSpeed);
+        intervalValues.put(WeatherIntervalEntry.COLUMN_DEGREES, windDirection);
+        return intervalValues;
+    }
+
+    /* The latitude and longitude in "city", or null if it has no coordinates */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static double[] readCityCoordinates(JsonReader reader) throws IOException {
+        double[] coordinates = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!OWM_COORD.equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            coordinates = new double[2];
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_LATITUDE.equals(name)) {
+                    coordinates[0] = reader.nextDouble();
+                } else if (OWM_LONGITUDE.equals(name)) {
+                    coordinates[1] = reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return coordinates;
+    }
+}
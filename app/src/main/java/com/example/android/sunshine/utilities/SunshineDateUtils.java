@@ -141,6 +141,19 @@ public final class SunshineDateUtils {
         return millisFromEpochToTodayAtMidnightUtc;
     }
 
+    /**
+     * Does for any instant what {@link #getNormalizedUtcDateForToday()} does for now: returns the
+     * date, at midnight GMT, of the local day the instant falls on. This is how the hours of an
+     * hourly forecast are grouped into the same days as the rest of Sunshine's dates.
+     *
+     * @param utcMillis An instant, in milliseconds since the epoch
+     * @return The normalized UTC date of the local day containing that instant
+     */
+    public static long getNormalizedUtcDateForLocalDay(long utcMillis) {
+        long gmtOffsetMillis = TimeZone.getDefault().getOffset(utcMillis);
+        return normalizeDate(utcMillis + gmtOffsetMillis);
+    }
+
     /**
      * In order to ensure consistent inserts into WeatherProvider, we check that dates have been
      * normalized before they are inserted. If they are not normalized, we don't want to accept
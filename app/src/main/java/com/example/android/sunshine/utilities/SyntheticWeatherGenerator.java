@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherHistoryEntry;
+
+import java.util.Random;
+
+/**
+ * Generates plausible weather, as the ContentValues the provider's bulk inserts take, for
+ * filling the database to realistic sizes in load and scale tests. Unlike
+ * FakeDataUtils.insertFakeData, whose week of data is different on every run, a generator
+ * always produces the same weather for the same seed, site and date. Any day can be generated
+ * on its own, so a dataset of any length can be built in batches, and a test that fails can be
+ * run again on exactly the same data.
+ * <p>
+ * The weather follows each site's climate: a seasonal temperature curve, reversed south of the
+ * equator, plus slow swings of temperature, pressure and moisture lasting a few days to a
+ * couple of weeks, plus day-to-day noise. Conditions follow from those, so low pressure and
+ * humid air bring rain, or snow below freezing, and every condition ID the app knows can turn
+ * up, the rarer ones rarely.
+ * <p>
+ * Forecasts, for the history table, are the weather that then happened plus an error that grows
+ * with how far ahead the day was, so forecasts issued on different days for the same day
+ * disagree the way real ones do.
+ */
+public final class SyntheticWeatherGenerator {
+
+    /**
+     * A place and the climate the generated weather for it follows.
+     */
+    public static final class Site {
+
+        public final String name;
+        public final double latitude;
+        public final double longitude;
+
+        /* Annual mean temperature, and how far the coldest and warmest days of the year are off */
+        final double meanTemp;
+        final double seasonalAmplitude;
+
+        final double meanHumidity;
+        final double meanWindSpeed;
+        final double prevailingWindDegrees;
+
+        Site(String name, double latitude, double longitude, double meanTemp,
+             double seasonalAmplitude, double meanHumidity, double meanWindSpeed,
+             double prevailingWindDegrees) {
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.meanTemp = meanTemp;
+            this.seasonalAmplitude = seasonalAmplitude;
+            this.meanHumidity = meanHumidity;
+            this.meanWindSpeed = meanWindSpeed;
+            this.prevailingWindDegrees = prevailingWindDegrees;
+        }
+    }
+
+    /* Sites with climates different enough between them to exercise every condition */
+    public static final Site SITE_MOUNTAIN_VIEW =
+            new Site("Mountain View", 37.3861, -122.0839, 15.0, 5.0, 70, 3.0, 300);
+    public static final Site SITE_SINGAPORE =
+            new Site("Singapore", 1.3521, 103.8198, 27.5, 1.0, 84, 2.5, 180);
+    public static final Site SITE_MOSCOW =
+            new Site("Moscow", 55.7558, 37.6173, 5.8, 13.0, 77, 3.5, 240);
+    public static final Site SITE_PHOENIX =
+            new Site("Phoenix", 33.4484, -112.0740, 24.0, 10.5, 35, 2.8, 250);
+    public static final Site SITE_BUENOS_AIRES =
+            new Site("Buenos Aires", -34.6037, -58.3816, 17.6, 6.0, 72, 3.6, 90);
+    public static final Site SITE_TROMSO =
+            new Site("Tromso", 69.6492, 18.9553, 3.0, 7.5, 80, 4.5, 180);
+
+    public static final Site[] SITES = {
+            SITE_MOUNTAIN_VIEW,
+            SITE_SINGAPORE,
+            SITE_MOSCOW,
+            SITE_PHOENIX,
+            SITE_BUENOS_AIRES,
+            SITE_TROMSO
+    };
+
+    /*
+     * The condition IDs, grouped as OpenWeatherMap groups them and, within each group, roughly
+     * from the mildest to the most severe. See SunshineWeatherUtils.
+     */
+    private static final int[] THUNDERSTORM_IDS =
+            {200, 210, 201, 230, 231, 211, 232, 202, 212, 221};
+    private static final int[] DRIZZLE_IDS = {300, 310, 301, 311, 313, 321, 302, 312, 314};
+    private static final int[] RAIN_IDS = {500, 520, 501, 521, 511, 531, 502, 522, 503, 504};
+    private static final int[] SNOW_IDS = {600, 620, 601, 611, 612, 615, 616, 621, 602, 622};
+    private static final int[] ATMOSPHERE_IDS = {701, 741, 721, 711, 731, 761, 751, 762, 771, 781};
+    private static final int[] CLOUDS_IDS = {800, 801, 802, 803, 804};
+    private static final int[] EXTREME_IDS = {951, 952, 953, 954, 955, 956, 957, 958, 959, 960,
+            961, 962, 900, 901, 902, 903, 904, 905, 906};
+
+    /* How often a day is one of the extreme or additional conditions */
+    private static final double EXTREME_PROBABILITY = 0.002;
+
+    private static final double DAYS_PER_YEAR = 365.2425;
+
+    /* Days after the 1st of January that are, on average, the coldest of the year in the north */
+    private static final double COLDEST_DAY_OF_YEAR = 20;
+
+    /* Periods, in days, of the swings that stand in for weather systems passing through */
+    private static final double[] SYNOPTIC_PERIODS = {3.3, 5.9, 11.7};
+
+    /* Which swing drives which variable */
+    private static final int SWING_TEMPERATURE = 0;
+    private static final int SWING_PRESSURE = 1;
+    private static final int SWING_MOISTURE = 2;
+
+    /* Keep the random numbers drawn for the weather and for forecasts of it apart */
+    private static final long SALT_WEATHER = 1;
+    private static final long SALT_FORECAST = 2;
+
+    private final long mSeed;
+
+    /**
+     * @param seed Generators with the same seed generate the same weather
+     */
+    public SyntheticWeatherGenerator(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * Generates the weather for one day at the given site.
+     *
+     * @param site Where
+     * @param date The normalized UTC date
+     * @return WeatherEntry ContentValues for the day
+     */
+    public ContentValues createDay(Site site, long date) {
+        long day = date / SunshineDateUtils.DAY_IN_MILLIS;
+        Random random = randomFor(site, day, SALT_WEATHER);
+
+        /* The seasonal curve runs from -1 on the coldest day of the year to 1 on the warmest */
+        double season = -Math.cos(2 * Math.PI * (day - COLDEST_DAY_OF_YEAR) / DAYS_PER_YEAR);
+        if (site.latitude < 0) {
+            season = -season;
+        }
+        double temperatureSwing = swing(site, day, SWING_TEMPERATURE);
+        double pressureSwing = swing(site, day, SWING_PRESSURE);
+        double moistureSwing = swing(site, day, SWING_MOISTURE);
+
+        double meanTemp = site.meanTemp + site.seasonalAmplitude * season
+                + 3.5 * temperatureSwing + 1.2 * random.nextGaussian();
+        double humidity = clamp(site.meanHumidity + 15 * moistureSwing - 8 * pressureSwing
+                + 5 * random.nextGaussian(), 5, 100);
+        double pressure = 1013 + 12 * pressureSwing + 2 * random.nextGaussian();
+        double windSpeed = Math.max(0, site.meanWindSpeed * (1 - 0.6 * pressureSwing)
+                + 1.2 * random.nextGaussian());
+        double degrees = site.prevailingWindDegrees + 50 * random.nextGaussian();
+
+        /* Dry air lets days get warmer and nights colder */
+        double dailyRange = 4 + 8 * (1 - humidity / 100);
+
+        return createValues(date,
+                meanTemp - dailyRange / 2,
+                meanTemp + dailyRange / 2,
+                humidity,
+                pressure,
+                windSpeed,
+                degrees,
+                random);
+    }
+
+    /**
+     * Generates the weather for consecutive days at the given site.
+     *
+     * @param site      Where
+     * @param firstDate The normalized UTC date of the first day
+     * @param count     How many days
+     * @return WeatherEntry ContentValues, one per day, in date order
+     */
+    public ContentValues[] createDays(Site site, long firstDate, int count) {
+        ContentValues[] days = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            days[i] = createDay(site, firstDate + i * SunshineDateUtils.DAY_IN_MILLIS);
+        }
+        return days;
+    }
+
+    /**
+     * Generates the forecast a sync at the given time would have stored: the days from the one
+     * it ran on, each the weather that then happened plus an error that grows with how far
+     * ahead the day was.
+     *
+     * @param site     Where
+     * @param issuedAt When the forecast was issued, in milliseconds since the epoch
+     * @param days     How many days the forecast covers
+     * @return WeatherHistoryEntry ContentValues, one per day, with COLUMN_ISSUED_AT set
+     */
+    public ContentValues[] createIssue(Site site, long issuedAt, int days) {
+        long firstDate = SunshineDateUtils.normalizeDate(issuedAt);
+        ContentValues[] issue = new ContentValues[days];
+        for (int lead = 0; lead < days; lead++) {
+            long date = firstDate + lead * SunshineDateUtils.DAY_IN_MILLIS;
+            ContentValues actual = createDay(site, date);
+            Random random = randomFor(site, issuedAt, SALT_FORECAST + lead);
+
+            double tempError = (0.8 + 0.45 * lead) * random.nextGaussian();
+            double minTemp = actual.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP) + tempError;
+            double maxTemp = actual.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP) + tempError
+                    + 0.3 * lead * random.nextGaussian();
+            double humidity = clamp(actual.getAsDouble(WeatherEntry.COLUMN_HUMIDITY)
+                    + 2 * lead * random.nextGaussian(), 5, 100);
+            double pressure = actual.getAsDouble(WeatherEntry.COLUMN_PRESSURE)
+                    + 0.8 * lead * random.nextGaussian();
+            double windSpeed = Math.max(0, actual.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED)
+                    + 0.3 * lead * random.nextGaussian());
+            double degrees = actual.getAsDouble(WeatherEntry.COLUMN_DEGREES)
+                    + 6 * lead * random.nextGaussian();
+
+            ContentValues forecast = createValues(date, Math.min(minTemp, maxTemp),
+                    Math.max(minTemp, maxTemp), humidity, pressure, windSpeed, degrees, random);
+
+            /* The further ahead, the likelier the forecast gets the condition wrong */
+            if (random.nextDouble() >= 0.06 * lead) {
+                forecast.put(WeatherEntry.COLUMN_WEATHER_ID,
+                        actual.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+            }
+            forecast.put(WeatherHistoryEntry.COLUMN_ISSUED_AT, issuedAt);
+            issue[lead] = forecast;
+        }
+        return issue;
+    }
+
+    private static ContentValues createValues(long date, double minTemp, double maxTemp,
+                                              double humidity, double pressure, double windSpeed,
+                                              double degrees, Random random) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID,
+                chooseCondition(random, minTemp, maxTemp, humidity, pressure, windSpeed));
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, minTemp);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
+        values.put(WeatherEntry.COLUMN_PRESSURE, pressure);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        values.put(WeatherEntry.COLUMN_DEGREES, ((degrees % 360) + 360) % 360);
+        return values;
+    }
+
+    /* Picks a condition ID that fits the day's temperature, humidity, pressure and wind */
+    private static int chooseCondition(Random random, double minTemp, double maxTemp,
+                                       double humidity, double pressure, double windSpeed) {
+        if (random.nextDouble() < EXTREME_PROBABILITY) {
+            return EXTREME_IDS[random.nextInt(EXTREME_IDS.length)];
+        }
+
+        /* Humid air and low pressure make precipitation likely */
+        double precipitation = clamp((humidity - 55) / 45 + (1013 - pressure) / 25, 0, 0.95);
+        if (random.nextDouble() < precipitation) {
+            if (maxTemp <= 1 || (minTemp < 0 && random.nextBoolean())) {
+                return pickMostlyMild(random, SNOW_IDS);
+            } else if (maxTemp >= 24 && random.nextDouble() < 0.35) {
+                return pickMostlyMild(random, THUNDERSTORM_IDS);
+            } else if (random.nextDouble() < 0.3) {
+                return pickMostlyMild(random, DRIZZLE_IDS);
+            }
+            return pickMostlyMild(random, RAIN_IDS);
+        }
+
+        /* Saturated, still air is fog, mist or haze */
+        if (humidity >= 90 && windSpeed < 2.5) {
+            return pickMostlyMild(random, ATMOSPHERE_IDS);
+        }
+
+        double cloudiness = clamp((humidity - 30) / 60 + (1013 - pressure) / 40, 0, 1);
+        int clouds = (int) Math.round(cloudiness * 4 + 0.7 * random.nextGaussian());
+        return CLOUDS_IDS[(int) clamp(clouds, 0, CLOUDS_IDS.length - 1)];
+    }
+
+    /* Any ID of the group, the first, mildest ones far more often than the last */
+    private static int pickMostlyMild(Random random, int[] ids) {
+        double r = random.nextDouble();
+        return ids[(int) (ids.length * r * r)];
+    }
+
+    /*
+     * The passing weather systems for one variable at one site: the sum of a few slow waves with
+     * phases that depend on the seed, between -1 and 1. It depends only on the day, so
+     * neighbouring days get similar values without one having to be generated before the other.
+     */
+    private double swing(Site site, long day, int variable) {
+        Random phases = randomFor(site, variable, 0);
+        double sum = 0;
+        for (double period : SYNOPTIC_PERIODS) {
+            sum += Math.sin(2 * Math.PI * (day / period + phases.nextDouble()));
+        }
+        return sum / SYNOPTIC_PERIODS.length;
+    }
+
+    private Random randomFor(Site site, long key, long salt) {
+        return new Random(mix(mix(mix(mSeed) ^ site.name.hashCode()) ^ key) ^ salt);
+    }
+
+    /* Scrambles the bits of a value so that nearby keys give unrelated random sequences */
+    private static long mix(long z) {
+        z += 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(value, max));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.util.LruCache;
+import android.util.TypedValue;
+
+import com.example.android.sunshine.R;
+
+/**
+ * One place to get weather art from, already rasterized at the size it is shown at, for the
+ * forecast list, the detail screen and notifications.
+ * <p>
+ * Each of those used to resolve an art resource and have it decoded (or, for the vector arts,
+ * inflated and drawn) again every time it was shown. Here each art is rasterized once per size
+ * class and screen density, and the bitmap is shared by everyone who shows it. Many condition IDs
+ * share the same art, so the cache is keyed by the art they resolve to rather than by condition.
+ * <p>
+ * The cache is bounded by the bytes its bitmaps use, and least recently used art is dropped
+ * first. Bitmaps handed out are shared and must not be modified or recycled.
+ */
+public final class WeatherArtCache {
+
+    /* Size classes; each decides both which art set is used and how big it is drawn */
+    public static final int SIZE_LIST = 0;
+    public static final int SIZE_TODAY = 1;
+    public static final int SIZE_NOTIFICATION = 2;
+
+    /* Large icon size used before API 11 exposed the platform's own */
+    private static final int DEFAULT_NOTIFICATION_ICON_SIZE_DP = 64;
+
+    /* Every art in every size class is a few MB at most; never take more than 1/16 of the heap */
+    private static final int MAX_CACHE_BYTES = (int) Math.min(8 * 1024 * 1024,
+            Runtime.getRuntime().maxMemory() / 16);
+
+    private static final LruCache<Long, Bitmap> sCache =
+            new LruCache<Long, Bitmap>(MAX_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(Long key, Bitmap art) {
+                    return art.getRowBytes() * art.getHeight();
+                }
+            };
+
+    private WeatherArtCache() {
+    }
+
+    /**
+     * Returns the art for a weather condition at the given size class.
+     *
+     * @param context   Used to access resources
+     * @param weatherId ID as determined by Open Weather Map
+     * @param sizeClass One of the SIZE_ constants
+     * @return The art, shared between callers, so it must not be modified
+     */
+    public static Bitmap getBitmap(Context context, int weatherId, int sizeClass) {
+        int artResourceId = sizeClass == SIZE_LIST
+                ? SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId)
+                : SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId);
+        Resources resources = context.getResources();
+        int densityDpi = resources.getDisplayMetrics().densityDpi;
+
+        Long key = ((long) artResourceId << 32) | (sizeClass << 16) | densityDpi;
+        Bitmap art = sCache.get(key);
+        if (art == null) {
+            int size = getSizeInPixels(resources, sizeClass);
+            art = rasterize(context, artResourceId, size);
+            sCache.put(key, art);
+        }
+        return art;
+    }
+
+    /**
+     * Same as {@link #getBitmap(Context, int, int)}, wrapped in a Drawable for views and APIs
+     * that want one. The wrapper is new each time and cheap; the bitmap inside is shared.
+     */
+    public static Drawable getDrawable(Context context, int weatherId, int sizeClass) {
+        return new BitmapDrawable(context.getResources(),
+                getBitmap(context, weatherId, sizeClass));
+    }
+
+    /**
+     * @return How many requests were served from the cache
+     */
+    public static int hitCount() {
+        return sCache.hitCount();
+    }
+
+    /**
+     * @return How many requests had to rasterize the art
+     */
+    public static int missCount() {
+        return sCache.missCount();
+    }
+
+    /**
+     * @return How many bitmaps were dropped to stay within the memory bound
+     */
+    public static int evictionCount() {
+        return sCache.evictionCount();
+    }
+
+    /**
+     * Drops every cached bitmap, for instance when the system is low on memory.
+     */
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    private static int getSizeInPixels(Resources resources, int sizeClass) {
+        switch (sizeClass) {
+            case SIZE_LIST:
+                return resources.getDimensionPixelSize(R.dimen.list_icon);
+            case SIZE_TODAY:
+                return resources.getDimensionPixelSize(R.dimen.today_icon);
+            case SIZE_NOTIFICATION:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    return resources.getDimensionPixelSize(
+                            android.R.dimen.notification_large_icon_width);
+                }
+                return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                        DEFAULT_NOTIFICATION_ICON_SIZE_DP, resources.getDisplayMetrics());
+            default:
+                throw new IllegalArgumentException("Unknown size class: " + sizeClass);
+        }
+    }
+
+    /*
+     * The large arts are vector drawables on API 21 and up, which BitmapFactory can't decode, so
+     * every art is drawn into a bitmap of the right size instead.
+     */
+    private static Bitmap rasterize(Context context, int artResourceId, int size) {
+        Drawable drawable = ContextCompat.getDrawable(context, artResourceId);
+        Bitmap art = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(art);
+        drawable.setBounds(0, 0, size, size);
+        drawable.draw(canvas);
+        return art;
+    }
+}
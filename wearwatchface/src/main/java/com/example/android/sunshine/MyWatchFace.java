@@ -22,7 +22,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -30,7 +29,6 @@ import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -42,21 +40,10 @@ import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 import android.widget.Toast;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataEvent;
-import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
-import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
-import com.google.android.gms.wearable.Wearable;
-import com.google.gson.Gson;
 
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -82,6 +69,15 @@ public class MyWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * Forecast data older than this is drawn dimmed. The phone republishes at least every six
+     * hours while it is in reach, so this only trips after the watch has lost touch for a while.
+     */
+    private static final long STALE_AFTER_MS = TimeUnit.HOURS.toMillis(12);
+
+    /* Alpha applied to the weather row when the data is stale */
+    private static final int STALE_ALPHA = 0x66;
+
 
     @Override
     public Engine onCreateEngine() {
@@ -110,54 +106,18 @@ public class MyWatchFace extends CanvasWatchFaceService {
         }
     }
 
-    private class Engine extends CanvasWatchFaceService.Engine implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
-        private static final long TIMEOUT_MS = 5000;
-        private GoogleApiClient googleApiClient;
-        //the DataApi.DataListener - this will get notified every time we change something in the data layer
-        private final DataApi.DataListener onDataChangedListener = new DataApi.DataListener() {
-            @Override
-            public void onDataChanged(DataEventBuffer dataEvents) {
-                Log.v(TAG, "onDataChanged");
-
-                for (DataEvent event : dataEvents) {
-
-                    Log.d(" - onDataChanged",
-                            "Event received: " + event.getDataItem().getUri());
-
-                    String eventUri = event.getDataItem().getUri().toString();
-
-                    if (eventUri.contains("/myapp/myevent")) {
-
-                        DataMapItem dataItem = DataMapItem.fromDataItem(event.getDataItem());
-                        String[] data = dataItem.getDataMap().getStringArray("contents");
-
-                        Log.d("- onDataChanged", "Sending timeline to the listener");
-
-
-                    }
-                }
-                for (DataEvent event : dataEvents) {
-                    if (event.getType() == DataEvent.TYPE_CHANGED) {
-                        DataItem item = event.getDataItem();
-                        processConfigurationFor(item);
-                    }
-                }
-
-                dataEvents.release();
-            }
-        };
-        //a ResultCallback - this will notify us every time the googleApiClient connects
-        private final ResultCallback<DataItemBuffer> onConnectedResultCallback = new ResultCallback<DataItemBuffer>() {
-            @Override
-            public void onResult(DataItemBuffer dataItems) {
-                for (DataItem item : dataItems) {
-                    processConfigurationFor(item);
-                }
-
-                dataItems.release();
-                invalidate();
-            }
-        };
+    private class Engine extends CanvasWatchFaceService.Engine implements WatchDataSession.Callbacks {
+        /* Shared, long-lived connection to the data layer; see WatchDataSession */
+        private WatchDataSession mDataSession;
+        /* Weather art rasterized at the size we draw it */
+        private WeatherIconCache mIconCache;
+        /* Last forecast window received from the phone, persisted across engine restarts */
+        private WatchForecastStore mForecastStore;
+        private WatchFaceContract.ForecastWindow mForecastWindow;
+        /* Normalized date of the day currently shown, so we only re-resolve when it changes */
+        private long mShownDate = -1;
+        private boolean mHasForecast;
+        private boolean mForecastStale;
 
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
@@ -219,11 +179,11 @@ public class MyWatchFace extends CanvasWatchFaceService {
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
-            googleApiClient = new GoogleApiClient.Builder(MyWatchFace.this)
-                    .addApi(Wearable.API)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .build();
+            mDataSession = new WatchDataSession(MyWatchFace.this, WatchFaceContract.PATH_WEATHER, this);
+            mDataSession.connect();
+            mIconCache = new WeatherIconCache(MyWatchFace.this);
+            mForecastStore = new WatchForecastStore(MyWatchFace.this);
+            mForecastWindow = mForecastStore.load();
 
             setWatchFaceStyle(new WatchFaceStyle.Builder(MyWatchFace.this)
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_VARIABLE)
@@ -270,7 +230,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
-            releaseGoogleApiClient();
+            mDataSession.release();
             super.onDestroy();
         }
 
@@ -313,33 +273,18 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
                 // Update time zone in case it changed while we weren't visible.
                 mCalendar.setTimeZone(TimeZone.getDefault());
+                // The session stays connected while hidden; this only nudges it if it dropped.
+                mDataSession.connect();
                 invalidate();
             } else {
                 unregisterReceiver();
             }
 
-            if (visible) {
-
-                googleApiClient.connect();
-            } else {
-
-                releaseGoogleApiClient();
-            }
-
-
             // Whether the timer should be running depends on whether we're visible (as well as
             // whether we're in ambient mode), so we may need to start or stop the timer.
             updateTimer();
         }
 
-        private void releaseGoogleApiClient() {
-            if (googleApiClient != null && googleApiClient.isConnected()) {
-                Wearable.DataApi.removeListener(googleApiClient, onDataChangedListener);
-                googleApiClient.disconnect();
-            }
-        }
-
-
         private void registerReceiver() {
             if (mRegisteredTimeZoneReceiver) {
                 return;
@@ -447,6 +392,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
             long now = System.currentTimeMillis();
             mCalendar.setTimeInMillis(now);
+            updateForecastForTime(now);
 
             // drawing the clock
             String hours = String.format("%d", mCalendar.get(Calendar.HOUR));
@@ -477,15 +423,23 @@ public class MyWatchFace extends CanvasWatchFaceService {
             canvas.drawLine(x, y, x + separatorWidth, y, mSeparator);
 
             //drawing image
-            String majorTemp = String.format(getString(R.string.format_temperature), (int) mDataTempMajor);
-            String minorTemp = String.format(getString(R.string.format_temperature), (int) mDataTempMinor);
+            String majorTemp = mHasForecast
+                    ? String.format(getString(R.string.format_temperature), (int) mDataTempMajor)
+                    : getString(R.string.no_temperature);
+            String minorTemp = mHasForecast
+                    ? String.format(getString(R.string.format_temperature), (int) mDataTempMinor)
+                    : getString(R.string.no_temperature);
+            int weatherAlpha = mForecastStale ? STALE_ALPHA : 0xFF;
+            mMajorDegreePaint.setAlpha(weatherAlpha);
+            mMinorDegreePaint.setAlpha(weatherAlpha);
             x = boundWidth / 2 - (mTempImageWidth + mTempImageMarginRight + mMajorDegreePaint.measureText(majorTemp) + mTempMinorMarginLeft + mMinorDegreePaint.measureText(minorTemp)) / 2;
             y = mYOffset + mDateTopMargin + mSeparatorTopMargin + mSeparatorBottomMargin + mTempBaseToTop - mTempImageHeight + mTempImageMarginTop;
 //            Drawable d = getResources().getDrawable(R.mipmap.ic_launcher, null);
 //            d.setBounds((int) x, (int) y, (int) x + (int) mTempImageWidth, (int) y + (int) mTempImageHeight);
 //            d.draw(canvas);
 
-            if (weatherIcon != null) {
+            if (mHasForecast && weatherIcon != null) {
+                weatherIcon.setAlpha(weatherAlpha);
                 weatherIcon.setBounds((int) x, (int) y, (int) x + (int) mTempImageWidth, (int) y + (int) mTempImageHeight);
                 weatherIcon.draw(canvas);
             }
@@ -532,85 +486,56 @@ public class MyWatchFace extends CanvasWatchFaceService {
             }
         }
 
-        private void processConfigurationFor(DataItem item) {
-
-            Log.v(TAG, "processConfigurationFor" + new Gson().toJson(item.getUri()));
-            if ("/ubiquitous_watch_face_config".equals(item.getUri().getPath())) {
-                DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-                if (dataMap.containsKey("KEY_MAJOR_TEMP")) {
-                    mDataTempMajor = dataMap.getDouble("KEY_MAJOR_TEMP");
-                }
-
-                if (dataMap.containsKey("KEY_MINOR_TEMP")) {
-                    mDataTempMinor = dataMap.getDouble("KEY_MINOR_TEMP");
-                }
-                if (dataMap.containsKey("KEY_WEATHER_IMAGE")) {
-                    Log.e(TAG, "dataMap contain image");
-                    Asset asset = dataMap.getAsset("KEY_WEATHER_IMAGE");
-                    loadBitmapFromAsset(asset);
-
-                } else {
-                    Log.e(TAG, "waether image is  null");
-                }
-                invalidate();
-
-            }
-        }
-
         @Override
-        public void onConnected(Bundle bundle) {
-            Log.d(TAG, "connected GoogleAPI");
-            Wearable.DataApi.addListener(googleApiClient, onDataChangedListener);
-            Wearable.DataApi.getDataItems(googleApiClient).setResultCallback(onConnectedResultCallback);
-        }
+        public void onDataItem(DataItem item) {
+            if (!WatchFaceContract.PATH_WEATHER.equals(item.getUri().getPath())) {
+                return;
+            }
+            DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
+            byte[] payload = dataMap.getByteArray(WatchFaceContract.KEY_WEATHER);
+            WatchFaceContract.ForecastWindow window = WatchFaceContract.decode(payload);
+            if (window == null) {
+                Log.w(TAG, "Ignoring malformed weather payload");
+                return;
+            }
 
-        @Override
-        public void onConnectionSuspended(int i) {
-            Log.e(TAG, "suspended GoogleAPI");
+            mForecastStore.save(payload);
+            mForecastWindow = window;
+            /* Force the shown day to be resolved again against the new window */
+            mShownDate = -1;
+            invalidate();
         }
 
-        @Override
-        public void onConnectionFailed(ConnectionResult connectionResult) {
-            Log.e(TAG, "connectionFailed GoogleAPI");
-        }
+        /**
+         * Picks the day to show out of the stored forecast window. This runs on every draw but
+         * only does real work when the local date rolls over or new data arrives, which is how
+         * the watch moves on to tomorrow's forecast at midnight without asking the phone.
+         */
+        private void updateForecastForTime(long now) {
+            WatchFaceContract.ForecastWindow window = mForecastWindow;
+            long today = WatchWeatherUtils.getNormalizedUtcDate(now);
+            if (today != mShownDate) {
+                mShownDate = today;
+                int index = window == null ? -1 : window.indexOf(today);
+                mHasForecast = index >= 0;
+                if (mHasForecast) {
+                    showDay(window, index);
+                }
+            }
 
-        public void loadBitmapFromAsset(Asset asset) {
-            new BitmapWorkerTask().execute(asset);
+            /* Past the end of the window there is nothing honest to show, which is stale too */
+            mForecastStale = !mHasForecast || now - window.issuedAt > STALE_AFTER_MS;
         }
 
-        class BitmapWorkerTask extends AsyncTask<Asset, Void, Bitmap> {
-            Asset asset;
+        private void showDay(WatchFaceContract.ForecastWindow window, int index) {
+            mDataTempMajor = WatchWeatherUtils.toPreferredUnits(window.highs[index], window.metric);
+            mDataTempMinor = WatchWeatherUtils.toPreferredUnits(window.lows[index], window.metric);
 
-            @Override
-            protected Bitmap doInBackground(Asset... params) {
-                asset = params[0];
-                if (asset == null) {
-                    throw new IllegalArgumentException("Asset must be non-null");
-                }
-                ConnectionResult result = googleApiClient.blockingConnect(TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                if (!result.isSuccess()) {
-                    Log.e(TAG, "loadBitmapFromAsset not sucess");
-                    return null;
-                }
-                // convert asset into a file descriptor and block until it's ready
-                InputStream assetInputStream = Wearable.DataApi.getFdForAsset(
-                        googleApiClient, asset).await().getInputStream();
-                googleApiClient.disconnect();
-
-                if (assetInputStream == null) {
-                    Log.w(TAG, "Requested an unknown Asset.");
-                    return null;
-                }
-                // decode the stream into a bitmap
-                return BitmapFactory.decodeStream(assetInputStream);
-            }
-
-            @Override
-            protected void onPostExecute(Bitmap bitmap) {
-                super.onPostExecute(bitmap);
-                weatherIcon = new BitmapDrawable(getResources(), bitmap);
-                invalidate();
-            }
+            /* The art is bundled with the watch face, so nothing crosses the data layer for it */
+            int artResourceId = WatchWeatherUtils
+                    .getArtResourceIdForWeatherCondition(window.weatherIds[index]);
+            Bitmap icon = mIconCache.get(artResourceId, (int) mTempImageWidth, (int) mTempImageHeight);
+            weatherIcon = new BitmapDrawable(getResources(), icon);
         }
     }
 
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the single {@link GoogleApiClient} used by the watch face. The client is connected once
+ * when the engine is created and stays connected across visibility changes, so waking the screen
+ * never costs a reconnect. Nobody but {@link #release()} is allowed to disconnect it.
+ * <p>
+ * On every (re)connect only the items under {@link #mPath} are fetched, rather than every data
+ * item the phone has ever put. Connection failures are retried with an exponential backoff, and
+ * the number of reconnects along with the latency of the last connect are kept for diagnostics.
+ */
+class WatchDataSession implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+
+    private static final String TAG = WatchDataSession.class.getSimpleName();
+
+    /* Backoff applied between reconnect attempts after a connection failure */
+    private static final long RECONNECT_INITIAL_BACKOFF_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long RECONNECT_MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Receives the data items that belong to this session's path, either from the initial fetch
+     * after a connect or from the data listener.
+     */
+    interface Callbacks {
+        void onDataItem(DataItem item);
+    }
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Callbacks mCallbacks;
+    private final String mPath;
+    private final Uri mPathUri;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private boolean mReleased;
+    private boolean mListenerRegistered;
+    private long mReconnectBackoffMs = RECONNECT_INITIAL_BACKOFF_MS;
+
+    /* Diagnostics */
+    private int mConnectCount;
+    private int mReconnectCount;
+    private long mConnectStartedAt;
+    private long mLastConnectLatencyMs = -1;
+
+    private final DataApi.DataListener mDataListener = new DataApi.DataListener() {
+        @Override
+        public void onDataChanged(DataEventBuffer dataEvents) {
+            for (DataEvent event : dataEvents) {
+                if (event.getType() == DataEvent.TYPE_CHANGED) {
+                    mCallbacks.onDataItem(event.getDataItem());
+                }
+            }
+            dataEvents.release();
+        }
+    };
+
+    private final ResultCallback<DataItemBuffer> mFetchCallback =
+            new ResultCallback<DataItemBuffer>() {
+                @Override
+                public void onResult(DataItemBuffer dataItems) {
+                    for (DataItem item : dataItems) {
+                        mCallbacks.onDataItem(item);
+                    }
+                    dataItems.release();
+                }
+            };
+
+    private final Runnable mReconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            connect();
+        }
+    };
+
+    WatchDataSession(Context context, String path, Callbacks callbacks) {
+        mCallbacks = callbacks;
+        mPath = path;
+        mPathUri = new Uri.Builder()
+                .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                .path(path)
+                .build();
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+    }
+
+    /**
+     * Connects the shared client if it is not already connected or connecting. Safe to call
+     * repeatedly, for instance every time the watch face becomes visible.
+     */
+    void connect() {
+        if (mReleased || mGoogleApiClient.isConnected() || mGoogleApiClient.isConnecting()) {
+            return;
+        }
+        mHandler.removeCallbacks(mReconnectRunnable);
+        mConnectStartedAt = SystemClock.elapsedRealtime();
+        mGoogleApiClient.connect();
+    }
+
+    /**
+     * Tears the session down for good. Only the engine's onDestroy should call this.
+     */
+    void release() {
+        mReleased = true;
+        mHandler.removeCallbacks(mReconnectRunnable);
+        if (mGoogleApiClient.isConnected() && mListenerRegistered) {
+            Wearable.DataApi.removeListener(mGoogleApiClient, mDataListener);
+        }
+        mListenerRegistered = false;
+        mGoogleApiClient.disconnect();
+    }
+
+    boolean isConnected() {
+        return mGoogleApiClient.isConnected();
+    }
+
+    int getReconnectCount() {
+        return mReconnectCount;
+    }
+
+    long getLastConnectLatencyMs() {
+        return mLastConnectLatencyMs;
+    }
+
+    @Override
+    public void onConnected(Bundle bundle) {
+        mLastConnectLatencyMs = SystemClock.elapsedRealtime() - mConnectStartedAt;
+        if (mConnectCount++ > 0) {
+            mReconnectCount++;
+        }
+        mReconnectBackoffMs = RECONNECT_INITIAL_BACKOFF_MS;
+        Log.d(TAG, "connected in " + mLastConnectLatencyMs + "ms, reconnects=" + mReconnectCount);
+
+        if (!mListenerRegistered) {
+            Wearable.DataApi.addListener(mGoogleApiClient, mDataListener,
+                    mPathUri, DataApi.FILTER_PREFIX);
+            mListenerRegistered = true;
+        }
+
+        /* Only pull the items we actually render, not the whole data layer */
+        Wearable.DataApi.getDataItems(mGoogleApiClient, mPathUri, DataApi.FILTER_PREFIX)
+                .setResultCallback(mFetchCallback);
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        /*
+         * GoogleApiClient reconnects on its own after a suspension, and the listener survives
+         * it, so all we need to do is restart the latency clock.
+         */
+        Log.w(TAG, "connection to " + mPath + " suspended, cause=" + cause);
+        mConnectStartedAt = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+        Log.e(TAG, "connection failed: " + connectionResult + ", retrying in "
+                + mReconnectBackoffMs + "ms");
+        mListenerRegistered = false;
+        if (mReleased) return;
+        mHandler.postDelayed(mReconnectRunnable, mReconnectBackoffMs);
+        mReconnectBackoffMs = Math.min(mReconnectBackoffMs * 2, RECONNECT_MAX_BACKOFF_MS);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+/**
+ * Small on-watch store for the last forecast window received from the phone. The packed payload
+ * is only around a hundred bytes, so it is kept as-is in a private SharedPreferences file. This
+ * lets the watch face render real values right after it is created, before (or without) the
+ * data layer ever connecting.
+ */
+class WatchForecastStore {
+
+    private static final String PREFS_NAME = "watch_forecast";
+    private static final String KEY_PAYLOAD = "payload";
+
+    private final SharedPreferences mPrefs;
+
+    WatchForecastStore(Context context) {
+        mPrefs = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the stored window, or null if nothing valid has been stored yet
+     */
+    WatchFaceContract.ForecastWindow load() {
+        String encoded = mPrefs.getString(KEY_PAYLOAD, null);
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            return WatchFaceContract.decode(Base64.decode(encoded, Base64.NO_WRAP));
+        } catch (IllegalArgumentException e) {
+            /* Corrupt entry; treat it as empty and let the next payload overwrite it */
+            return null;
+        }
+    }
+
+    /**
+     * Stores a payload that has already been validated with {@link WatchFaceContract#decode}.
+     */
+    void save(byte[] payload) {
+        mPrefs.edit()
+                .putString(KEY_PAYLOAD, Base64.encodeToString(payload, Base64.NO_WRAP))
+                .apply();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.util.Log;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weather helpers for the watch face. These mirror the parts of the phone's
+ * SunshineWeatherUtils that the watch needs now that it renders from the condition ID alone.
+ */
+final class WatchWeatherUtils {
+
+    private static final String LOG_TAG = WatchWeatherUtils.class.getSimpleName();
+
+    private WatchWeatherUtils() {
+    }
+
+    /**
+     * Converts a temperature in Celsius to the units the user picked on the phone.
+     */
+    static double toPreferredUnits(double celsius, boolean metric) {
+        return metric ? celsius : (celsius * 1.8) + 32;
+    }
+
+    /**
+     * Returns the given instant's local calendar date as milliseconds at midnight UTC, the same
+     * normalization the phone's SunshineDateUtils uses for the dates in the forecast window.
+     */
+    static long getNormalizedUtcDate(long utcMillis) {
+        long gmtOffsetMillis = TimeZone.getDefault().getOffset(utcMillis);
+        long localMillis = utcMillis + gmtOffsetMillis;
+        long daysSinceEpoch = TimeUnit.MILLISECONDS.toDays(localMillis);
+        return TimeUnit.DAYS.toMillis(daysSinceEpoch);
+    }
+
+    /**
+     * Helper method to provide the art resource ID according to the weather condition ID returned
+     * by the OpenWeatherMap call. Kept in step with the phone's
+     * getLargeArtResourceIdForWeatherCondition.
+     *
+     * @param weatherId from OpenWeatherMap API response
+     * @return resource ID for the corresponding art
+     */
+    static int getArtResourceIdForWeatherCondition(int weatherId) {
+
+        /*
+         * Based on weather code data for Open Weather Map.
+         */
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 771 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        } else if (weatherId >= 900 && weatherId <= 906) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 958 && weatherId <= 962) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 951 && weatherId <= 957) {
+            return R.drawable.art_clear;
+        }
+
+        Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
+        return R.drawable.art_storm;
+    }
+}
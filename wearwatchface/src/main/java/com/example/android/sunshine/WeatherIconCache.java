@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+/**
+ * Cache of rasterized weather icons for the watch face. The art ships with the watch face as
+ * vector drawables, and only about ten distinct pieces exist, so each one is rasterized once at
+ * the size the watch face draws it and then reused for every later update.
+ */
+class WeatherIconCache {
+
+    /* A handful more than the number of distinct weather art assets */
+    private static final int MAX_MEMORY_ENTRIES = 12;
+
+    private final LruCache<String, Bitmap> mMemoryCache =
+            new LruCache<String, Bitmap>(MAX_MEMORY_ENTRIES);
+
+    private final Context mContext;
+
+    WeatherIconCache(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Returns the art for the given resource rasterized at the given size. Rasterizing a small
+     * vector is cheap, so a miss is handled synchronously.
+     *
+     * @param artResourceId drawable resource of the weather art
+     * @param width         width in pixels the icon is drawn at
+     * @param height        height in pixels the icon is drawn at
+     * @return the cached bitmap
+     */
+    Bitmap get(int artResourceId, int width, int height) {
+        String key = artResourceId + "_" + width + "x" + height;
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        Drawable drawable = mContext.getDrawable(artResourceId);
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(canvas);
+
+        mMemoryCache.put(key, bitmap);
+        return bitmap;
+    }
+}